@@ -1,5 +1,7 @@
+import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 
 import arces.unibo.SEPA.application.SEPALogger;
 import arces.unibo.SEPA.application.Producer;
@@ -8,19 +10,27 @@ import arces.unibo.SEPA.commons.SPARQL.RDFTermLiteral;
 import arces.unibo.SEPA.commons.SPARQL.RDFTermURI;
 import arces.unibo.SEPA.application.ApplicationProfile;
 import arces.unibo.SEPA.application.SEPALogger.VERBOSITY;
-import jssc.SerialPortList;
-
 import labid.comm.ByteUtils;
+import labid.comm.CableStream;
+import labid.comm.ReconnectingStream;
 import labid.comm.SerialStream;
 import labid.iso15693.ISO15693Reader;
+import labid.reader.DiscoveredReader;
 import labid.reader.RFReaderException;
+import labid.reader.ReaderDiscovery;
+import labid.reader.TagPresenceEvent;
+import labid.reader.TagPresenceListener;
+import labid.reader.TagPresenceTracker;
 
 public class RFIDAdapter extends Producer {
 	private String comPort;
-	private SerialStream stream;
+	private CableStream stream;
 	private boolean running = true;
 	
-	private static ISO15693Reader reader;
+	/** Inventory mancati prima di considerare uscito un tag */
+	private static final int DEPARTURE_ROUNDS = 3;
+	
+	private ISO15693Reader reader;
 	private InventoryThread thread = new InventoryThread();
 	
 	Bindings bindings = new Bindings();
@@ -30,12 +40,23 @@ public class RFIDAdapter extends Producer {
 		comPort = port;
 	}
 	
+	/** Adapter of a reader found by {@link ReaderDiscovery}, whose stream is already open.
+	 * The port is reopened if the reader is unplugged. */
+	public RFIDAdapter(ApplicationProfile appProfile,DiscoveredReader found) {
+		super(appProfile,"UPDATE_RFID_READING");
+		comPort = found.port;
+		stream = new ReconnectingStream(found.stream, ReconnectingStream.serialPort(found.port, found.baudRate));
+	}
+	
 	public boolean start() {
-		SerialStream stream = new SerialStream();
-		try {
-			stream.Open(comPort, 115200);
-		} catch (IOException e) {
-			return false;
+		if (stream == null) {
+			SerialStream serial = new SerialStream();
+			try {
+				serial.Open(comPort, 115200);
+			} catch (IOException e) {
+				return false;
+			}
+			stream = serial;
 		}
 		reader = new ISO15693Reader(stream);
 		
@@ -72,56 +93,62 @@ public class RFIDAdapter extends Producer {
 		return true;
 	}
 	
-	class InventoryThread extends Thread {
+	class InventoryThread extends Thread implements TagPresenceListener {
+		private boolean changed = true;
+		
+		public void presenceChanged(TagPresenceEvent event) {
+			changed = true;
+			SEPALogger.log(VERBOSITY.DEBUG, "RFID Adapter", (event.type == TagPresenceEvent.ARRIVED ? "ARRIVED " : "DEPARTED ")
+					+ ByteUtils.toHexString(event.uid, ':'));
+		}
+		
 		public void run() {
-			HashMap<String,String> current = new HashMap<String,String>();
-			HashMap<String,String> previous = null;
-			byte[][] uid = null;
-			String idList = "";
-			boolean notify = true;
+			// uid impacchettati in long: nessuna stringa finche' la lista non cambia
+			long[] uid = new long[ISO15693Reader.MAX_INVENTORY_TAGS];
+			long[] present = new long[ISO15693Reader.MAX_INVENTORY_TAGS];
+			// un tag esce dopo DEPARTURE_ROUNDS letture mancate consecutive
+			TagPresenceTracker tracker = new TagPresenceTracker(DEPARTURE_ROUNDS);
+			tracker.addListener(this);
+			int n;
+			long generation = 0;
 			
 			while(running) {
-				idList = "NULL";
-				notify = true;
-				uid = null;
-				
 				try {
 					Thread.sleep(250);
-					uid = reader.inventory();
-				} catch (RFReaderException | InterruptedException e) {
+					n = reader.inventory(uid);
+				} catch (InterruptedException e) {
 					return;
-				}
-				
-				//Compose new UID list
-				current.clear();
-				if (uid != null) {
-					for (int i=0; i<uid.length; i++) {
-						String uidStr = ByteUtils.toHexString(ByteUtils.revertedCopy(uid[i]), ':');
-						if (i!=0) idList = idList + "|" + uidStr;
-						else idList = uidStr;
-						current.put(uidStr,uidStr);
+				} catch (RFReaderException e) {
+					// lettore scollegato: lo stream si riconnette da solo, il ciclo prosegue
+					if (stream instanceof ReconnectingStream && !((ReconnectingStream) stream).isClosed()) {
+						SEPALogger.log(VERBOSITY.DEBUG, "RFID Adapter", "Inventory failed: "+e.getMessage());
+						continue;
 					}
+					return;
+				}
+				if (stream instanceof ReconnectingStream && ((ReconnectingStream) stream).getGeneration() != generation) {
+					generation = ((ReconnectingStream) stream).getGeneration();
+					SEPALogger.log(VERBOSITY.DEBUG, "RFID Adapter", "Reader reconnected in "
+							+ ((ReconnectingStream) stream).getLastRecoveryTime() + " ms");
 				}
 				
-				//Compare with previous list
-				if (previous != null) {
-					if (previous.keySet().size() == current.keySet().size()) {
-						notify = false;
-						for (String key : previous.keySet()) {
-							if (!current.keySet().contains(key)) {
-								notify = true;
-								break;
-							}
+				tracker.round(uid, n);
+			
+				if (changed) {
+					changed = false;
+					
+					//Compose new UID list
+					if (present.length < tracker.size()) present = new long[tracker.size()];
+					n = tracker.getPresent(present);
+					String idList = "NULL";
+					if (n > 0) {
+						StringBuilder sb = new StringBuilder(n * 24);
+						for (int i=0; i<n; i++) {
+							if (i!=0) sb.append('|');
+							sb.append(ByteUtils.toHexString(present[i], ':'));
 						}
+						idList = sb.toString();
 					}
-				}
-				else previous = new HashMap<String,String>();
-			
-				//Copy previous results
-				previous.clear();
-				for (String key : current.keySet()) previous.put(key, key);
-			
-				if (notify) {
 					bindings.addBinding("value", new RDFTermLiteral(idList));
 					update(bindings);
 					SEPALogger.log(VERBOSITY.DEBUG, "RFID Adapter", "TAGS: "+idList);
@@ -136,20 +163,23 @@ public class RFIDAdapter extends Producer {
 		try {
 			if(!appProfile.load("ApplicationProfile.xml")) return;
 			
-		    String[] portNames = SerialPortList.getPortNames();
-		    if (portNames.length == 0) {
-		    	 System.out.println("No serial ports found...exit");
+		    // tutte le porte in parallelo; porte e velocita' note dall'avvio precedente
+		    ReaderDiscovery discovery = new ReaderDiscovery(new File("labid-readers.properties"));
+		    List<DiscoveredReader> found = discovery.discover();
+		    if (found.size() == 0) {
+		    	 System.out.println("No readers found...exit");
 		    	return;
 		    }
-		    System.out.println("Choose one of the following serial ports:");
-		    for(int i = 0; i < portNames.length; i++){
-		        System.out.printf("%d - %s\n",i,portNames[i]);
-		    }
-		    int sel = System.in.read();
-		    System.out.printf("Selected port: %s\n",portNames[sel-48]);
 		    
-		    RFIDAdapter adapter = new RFIDAdapter(appProfile,portNames[sel-48]);
-		    if(adapter.start()) System.out.println("RFID adapter is running...");
+		    List<RFIDAdapter> adapters = new ArrayList<RFIDAdapter>();
+		    for (DiscoveredReader r : found) {
+		    	System.out.printf("Reader %s on %s at %d baud\n",r.getUidString(),r.port,r.baudRate);
+		    	RFIDAdapter adapter = new RFIDAdapter(appProfile,r);
+		    	if(adapter.start()) {
+		    		System.out.println("RFID adapter is running...");
+		    		adapters.add(adapter);
+		    	}
+		    }
 		    
 		    System.out.println("Press X to exit");
 		    while(System.in.read()!='x') {
@@ -160,7 +190,8 @@ public class RFIDAdapter extends Producer {
 		    		e.printStackTrace();
 		    	}
 		    }
-		    if (adapter.stop()) System.out.println("RFID adapter stopped");
+		    for (RFIDAdapter adapter : adapters)
+		    	if (adapter.stop()) System.out.println("RFID adapter stopped");
 		    
 		}
 		catch(RFReaderException e) {
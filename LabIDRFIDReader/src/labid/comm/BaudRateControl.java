@@ -0,0 +1,22 @@
+package labid.comm;
+
+import java.io.IOException;
+
+/**
+ * A stream whose line speed can be changed while it is open (see
+ * {@link labid.reader.BaudRateNegotiator}).
+ */
+public interface BaudRateControl {
+
+	/**
+	 * The current baud rate of the line.
+	 */
+	public int getBaudRate();
+
+	/**
+	 * Changes the baud rate of the line, keeping the other settings.
+	 *
+	 * @throws IOException If the port does not accept the new speed.
+	 */
+	public void setBaudRate(int baudrate) throws IOException;
+}
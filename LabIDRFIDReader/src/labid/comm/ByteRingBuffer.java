@@ -0,0 +1,204 @@
+package labid.comm;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size byte queue between a producer (the thread which receives bytes
+ * from the device) and a consumer (the thread which calls Read on the stream).
+ * The buffer is allocated once; the consumer can wait for data with a timeout.
+ * <br/>
+ * When the buffer is full the producer must stop receiving (bytes which do not
+ * fit are not accepted) until the consumer has read some data.
+ */
+public class ByteRingBuffer {
+
+	private final byte[] ring;
+	private final int mask;
+
+	/** Index of the next byte to read (not masked) */
+	private int head = 0;
+	/** Index where the next byte will be stored (not masked) */
+	private int tail = 0;
+	private boolean closed = false;
+
+	/**
+	 * Creates a buffer which can hold at least capacity bytes.
+	 */
+	public ByteRingBuffer(int capacity) {
+		int size = 1;
+		while (size < capacity)
+			size <<= 1;
+		ring = new byte[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Size of the buffer.
+	 */
+	public int capacity() {
+		return ring.length;
+	}
+
+	/**
+	 * Number of bytes which can be read.
+	 */
+	public synchronized int available() {
+		return tail - head;
+	}
+
+	/**
+	 * Number of bytes which can be stored.
+	 */
+	public synchronized int free() {
+		return ring.length - (tail - head);
+	}
+
+	/**
+	 * Stores count bytes, or the part of them which fits in the buffer.
+	 *
+	 * @return Number of bytes stored.
+	 */
+	public synchronized int put(byte[] src, int offset, int count) {
+		int n = Math.min(count, ring.length - (tail - head));
+		int first = tail & mask;
+		int toEnd = ring.length - first;
+		if (n <= toEnd)
+			System.arraycopy(src, offset, ring, first, n);
+		else {
+			System.arraycopy(src, offset, ring, first, toEnd);
+			System.arraycopy(src, offset + toEnd, ring, 0, n - toEnd);
+		}
+		tail += n;
+		if (n > 0)
+			notifyAll();
+		return n;
+	}
+
+	/**
+	 * Stores the remaining bytes of src, or the part of them which fits in the
+	 * buffer. The position of src is moved after the stored bytes.
+	 *
+	 * @return Number of bytes stored.
+	 */
+	public synchronized int put(ByteBuffer src) {
+		int n = Math.min(src.remaining(), ring.length - (tail - head));
+		int first = tail & mask;
+		int toEnd = ring.length - first;
+		if (n <= toEnd)
+			src.get(ring, first, n);
+		else {
+			src.get(ring, first, toEnd);
+			src.get(ring, 0, n - toEnd);
+		}
+		tail += n;
+		if (n > 0)
+			notifyAll();
+		return n;
+	}
+
+	/**
+	 * Reads up to count bytes, waiting until at least one byte is available.
+	 *
+	 * @param timeout Maximum wait in ms (0 waits with no time limit).
+	 * @return Number of bytes read, 0 if the timeout has expired, -1 if the buffer
+	 * has been closed and all bytes have been read.
+	 * @throws InterruptedIOException If the thread is interrupted while waiting.
+	 */
+	public synchronized int read(byte[] dest, int offset, int count, int timeout) throws InterruptedIOException {
+		if (count <= 0)
+			return 0;
+		if (tail == head && !closed) {
+			long deadline = System.currentTimeMillis() + timeout;
+			try {
+				while (tail == head && !closed) {
+					if (timeout <= 0)
+						wait();
+					else {
+						long left = deadline - System.currentTimeMillis();
+						if (left <= 0)
+							return 0;
+						wait(left);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for data");
+			}
+		}
+		return take(dest, offset, count);
+	}
+
+	/**
+	 * Reads up to count bytes, waiting until at least one byte is available or
+	 * the deadline has passed.
+	 *
+	 * @param deadline Time limit, as a {@link System#nanoTime()} value.
+	 * @return Number of bytes read, 0 if the deadline has passed, -1 if the buffer
+	 * has been closed and all bytes have been read.
+	 * @throws InterruptedIOException If the thread is interrupted while waiting.
+	 */
+	public synchronized int readUntil(byte[] dest, int offset, int count, long deadline) throws InterruptedIOException {
+		if (count <= 0)
+			return 0;
+		try {
+			while (tail == head && !closed) {
+				long left = deadline - System.nanoTime();
+				if (left <= 0)
+					return 0;
+				wait(left / 1000000L, (int) (left % 1000000L));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for data");
+		}
+		return take(dest, offset, count);
+	}
+
+	/** chiamato con il lock */
+	private int take(byte[] dest, int offset, int count) {
+		if (tail == head)
+			return -1;
+
+		int n = Math.min(count, tail - head);
+		int first = head & mask;
+		int toEnd = ring.length - first;
+		if (n <= toEnd)
+			System.arraycopy(ring, first, dest, offset, n);
+		else {
+			System.arraycopy(ring, first, dest, offset, toEnd);
+			System.arraycopy(ring, 0, dest, offset + toEnd, n - toEnd);
+		}
+		head += n;
+		return n;
+	}
+
+	/**
+	 * Discards all stored bytes.
+	 */
+	public synchronized void clear() {
+		head = tail;
+	}
+
+	/**
+	 * Discards all stored bytes and opens again a closed buffer, so that it
+	 * can be reused for a new connection.
+	 */
+	public synchronized void reset() {
+		head = tail;
+		closed = false;
+	}
+
+	/**
+	 * Marks the end of the data: waiting readers are woken up and, when the
+	 * stored bytes have been read, read returns -1.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+}
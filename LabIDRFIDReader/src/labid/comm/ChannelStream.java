@@ -0,0 +1,324 @@
+package labid.comm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TCP/IP stream served by a {@link SelectorLoop}: one loop thread handles the
+ * connections of many readers, instead of one blocked thread per reader as
+ * with {@link SocketStream}. <br/>
+ * The loop receives bytes with non blocking reads in a direct buffer, then:
+ * <ul>
+ * <li>by default stores them in a receive queue, where {@link #Read(byte[], int, int)}
+ * takes them, so the stream can be used by any {@link labid.reader.LabIdReader};</li>
+ * <li>if a {@link FrameListener} is set, passes them to a {@link FrameDecoder} and
+ * delivers each complete frame to the listener, in the loop thread.</li>
+ * </ul>
+ * Writes never block the loop thread: bytes which the socket does not accept are
+ * kept in the send buffer and sent when the socket is writable again.
+ */
+public class ChannelStream implements DeadlineStream {
+
+	/**
+	 * Receives the frames decoded by the loop thread. Methods must not block:
+	 * they can send the next command with Write.
+	 */
+	public interface FrameListener {
+
+		/**
+		 * A valid frame has been received.
+		 *
+		 * @param frame Buffer which contains the frame, valid only during the call.
+		 * @param length Length of the frame.
+		 */
+		void frameReceived(ChannelStream stream, byte[] frame, int length);
+
+		/**
+		 * The connection has been closed by the reader or after an error.
+		 */
+		void streamClosed(ChannelStream stream, IOException e);
+	}
+
+	public static final int CONNECT_TIMEOUT = 5000;
+
+	private static final int RX_BUFFER_SIZE = 2048;
+	private static final int TX_BUFFER_SIZE = 4096;
+	private static final int QUEUE_SIZE = 4096;
+
+	private final SocketChannel channel;
+	private final SelectorLoop loop;
+	private final Receiver receiver = new Receiver();
+
+	/** usato solo dal thread del loop */
+	private final ByteBuffer rx = ByteBuffer.allocateDirect(RX_BUFFER_SIZE);
+	/** sempre in modalita' scrittura, protetto dal proprio lock */
+	private final ByteBuffer tx = ByteBuffer.allocateDirect(TX_BUFFER_SIZE);
+	private final ByteRingBuffer queue = new ByteRingBuffer(QUEUE_SIZE);
+	private final Object pauseLock = new Object();
+	private boolean readPaused = false;
+	private boolean writePending = false;
+
+	private volatile FrameListener listener;
+	private FrameDecoder decoder;
+	private byte[] frame;
+
+	private volatile IOException error;
+	private volatile boolean closed = false;
+	private int timeout = 0;
+
+	/**
+	 * Opens a connection served by the default loop.
+	 *
+	 * @param ipAddress IP address of the reader.
+	 * @param port TCP port.
+	 */
+	public ChannelStream(String ipAddress, int port) throws IOException {
+		this(new InetSocketAddress(ipAddress, port), SelectorLoop.getDefault());
+	}
+
+	/**
+	 * Opens a connection served by the given loop.
+	 *
+	 * @param address Address of the reader.
+	 * @param loop The loop which serves the connection.
+	 */
+	public ChannelStream(SocketAddress address, SelectorLoop loop) throws IOException {
+		this.loop = loop;
+		channel = SocketChannel.open();
+		try {
+			channel.socket().connect(address, CONNECT_TIMEOUT);
+			channel.socket().setTcpNoDelay(true);
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		loop.register(channel, SelectionKey.OP_READ, receiver);
+	}
+
+	/**
+	 * Sets the listener which receives decoded frames, or null to receive bytes
+	 * with Read. It should be set before sending the first command.
+	 */
+	public void setFrameListener(final FrameListener listener) {
+		loop.execute(new Runnable() {
+			public void run() {
+				if (listener != null && decoder == null) {
+					decoder = new FrameDecoder();
+					frame = new byte[FrameDecoder.MAX_FRAME_LENGTH + 1];
+				}
+				ChannelStream.this.listener = listener;
+			}
+		});
+	}
+
+	/**
+	 * Sets the maximum time Read waits for data.
+	 *
+	 * @param ReceiveTimeout Timeout in ms, 0 for no time limit.
+	 */
+	public void SetTimeout(int ReceiveTimeout) {
+		this.timeout = ReceiveTimeout;
+	}
+
+	public boolean isOpen() {
+		return !closed && error == null;
+	}
+
+	public void Close() throws IOException {
+		closed = true;
+		loop.close(channel);
+		queue.close();
+		synchronized (tx) {
+			tx.notifyAll();
+		}
+	}
+
+	/**
+	 * Reads the bytes received from the reader.
+	 *
+	 * @return Number of read bytes (at least 1), 0 if the timeout has expired,
+	 * -1 if the connection has been closed.
+	 */
+	public int Read(byte[] buffer, int offset, int count) throws IOException {
+		return received(queue.read(buffer, offset, count, timeout));
+	}
+
+	/**
+	 * Reads the bytes received from the reader, waiting at most until the deadline.
+	 *
+	 * @param deadline Time limit, as a {@link System#nanoTime()} value.
+	 * @return Number of read bytes (at least 1), 0 if the deadline has passed,
+	 * -1 if the connection has been closed.
+	 */
+	public int Read(byte[] buffer, int offset, int count, long deadline) throws IOException {
+		return received(queue.readUntil(buffer, offset, count, deadline));
+	}
+
+	/**
+	 * Completes a read from the receive queue: reports errors and resumes the
+	 * reads suspended because the queue was full.
+	 */
+	private int received(int n) throws IOException {
+		if (n < 0 && error != null)
+			throw error;
+		if (n > 0) {
+			synchronized (pauseLock) {
+				if (readPaused) {
+					readPaused = false;
+					loop.execute(new Runnable() {
+						public void run() {
+							receiver.deliver();
+						}
+					});
+				}
+			}
+		}
+		return n;
+	}
+
+	public int Read(byte[] buffer) throws IOException {
+		return Read(buffer, 0, buffer.length);
+	}
+
+	/**
+	 * Sends bytes to the reader. The method returns when the bytes have been
+	 * sent or stored in the send buffer; it waits only if the send buffer is full
+	 * and it is not called by the loop thread.
+	 */
+	public void Write(byte[] buffer, int offset, int count) throws IOException {
+		synchronized (tx) {
+			while (count > 0) {
+				check();
+				int n = Math.min(count, tx.remaining());
+				if (n == 0) {
+					if (loop.inLoop())
+						throw new IOException("Send buffer full");
+					waitWritable();
+					continue;
+				}
+				tx.put(buffer, offset, n);
+				offset += n;
+				count -= n;
+				flush();
+			}
+			if (tx.position() > 0 && !writePending) {
+				writePending = true;
+				loop.interestOps(channel, SelectionKey.OP_WRITE, 0);
+			}
+		}
+	}
+
+	public void Write(byte[] buffer) throws IOException {
+		Write(buffer, 0, buffer.length);
+	}
+
+	private void check() throws IOException {
+		if (error != null)
+			throw error;
+		if (closed)
+			throw new IOException("Stream closed");
+	}
+
+	/** chiamato con il lock di tx */
+	private void flush() throws IOException {
+		tx.flip();
+		try {
+			channel.write(tx);
+		} finally {
+			tx.compact();
+		}
+	}
+
+	/** chiamato con il lock di tx */
+	private void waitWritable() throws IOException {
+		if (!writePending) {
+			writePending = true;
+			loop.interestOps(channel, SelectionKey.OP_WRITE, 0);
+		}
+		try {
+			tx.wait(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while sending");
+		}
+	}
+
+	/**
+	 * Handler called by the loop thread.
+	 */
+	private class Receiver implements SelectorLoop.Handler {
+
+		public void ready(SelectionKey key) throws IOException {
+			if (key.isWritable()) {
+				synchronized (tx) {
+					flush();
+					if (tx.position() == 0) {
+						writePending = false;
+						key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+					}
+					tx.notifyAll();
+				}
+			}
+			if (key.isValid() && key.isReadable()) {
+				int n = channel.read(rx);
+				if (n < 0)
+					throw new EOFException("Connection closed by reader");
+				deliver();
+			}
+		}
+
+		/**
+		 * Passes the received bytes to the listener or to the receive queue. If the
+		 * queue is full, reading is suspended until Read takes some bytes.
+		 */
+		void deliver() {
+			rx.flip();
+			FrameListener l = listener;
+			if (l != null) {
+				while (rx.hasRemaining()) {
+					int n = Math.min(rx.remaining(), decoder.writeSpace());
+					rx.get(decoder.buffer(), decoder.writeOffset(), n);
+					decoder.commit(n);
+					int len;
+					while ((len = decoder.poll(frame, 0)) > 0)
+						l.frameReceived(ChannelStream.this, frame, len);
+				}
+			} else {
+				queue.put(rx);
+			}
+			rx.compact();
+
+			// i byte rimasti in rx aspettano che Read liberi spazio nella coda
+			boolean waiting = (rx.position() > 0);
+			synchronized (pauseLock) {
+				// se Read ha gia' liberato spazio riprovo invece di sospendere
+				if (waiting && queue.free() > 0) {
+					rx.flip();
+					queue.put(rx);
+					rx.compact();
+					waiting = (rx.position() > 0);
+				}
+				readPaused = waiting;
+			}
+			loop.interestOps(channel, waiting ? 0 : SelectionKey.OP_READ, waiting ? SelectionKey.OP_READ : 0);
+		}
+
+		public void failed(IOException e) {
+			error = e;
+			queue.close();
+			synchronized (tx) {
+				tx.notifyAll();
+			}
+			FrameListener l = listener;
+			if (l != null)
+				l.streamClosed(ChannelStream.this, e);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package labid.comm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * CRC16 used by LAB ID readers (polynomial 0x8408 reflected, preset 0xFFFF,
+ * no final XOR), the same algorithm of the Texas Instruments documentation. <br/>
+ * The class provides static methods for a whole buffer and instances which
+ * can be updated incrementally as data arrives:
+ * <pre>
+ * Crc16 crc = new Crc16();
+ * crc.update(header, 0, 2);
+ * crc.update(payload, 0, payload.length);
+ * int value = crc.getValue();
+ * </pre>
+ * Besides the reference bit-by-bit algorithm, two table driven variants are
+ * available: one byte per step and slicing-by-8. They return the same value;
+ * {@link #update(int, byte[], int, int)} uses slicing-by-8, which is the
+ * fastest from 8 to 512 bytes (see Crc16Benchmark in the test folder). <br/>
+ * Running the CRC over a whole frame, including its two CRC bytes, gives 0 if
+ * the frame is not corrupted.
+ */
+public final class Crc16 {
+
+	public static final int POLYNOMIAL = 0x8408;
+	public static final int PRESET = 0xFFFF;
+
+	/**
+	 * T[k][x] is the CRC contribution of byte x followed by k zero bytes.
+	 */
+	private static final char[][] T = new char[8][256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int j = 0; j < 8; j++) {
+				if ((crc & 0x01) == 1)
+					crc = (crc >> 1) ^ POLYNOMIAL;
+				else
+					crc = (crc >> 1);
+			}
+			T[0][i] = (char) crc;
+		}
+		for (int k = 1; k < 8; k++) {
+			for (int i = 0; i < 256; i++) {
+				int crc = T[k - 1][i];
+				T[k][i] = (char) ((crc >> 8) ^ T[0][crc & 0xFF]);
+			}
+		}
+	}
+
+	private int crc = PRESET;
+
+	/**
+	 * Creates a new CRC with the initial value.
+	 */
+	public Crc16() {
+	}
+
+	/**
+	 * Restores the initial value.
+	 */
+	public void reset() {
+		crc = PRESET;
+	}
+
+	/**
+	 * Current value of the CRC (16 bits).
+	 */
+	public int getValue() {
+		return crc;
+	}
+
+	/**
+	 * Updates the CRC with a single byte.
+	 */
+	public void update(int b) {
+		crc = (crc >> 8) ^ T[0][(crc ^ b) & 0xFF];
+	}
+
+	/**
+	 * Updates the CRC with len bytes of data starting from offset.
+	 */
+	public void update(byte[] data, int offset, int len) {
+		crc = update(crc, data, offset, len);
+	}
+
+	/**
+	 * Updates the CRC with the remaining bytes of a buffer. The position
+	 * of the buffer is moved to its limit. Heap buffers are processed
+	 * through their backing array, direct buffers without copying them.
+	 */
+	public void update(ByteBuffer buffer) {
+		crc = update(crc, buffer);
+	}
+
+	/**
+	 * Computes the CRC of len bytes of data starting from offset.
+	 */
+	public static int compute(byte[] data, int offset, int len) {
+		return update(PRESET, data, offset, len);
+	}
+
+	/**
+	 * Continues the computation of a CRC. Uses slicing-by-8, and the single
+	 * table for the last bytes.
+	 *
+	 * @param crc The CRC of previous data, or {@link #PRESET}.
+	 * @return The updated CRC.
+	 */
+	public static int update(int crc, byte[] data, int offset, int len) {
+		return updateSlicing8(crc, data, offset, len);
+	}
+
+	/**
+	 * Continues the computation of a CRC over the remaining bytes of a buffer,
+	 * whose position is moved to its limit.
+	 */
+	public static int update(int crc, ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			int pos = buffer.position();
+			int len = buffer.remaining();
+			crc = update(crc, buffer.array(), buffer.arrayOffset() + pos, len);
+			buffer.position(pos + len);
+			return crc;
+		}
+
+		int pos = buffer.position();
+		int end = buffer.limit();
+		char[] t0 = T[0], t1 = T[1], t2 = T[2], t3 = T[3];
+		char[] t4 = T[4], t5 = T[5], t6 = T[6], t7 = T[7];
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		while (end - pos >= 8) {
+			long v = buffer.getLong(pos) ^ crc;
+			int lo = (int) v;
+			int hi = (int) (v >>> 32);
+			crc = t7[lo & 0xFF] ^ t6[(lo >>> 8) & 0xFF] ^ t5[(lo >>> 16) & 0xFF] ^ t4[lo >>> 24]
+				^ t3[hi & 0xFF] ^ t2[(hi >>> 8) & 0xFF] ^ t1[(hi >>> 16) & 0xFF] ^ t0[hi >>> 24];
+			pos += 8;
+		}
+		buffer.order(order);
+		while (pos < end)
+			crc = (crc >> 8) ^ t0[(crc ^ buffer.get(pos++)) & 0xFF];
+		buffer.position(end);
+		return crc;
+	}
+
+	/**
+	 * Reference algorithm: processes one bit at a time.
+	 */
+	public static int updateBitwise(int crc, byte[] data, int offset, int len) {
+		int end = offset + len;
+		for (int i = offset; i < end; i++) {
+			crc ^= data[i] & 0xFF;
+			for (int j = 0; j < 8; j++) {
+				if ((crc & 0x01) == 1)
+					crc = (crc >> 1) ^ POLYNOMIAL;
+				else
+					crc = (crc >> 1);
+			}
+		}
+		return crc;
+	}
+
+	/**
+	 * Table driven algorithm: processes one byte at a time.
+	 */
+	public static int updateTable(int crc, byte[] data, int offset, int len) {
+		char[] t0 = T[0];
+		int end = offset + len;
+		for (int i = offset; i < end; i++)
+			crc = (crc >> 8) ^ t0[(crc ^ data[i]) & 0xFF];
+		return crc;
+	}
+
+	/**
+	 * Slicing-by-8 algorithm: processes 8 bytes at a time with 8 tables.
+	 */
+	public static int updateSlicing8(int crc, byte[] data, int offset, int len) {
+		char[] t0 = T[0], t1 = T[1], t2 = T[2], t3 = T[3];
+		char[] t4 = T[4], t5 = T[5], t6 = T[6], t7 = T[7];
+		int i = offset;
+		int end = offset + len;
+		while (end - i >= 8) {
+			int v0 = (data[i] ^ crc) & 0xFF;
+			int v1 = (data[i + 1] ^ (crc >> 8)) & 0xFF;
+			crc = t7[v0] ^ t6[v1]
+				^ t5[data[i + 2] & 0xFF] ^ t4[data[i + 3] & 0xFF]
+				^ t3[data[i + 4] & 0xFF] ^ t2[data[i + 5] & 0xFF]
+				^ t1[data[i + 6] & 0xFF] ^ t0[data[i + 7] & 0xFF];
+			i += 8;
+		}
+		while (i < end)
+			crc = (crc >> 8) ^ t0[(crc ^ data[i++]) & 0xFF];
+		return crc;
+	}
+}
@@ -0,0 +1,22 @@
+package labid.comm;
+
+import java.io.IOException;
+
+/**
+ * A {@link CableStream} whose reads can be bounded by an absolute deadline,
+ * enforced by the transport itself (serial driver timeout, socket SO_TIMEOUT,
+ * wait on the receive queue). Readers use it to give each command a time limit
+ * instead of counting read attempts, whose duration depends on the transport.
+ */
+public interface DeadlineStream extends CableStream {
+
+	/**
+	 * Reads up to count bytes, waiting until at least one byte is available or
+	 * the deadline has passed.
+	 *
+	 * @param deadline Time limit, as a {@link System#nanoTime()} value.
+	 * @return Number of read bytes, 0 if the deadline has passed, -1 if the
+	 * stream has been closed.
+	 */
+	public int Read(byte[] buffer, int offset, int count, long deadline) throws IOException;
+}
@@ -0,0 +1,278 @@
+package labid.comm;
+
+/**
+ * Streaming decoder for LAB ID reader frames. <br/>
+ * A frame has the following layout: <br/>
+ * 0 - length LSB<br/>
+ * 1 - address (bit 0 is the length MSB)<br/>
+ * 2 - control byte<br/>
+ * 3 - command code<br/>
+ * 4 .. length-3 - status and data<br/>
+ * length-2, length-1 - CRC16 (LSB first)<br/>
+ * Received bytes are stored in a ring buffer which is allocated once. The CRC
+ * is computed while bytes arrive, so that a complete frame is checked without
+ * a second pass over its content. If the length field is not valid or the CRC
+ * does not match, the first byte of the candidate frame is discarded and the
+ * decoder looks for a new frame starting from the following byte.
+ * <br/>
+ * The decoder is not thread safe.
+ */
+public class FrameDecoder {
+
+	/**
+	 * The shortest valid frame: length, address, control byte, command code and CRC.
+	 */
+	public static final int MIN_FRAME_LENGTH = 6;
+
+	/**
+	 * The longest frame which can be described by the 9 bits length field.
+	 */
+	public static final int MAX_FRAME_LENGTH = 511;
+
+	private final byte[] ring;
+	private final int mask;
+	private final int maxFrameLength;
+
+	/** Index of the first byte of the candidate frame (not masked) */
+	private int head = 0;
+	/** Index where the next received byte will be stored (not masked) */
+	private int tail = 0;
+	/** Length of the candidate frame or 0 if its header has not been received yet */
+	private int frameLength = 0;
+	/** Number of bytes of the candidate frame already processed by the CRC */
+	private int checked = 0;
+	private int crc = Crc16.PRESET;
+
+	private long discarded = 0;
+	private long frames = 0;
+
+	/**
+	 * Creates a decoder for frames up to {@link #MAX_FRAME_LENGTH} bytes.
+	 */
+	public FrameDecoder() {
+		this(MAX_FRAME_LENGTH + 1);
+	}
+
+	/**
+	 * Creates a decoder which accepts frames up to maxFrameLength bytes (usually
+	 * the size of the buffer where frames are copied).
+	 *
+	 * @param maxFrameLength Length of the longest accepted frame.
+	 */
+	public FrameDecoder(int maxFrameLength) {
+		if (maxFrameLength > MAX_FRAME_LENGTH)
+			maxFrameLength = MAX_FRAME_LENGTH;
+		if (maxFrameLength < MIN_FRAME_LENGTH)
+			throw new IllegalArgumentException("Frame length too short");
+		this.maxFrameLength = maxFrameLength;
+
+		// il ring deve contenere almeno due frame completi
+		int size = 1;
+		while (size < 2 * (MAX_FRAME_LENGTH + 1))
+			size <<= 1;
+		ring = new byte[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Discards all received bytes.
+	 */
+	public void reset() {
+		head = tail;
+		restart();
+	}
+
+	/**
+	 * Number of received bytes not yet returned as part of a frame.
+	 */
+	public int available() {
+		return tail - head;
+	}
+
+	/**
+	 * Minimum number of bytes which must be received before a new frame can be
+	 * completed. It is 0 if a frame is ready, so that callers which use blocking
+	 * reads never ask for more bytes than the reader is going to send.
+	 */
+	public int needed() {
+		int avail = tail - head;
+		if (avail < 2)
+			return 2 - avail;
+		int len = headerLength();
+		if (len < MIN_FRAME_LENGTH || len > maxFrameLength)
+			return 0; // header non valido: verra' scartato da poll()
+		return (len > avail) ? len - avail : 0;
+	}
+
+	/**
+	 * The internal ring buffer. Received bytes can be written directly
+	 * at {@link #writeOffset()}, then confirmed with {@link #commit(int)}.
+	 */
+	public byte[] buffer() {
+		return ring;
+	}
+
+	/**
+	 * Position of the ring buffer where the next received byte must be stored.
+	 */
+	public int writeOffset() {
+		return tail & mask;
+	}
+
+	/**
+	 * Number of bytes which can be written at {@link #writeOffset()} without
+	 * wrapping around the end of the ring buffer.
+	 */
+	public int writeSpace() {
+		int free = ring.length - (tail - head);
+		int toEnd = ring.length - (tail & mask);
+		return (free < toEnd) ? free : toEnd;
+	}
+
+	/**
+	 * Confirms count bytes written in the ring buffer at {@link #writeOffset()}.
+	 *
+	 * @param count Number of bytes written.
+	 */
+	public void commit(int count) {
+		if (count < 0 || count > writeSpace())
+			throw new IllegalArgumentException("Invalid byte count");
+		tail += count;
+	}
+
+	/**
+	 * Appends received bytes to the decoder.
+	 *
+	 * @param data Received bytes.
+	 * @param offset Offset of the first byte.
+	 * @param count Number of bytes.
+	 * @return Number of bytes accepted. It is less than count if the ring buffer is
+	 * full: call {@link #poll(byte[], int)} and then put the remaining bytes.
+	 */
+	public int put(byte[] data, int offset, int count) {
+		int done = 0;
+		while (done < count) {
+			int space = writeSpace();
+			if (space == 0)
+				break;
+			int n = (count - done < space) ? count - done : space;
+			System.arraycopy(data, offset + done, ring, tail & mask, n);
+			tail += n;
+			done += n;
+		}
+		return done;
+	}
+
+	/**
+	 * Looks for a complete frame with a valid CRC among received bytes.
+	 *
+	 * @param dest Buffer where the frame is copied.
+	 * @param offset Offset in the destination buffer.
+	 * @return Length of the frame or 0 if no complete frame has been received yet.
+	 */
+	public int poll(byte[] dest, int offset) {
+		while (tail - head >= 2) {
+			if (frameLength == 0) {
+				int len = headerLength();
+				if (len < MIN_FRAME_LENGTH || len > maxFrameLength || len > dest.length - offset) {
+					skip();
+					continue;
+				}
+				frameLength = len;
+			}
+
+			// aggiorno il crc con i byte arrivati dall'ultima chiamata
+			int end = tail - head;
+			if (end > frameLength)
+				end = frameLength;
+			if (end > checked) {
+				int first = (head + checked) & mask;
+				int n = end - checked;
+				int toEnd = ring.length - first;
+				if (n <= toEnd)
+					crc = Crc16.update(crc, ring, first, n);
+				else {
+					crc = Crc16.update(crc, ring, first, toEnd);
+					crc = Crc16.update(crc, ring, 0, n - toEnd);
+				}
+			}
+			checked = end;
+
+			if (checked < frameLength)
+				return 0;
+
+			if (crc != 0) {
+				skip();
+				continue;
+			}
+
+			int len = frameLength;
+			int first = head & mask;
+			int toEnd = ring.length - first;
+			if (len <= toEnd)
+				System.arraycopy(ring, first, dest, offset, len);
+			else {
+				System.arraycopy(ring, first, dest, offset, toEnd);
+				System.arraycopy(ring, 0, dest, offset + toEnd, len - toEnd);
+			}
+			head += len;
+			frames++;
+			restart();
+			return len;
+		}
+		return 0;
+	}
+
+	/**
+	 * Builds a frame: adds length, address and CRC16 to its content.
+	 *
+	 * @param data Content of the frame (control byte, command code, status and data).
+	 * @param offset Offset of the content.
+	 * @param count Length of the content.
+	 * @param dest Buffer where the frame is built.
+	 * @param destOffset Offset in the destination buffer.
+	 * @return Length of the frame (count + 4).
+	 */
+	public static int encode(byte[] data, int offset, int count, byte[] dest, int destOffset) {
+		int len = count + 4;
+		if (len > MAX_FRAME_LENGTH)
+			throw new IllegalArgumentException("Frame too long");
+		dest[destOffset] = (byte) len;
+		dest[destOffset + 1] = (byte) ((len >> 8) & 0x01);
+		System.arraycopy(data, offset, dest, destOffset + 2, count);
+		int crc = Crc16.compute(dest, destOffset, len - 2);
+		dest[destOffset + len - 2] = (byte) crc;
+		dest[destOffset + len - 1] = (byte) (crc >> 8);
+		return len;
+	}
+
+	/**
+	 * Number of bytes discarded while looking for a valid frame.
+	 */
+	public long getDiscardedBytes() {
+		return discarded;
+	}
+
+	/**
+	 * Number of valid frames returned by {@link #poll(byte[], int)}.
+	 */
+	public long getFrameCount() {
+		return frames;
+	}
+
+	private int headerLength() {
+		return (ring[head & mask] & 0xFF) + ((ring[(head + 1) & mask] & 0x01) << 8);
+	}
+
+	private void skip() {
+		head++;
+		discarded++;
+		restart();
+	}
+
+	private void restart() {
+		frameLength = 0;
+		checked = 0;
+		crc = Crc16.PRESET;
+	}
+}
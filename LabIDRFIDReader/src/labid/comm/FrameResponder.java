@@ -0,0 +1,20 @@
+package labid.comm;
+
+/**
+ * Produces the reply of a stand-in reader to a command frame (see {@link ReaderServer}).
+ */
+public interface FrameResponder {
+
+	/**
+	 * Builds the reply to a command.
+	 *
+	 * @param request Buffer which contains the command: control byte, command code
+	 * and parameters (length, address and CRC have been removed).
+	 * @param offset Offset of the control byte.
+	 * @param length Length of the command.
+	 * @param reply Buffer where the reply content (control byte, command code,
+	 * status and data) must be written, starting from position 0.
+	 * @return Length of the reply content, or 0 if no reply must be sent.
+	 */
+	int respond(byte[] request, int offset, int length, byte[] reply);
+}
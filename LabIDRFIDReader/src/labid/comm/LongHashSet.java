@@ -0,0 +1,235 @@
+package labid.comm;
+
+import java.util.Arrays;
+
+/**
+ * Set of long values (for example ISO15693 serial numbers packed with
+ * {@link ByteUtils#toLong(byte[], int)}) stored in a single array with open
+ * addressing and linear probing: adding, removing and looking up values does
+ * not allocate objects. <br/>
+ * Two sets can be compared to find tags which entered or left the field:
+ * <pre>
+ * current.clear();
+ * for (int i = 0; i &lt; n; i++)
+ *     current.add(uids[i]);
+ * int nLeft = previous.difference(current, left);
+ * int nArrived = current.difference(previous, arrived);
+ * </pre>
+ */
+public class LongHashSet {
+
+	private static final int MIN_CAPACITY = 8;
+
+	/** 0 segna gli slot vuoti: il valore 0 e' tenuto a parte */
+	private long[] keys;
+	private int shift;
+	private int size = 0;
+	private boolean hasZero = false;
+
+	/**
+	 * Creates a set for 16 values; it grows when needed.
+	 */
+	public LongHashSet() {
+		this(16);
+	}
+
+	/**
+	 * Creates a set which holds expected values without growing.
+	 */
+	public LongHashSet(int expected) {
+		allocate(expected * 2);
+	}
+
+	private void allocate(int capacity) {
+		int size = MIN_CAPACITY;
+		while (size < capacity)
+			size <<= 1;
+		keys = new long[size];
+		shift = 64 - Integer.numberOfTrailingZeros(size);
+	}
+
+	private int slot(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	/**
+	 * Number of values in the set.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean contains(long key) {
+		if (key == 0)
+			return hasZero;
+		int mask = keys.length - 1;
+		for (int i = slot(key);; i = (i + 1) & mask) {
+			if (keys[i] == key)
+				return true;
+			if (keys[i] == 0)
+				return false;
+		}
+	}
+
+	/**
+	 * Adds a value.
+	 *
+	 * @return True if the value was not in the set.
+	 */
+	public boolean add(long key) {
+		if (key == 0) {
+			if (hasZero)
+				return false;
+			hasZero = true;
+			size++;
+			return true;
+		}
+		int mask = keys.length - 1;
+		int i = slot(key);
+		while (keys[i] != 0) {
+			if (keys[i] == key)
+				return false;
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		size++;
+		// fattore di carico massimo 1/2
+		if (size * 2 > keys.length)
+			rehash(keys.length * 2);
+		return true;
+	}
+
+	/**
+	 * Removes a value.
+	 *
+	 * @return True if the value was in the set.
+	 */
+	public boolean remove(long key) {
+		if (key == 0) {
+			if (!hasZero)
+				return false;
+			hasZero = false;
+			size--;
+			return true;
+		}
+		int mask = keys.length - 1;
+		int i = slot(key);
+		while (keys[i] != key) {
+			if (keys[i] == 0)
+				return false;
+			i = (i + 1) & mask;
+		}
+		// sposto indietro i valori successivi per non lasciare buchi nelle sequenze
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (keys[j] == 0)
+				break;
+			int home = slot(keys[j]);
+			if ((j > i) ? (home <= i || home > j) : (home <= i && home > j)) {
+				keys[i] = keys[j];
+				i = j;
+			}
+		}
+		keys[i] = 0;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Removes all values, keeping the allocated memory.
+	 */
+	public void clear() {
+		if (size > 0)
+			Arrays.fill(keys, 0);
+		size = 0;
+		hasZero = false;
+	}
+
+	private void rehash(int capacity) {
+		long[] old = keys;
+		allocate(capacity);
+		int mask = keys.length - 1;
+		for (long key : old) {
+			if (key == 0)
+				continue;
+			int i = slot(key);
+			while (keys[i] != 0)
+				i = (i + 1) & mask;
+			keys[i] = key;
+		}
+	}
+
+	/**
+	 * Copies the values into dest, which must hold at least size() elements.
+	 *
+	 * @return Number of copied values.
+	 */
+	public int toArray(long[] dest) {
+		int n = 0;
+		if (hasZero)
+			dest[n++] = 0;
+		for (long key : keys) {
+			if (key != 0)
+				dest[n++] = key;
+		}
+		return n;
+	}
+
+	/**
+	 * A new array with the values of the set.
+	 */
+	public long[] toArray() {
+		long[] result = new long[size];
+		toArray(result);
+		return result;
+	}
+
+	/**
+	 * Tells if all values of other are in this set.
+	 */
+	public boolean containsAll(LongHashSet other) {
+		if (other.hasZero && !hasZero)
+			return false;
+		for (long key : other.keys) {
+			if (key != 0 && !contains(key))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Tells if the two sets contain the same values.
+	 */
+	public boolean sameElements(LongHashSet other) {
+		return size == other.size && containsAll(other);
+	}
+
+	/**
+	 * Finds the values of this set which are not in other.
+	 *
+	 * @param dest Array where the values are copied; it must hold at least size()
+	 * elements, or it can be null to count the values only.
+	 * @return Number of values found.
+	 */
+	public int difference(LongHashSet other, long[] dest) {
+		int n = 0;
+		if (hasZero && !other.hasZero) {
+			if (dest != null)
+				dest[n] = 0;
+			n++;
+		}
+		for (long key : keys) {
+			if (key != 0 && !other.contains(key)) {
+				if (dest != null)
+					dest[n] = key;
+				n++;
+			}
+		}
+		return n;
+	}
+}
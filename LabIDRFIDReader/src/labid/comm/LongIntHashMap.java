@@ -0,0 +1,195 @@
+package labid.comm;
+
+import java.util.Arrays;
+
+/**
+ * Map from long keys (for example packed ISO15693 serial numbers) to int values,
+ * stored in two parallel arrays with open addressing and linear probing. It is
+ * meant for per-tag counters and timestamps updated at every inventory: no
+ * object is allocated by get, put and remove.
+ */
+public class LongIntHashMap {
+
+	private static final int MIN_CAPACITY = 8;
+
+	/** 0 segna gli slot vuoti: la chiave 0 e' tenuta a parte */
+	private long[] keys;
+	private int[] values;
+	private int shift;
+	private int size = 0;
+	private boolean hasZero = false;
+	private int zeroValue;
+
+	/**
+	 * Creates a map for 16 keys; it grows when needed.
+	 */
+	public LongIntHashMap() {
+		this(16);
+	}
+
+	/**
+	 * Creates a map which holds expected keys without growing.
+	 */
+	public LongIntHashMap(int expected) {
+		allocate(expected * 2);
+	}
+
+	private void allocate(int capacity) {
+		int size = MIN_CAPACITY;
+		while (size < capacity)
+			size <<= 1;
+		keys = new long[size];
+		values = new int[size];
+		shift = 64 - Integer.numberOfTrailingZeros(size);
+	}
+
+	private int slot(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	/**
+	 * Number of keys in the map.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private int indexOf(long key) {
+		int mask = keys.length - 1;
+		for (int i = slot(key);; i = (i + 1) & mask) {
+			if (keys[i] == key)
+				return i;
+			if (keys[i] == 0)
+				return -1;
+		}
+	}
+
+	public boolean containsKey(long key) {
+		return (key == 0) ? hasZero : indexOf(key) >= 0;
+	}
+
+	/**
+	 * Value associated to key.
+	 *
+	 * @param missing Value returned if the key is not in the map.
+	 */
+	public int get(long key, int missing) {
+		if (key == 0)
+			return hasZero ? zeroValue : missing;
+		int i = indexOf(key);
+		return (i >= 0) ? values[i] : missing;
+	}
+
+	/**
+	 * Associates value to key.
+	 *
+	 * @return True if the key was not in the map.
+	 */
+	public boolean put(long key, int value) {
+		if (key == 0) {
+			zeroValue = value;
+			if (hasZero)
+				return false;
+			hasZero = true;
+			size++;
+			return true;
+		}
+		int mask = keys.length - 1;
+		int i = slot(key);
+		while (keys[i] != 0) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		// fattore di carico massimo 1/2
+		if (size * 2 > keys.length)
+			rehash(keys.length * 2);
+		return true;
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @return True if the key was in the map.
+	 */
+	public boolean remove(long key) {
+		if (key == 0) {
+			if (!hasZero)
+				return false;
+			hasZero = false;
+			size--;
+			return true;
+		}
+		int i = indexOf(key);
+		if (i < 0)
+			return false;
+		// sposto indietro le chiavi successive per non lasciare buchi nelle sequenze
+		int mask = keys.length - 1;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (keys[j] == 0)
+				break;
+			int home = slot(keys[j]);
+			if ((j > i) ? (home <= i || home > j) : (home <= i && home > j)) {
+				keys[i] = keys[j];
+				values[i] = values[j];
+				i = j;
+			}
+		}
+		keys[i] = 0;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Removes all keys, keeping the allocated memory.
+	 */
+	public void clear() {
+		if (size > 0)
+			Arrays.fill(keys, 0);
+		size = 0;
+		hasZero = false;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		int mask = keys.length - 1;
+		for (int k = 0; k < oldKeys.length; k++) {
+			if (oldKeys[k] == 0)
+				continue;
+			int i = slot(oldKeys[k]);
+			while (keys[i] != 0)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[k];
+			values[i] = oldValues[k];
+		}
+	}
+
+	/**
+	 * Copies the keys into dest, which must hold at least size() elements.
+	 *
+	 * @return Number of copied keys.
+	 */
+	public int keys(long[] dest) {
+		int n = 0;
+		if (hasZero)
+			dest[n++] = 0;
+		for (long key : keys) {
+			if (key != 0)
+				dest[n++] = key;
+		}
+		return n;
+	}
+}
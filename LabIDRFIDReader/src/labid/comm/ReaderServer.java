@@ -0,0 +1,249 @@
+package labid.comm;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local TCP stand-in for networked LAB ID readers. It accepts any number of
+ * connections on the loopback interface and answers each valid command frame
+ * with the reply built by a {@link FrameResponder}. All connections are served
+ * by a single {@link SelectorLoop} thread. <br/>
+ * The main method runs a load test: it opens some hundreds of
+ * {@link ChannelStream}s, served by one client loop, and measures how many
+ * command/reply transactions per second are completed.
+ */
+public class ReaderServer {
+
+	/**
+	 * Replies to every command with the same control byte and command code,
+	 * status OK and no data.
+	 */
+	public static final FrameResponder ACKNOWLEDGE = new FrameResponder() {
+		public int respond(byte[] request, int offset, int length, byte[] reply) {
+			reply[0] = request[offset];
+			reply[1] = request[offset + 1];
+			reply[2] = 0x00;
+			return 3;
+		}
+	};
+
+	private static final int RX_BUFFER_SIZE = 2048;
+	private static final int TX_BUFFER_SIZE = 8192;
+
+	private final SelectorLoop loop;
+	private final ServerSocketChannel server;
+	private final FrameResponder responder;
+	private final AtomicInteger connections = new AtomicInteger();
+	private volatile long frames = 0;
+
+	/**
+	 * Starts a stand-in reader.
+	 *
+	 * @param port TCP port, 0 for any free port (see {@link #getPort()}).
+	 * @param responder Builds the replies. It is called by the loop thread only.
+	 */
+	public ReaderServer(int port, FrameResponder responder) throws IOException {
+		this.responder = responder;
+		server = ServerSocketChannel.open();
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+		server.configureBlocking(false);
+		loop = new SelectorLoop("LabID reader server");
+		loop.register(server, SelectionKey.OP_ACCEPT, new Acceptor());
+	}
+
+	/**
+	 * The TCP port where the server is listening.
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * Number of open connections.
+	 */
+	public int getConnectionCount() {
+		return connections.get();
+	}
+
+	/**
+	 * Number of command frames received.
+	 */
+	public long getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * Stops the server and closes all connections.
+	 */
+	public void close() {
+		loop.shutdown();
+	}
+
+	private class Acceptor implements SelectorLoop.Handler {
+
+		public void ready(SelectionKey key) throws IOException {
+			SocketChannel channel;
+			while ((channel = server.accept()) != null) {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				connections.incrementAndGet();
+				loop.register(channel, SelectionKey.OP_READ, new Connection(channel));
+			}
+		}
+
+		public void failed(IOException e) {
+		}
+	}
+
+	/**
+	 * A client connection. All buffers are allocated when the connection is accepted.
+	 */
+	private class Connection implements SelectorLoop.Handler {
+
+		private final SocketChannel channel;
+		private final ByteBuffer rx = ByteBuffer.allocateDirect(RX_BUFFER_SIZE);
+		private final ByteBuffer tx = ByteBuffer.allocateDirect(TX_BUFFER_SIZE);
+		private final FrameDecoder decoder = new FrameDecoder();
+		private final byte[] request = new byte[FrameDecoder.MAX_FRAME_LENGTH + 1];
+		private final byte[] reply = new byte[FrameDecoder.MAX_FRAME_LENGTH + 1];
+		private final byte[] out = new byte[FrameDecoder.MAX_FRAME_LENGTH + 1];
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		public void ready(SelectionKey key) throws IOException {
+			if (key.isWritable()) {
+				tx.flip();
+				channel.write(tx);
+				tx.compact();
+			}
+			if (key.isReadable()) {
+				if (channel.read(rx) < 0) {
+					connections.decrementAndGet();
+					key.cancel();
+					channel.close();
+					return;
+				}
+			}
+			process(key);
+		}
+
+		/**
+		 * Decodes the received commands while there is room for their replies.
+		 */
+		private void process(SelectionKey key) throws IOException {
+			rx.flip();
+			boolean more = true;
+			while (more && tx.position() == 0) {
+				more = false;
+				while (tx.remaining() > FrameDecoder.MAX_FRAME_LENGTH) {
+					int len = decoder.poll(request, 0);
+					if (len == 0) {
+						if (!rx.hasRemaining())
+							break;
+						int n = Math.min(rx.remaining(), decoder.writeSpace());
+						rx.get(decoder.buffer(), decoder.writeOffset(), n);
+						decoder.commit(n);
+						continue;
+					}
+					frames++;
+					int n = responder.respond(request, 2, len - 4, reply);
+					if (n > 0) {
+						int frameLen = FrameDecoder.encode(reply, 0, n, out, 0);
+						tx.put(out, 0, frameLen);
+					}
+					more = true;
+				}
+
+				tx.flip();
+				channel.write(tx);
+				tx.compact();
+			}
+			rx.compact();
+
+			// se le risposte non sono state inviate smetto di leggere finche' il client non le riceve
+			boolean pending = (tx.position() > 0);
+			boolean full = (rx.position() == rx.capacity());
+			key.interestOps((pending ? SelectionKey.OP_WRITE : 0) | (full ? 0 : SelectionKey.OP_READ));
+		}
+
+		public void failed(IOException e) {
+			connections.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Load test: ReaderServer [connections] [commands per connection].
+	 */
+	public static void main(String[] args) throws Exception {
+		final int nConnections = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+		final int nCommands = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+
+		ReaderServer server = new ReaderServer(0, ACKNOWLEDGE);
+		SelectorLoop clients = new SelectorLoop("LabID load test");
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+
+		final byte[] frame = new byte[6];
+		final int commandLen = FrameDecoder.encode(new byte[] { 0x00, (byte) 0x65 }, 0, 2, frame, 0);
+		final CountDownLatch done = new CountDownLatch(nConnections);
+		final AtomicInteger errors = new AtomicInteger();
+
+		ChannelStream[] streams = new ChannelStream[nConnections];
+		for (int i = 0; i < nConnections; i++) {
+			streams[i] = new ChannelStream(address, clients);
+			streams[i].setFrameListener(new ChannelStream.FrameListener() {
+				private int received = 0;
+
+				public void frameReceived(ChannelStream stream, byte[] reply, int length) {
+					if (reply[4] != 0)
+						errors.incrementAndGet();
+					if (++received < nCommands) {
+						try {
+							stream.Write(frame, 0, commandLen);
+						} catch (IOException e) {
+							errors.incrementAndGet();
+							done.countDown();
+						}
+					} else
+						done.countDown();
+				}
+
+				public void streamClosed(ChannelStream stream, IOException e) {
+					if (received < nCommands) {
+						errors.incrementAndGet();
+						done.countDown();
+					}
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < nConnections; i++)
+			streams[i].Write(frame, 0, commandLen);
+		boolean completed = done.await(120, TimeUnit.SECONDS);
+		long elapsed = System.nanoTime() - start;
+
+		long transactions = (long) nConnections * nCommands;
+		System.out.println("Connections:   " + nConnections + " (server side " + server.getConnectionCount() + ")");
+		System.out.println("Transactions:  " + server.getFrameCount() + " of " + transactions + (completed ? "" : " (timeout)"));
+		System.out.println("Errors:        " + errors.get());
+		System.out.println("Elapsed:       " + (elapsed / 1000000) + " ms");
+		System.out.println("Throughput:    " + (server.getFrameCount() * 1000000000L / Math.max(elapsed, 1)) + " transactions/s");
+		System.out.println("Live threads:  " + Thread.activeCount());
+
+		for (int i = 0; i < nConnections; i++)
+			streams[i].Close();
+		clients.shutdown();
+		server.close();
+	}
+}
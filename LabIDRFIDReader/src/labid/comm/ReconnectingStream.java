@@ -0,0 +1,412 @@
+package labid.comm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+
+/**
+ * A stream which survives the loss of its connection: when a read or a write
+ * of the underlying stream fails (USB reader unplugged, TCP connection
+ * dropped), the failing call throws as usual and a background thread opens a
+ * new connection, retrying with an exponential backoff with random jitter
+ * (so that many readers which lose the network together do not reconnect in
+ * lockstep). <br/>
+ * While the connection is down every call fails immediately. When a new
+ * connection is open the listeners restore the state of the reader (see
+ * {@link Listener}), then the stream is usable again; the stream object does
+ * not change, so the readers built on it keep working. Reader objects resend
+ * the commands which only read data and were interrupted by the failure (see
+ * {@link #awaitConnected(long)}).
+ * <pre>
+ * CableStream stream = new ReconnectingStream(ReconnectingStream.serialPort("/dev/ttyUSB0", 115200));
+ * ISO15693Reader reader = new ISO15693Reader(stream);
+ * </pre>
+ */
+public class ReconnectingStream implements DeadlineStream {
+
+	/**
+	 * Opens a connection to the reader.
+	 */
+	public interface Connector {
+		public CableStream connect() throws IOException;
+	}
+
+	/**
+	 * Restores the state of the reader on a new connection. It is called by the
+	 * reconnection thread, which is the only one allowed to use the stream until
+	 * all listeners have returned; if a listener fails, the connection is closed
+	 * and a new one is attempted.
+	 */
+	public interface Listener {
+		public void reconnected(ReconnectingStream stream) throws IOException;
+	}
+
+	private static final int CONNECTED = 0;
+	private static final int RECONNECTING = 1;
+	private static final int CLOSED = 2;
+
+	private final Connector connector;
+	private final Object lock = new Object();
+	private final Random random = new Random();
+	private volatile Listener[] listeners = new Listener[0];
+
+	private volatile CableStream current;
+	private volatile int state = CONNECTED;
+	/** numero di connessioni ripristinate */
+	private volatile long generation = 0;
+	private volatile Thread restorer;
+
+	private int initialDelay = 100;
+	private int maxDelay = 10000;
+
+	private long failedAt;
+	private volatile long lastRecovery = -1;
+	private volatile long maxRecovery = -1;
+	private volatile long attempts = 0;
+
+	/**
+	 * Opens the first connection.
+	 *
+	 * @throws IOException If the first connection fails.
+	 */
+	public ReconnectingStream(Connector connector) throws IOException {
+		this(connector.connect(), connector);
+	}
+
+	/**
+	 * Wraps a connection already open, for example a stream found by
+	 * {@link labid.reader.ReaderDiscovery}.
+	 *
+	 * @param stream The open connection.
+	 * @param connector Opens the next connections.
+	 */
+	public ReconnectingStream(CableStream stream, Connector connector) {
+		this.current = stream;
+		this.connector = connector;
+	}
+
+	/**
+	 * A connector which opens a serial port.
+	 */
+	public static Connector serialPort(final String port, final int baudrate) {
+		return new Connector() {
+			public CableStream connect() throws IOException {
+				SerialStream s = new SerialStream();
+				s.Open(port, baudrate);
+				return s;
+			}
+		};
+	}
+
+	/**
+	 * A connector which opens a TCP connection.
+	 */
+	public static Connector socket(final String ipAddress, final int port) {
+		return new Connector() {
+			public CableStream connect() throws IOException {
+				return new SocketStream(ipAddress, port);
+			}
+		};
+	}
+
+	/**
+	 * Sets the delays between the attempts to reconnect: the first attempt is
+	 * immediate, then the delay starts from initialMillis (default 100) and
+	 * doubles up to maxMillis (default 10000). Each delay is randomly shortened
+	 * by up to one half.
+	 */
+	public void setBackoff(int initialMillis, int maxMillis) {
+		this.initialDelay = initialMillis;
+		this.maxDelay = maxMillis;
+	}
+
+	/**
+	 * Adds a listener which restores the state of the reader on each new connection.
+	 */
+	public void addListener(Listener listener) {
+		synchronized (lock) {
+			Listener[] temp = new Listener[listeners.length + 1];
+			System.arraycopy(listeners, 0, temp, 0, listeners.length);
+			temp[listeners.length] = listener;
+			listeners = temp;
+		}
+	}
+
+	public void removeListener(Listener listener) {
+		synchronized (lock) {
+			for (int i = 0; i < listeners.length; i++) {
+				if (listeners[i] == listener) {
+					Listener[] temp = new Listener[listeners.length - 1];
+					System.arraycopy(listeners, 0, temp, 0, i);
+					System.arraycopy(listeners, i + 1, temp, i, temp.length - i);
+					listeners = temp;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tells if the connection is up.
+	 */
+	public boolean isConnected() {
+		return state == CONNECTED;
+	}
+
+	/**
+	 * Tells if the stream has been closed.
+	 */
+	public boolean isClosed() {
+		return state == CLOSED;
+	}
+
+	/**
+	 * Number of connections restored since the stream has been created: a
+	 * command sent with a different generation may have been lost.
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Time taken by the last recovery, from the failure to the restored
+	 * connection, in ms; -1 if the connection has never been lost.
+	 */
+	public long getLastRecoveryTime() {
+		return lastRecovery;
+	}
+
+	/**
+	 * Longest recovery time, in ms; -1 if the connection has never been lost.
+	 */
+	public long getMaxRecoveryTime() {
+		return maxRecovery;
+	}
+
+	/**
+	 * Number of failed attempts to reconnect.
+	 */
+	public long getFailedAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Waits until the connection is up.
+	 *
+	 * @param deadline Time limit, as a {@link System#nanoTime()} value.
+	 * @return True if the connection is up, false if the deadline has passed,
+	 * the stream has been closed or the caller is the reconnection thread.
+	 * @throws InterruptedIOException If the thread is interrupted.
+	 */
+	public boolean awaitConnected(long deadline) throws InterruptedIOException {
+		if (Thread.currentThread() == restorer)
+			return false;
+		synchronized (lock) {
+			while (state == RECONNECTING) {
+				long wait = deadline - System.nanoTime();
+				if (wait <= 0)
+					return false;
+				try {
+					lock.wait(wait / 1000000L, (int) (wait % 1000000L));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the connection");
+				}
+			}
+			return state == CONNECTED;
+		}
+	}
+
+	/**
+	 * Closes the connection and stops reconnecting.
+	 */
+	public void Close() throws IOException {
+		CableStream s;
+		Thread t;
+		synchronized (lock) {
+			if (state == CLOSED)
+				return;
+			state = CLOSED;
+			s = current;
+			current = null;
+			t = restorer;
+			lock.notifyAll();
+		}
+		if (t != null)
+			t.interrupt();
+		if (s != null)
+			s.Close();
+	}
+
+	public int Read(byte[] buffer, int offset, int count) throws IOException {
+		CableStream s = stream();
+		try {
+			return check(s, s.Read(buffer, offset, count));
+		} catch (IOException e) {
+			throw failed(s, e);
+		}
+	}
+
+	public int Read(byte[] buffer) throws IOException {
+		CableStream s = stream();
+		try {
+			return check(s, s.Read(buffer));
+		} catch (IOException e) {
+			throw failed(s, e);
+		}
+	}
+
+	public int Read(byte[] buffer, int offset, int count, long deadline) throws IOException {
+		CableStream s = stream();
+		try {
+			int n = (s instanceof DeadlineStream) ? ((DeadlineStream) s).Read(buffer, offset, count, deadline)
+					: s.Read(buffer, offset, count);
+			return check(s, n);
+		} catch (IOException e) {
+			throw failed(s, e);
+		}
+	}
+
+	public void Write(byte[] buffer, int offset, int count) throws IOException {
+		CableStream s = stream();
+		try {
+			s.Write(buffer, offset, count);
+		} catch (IOException e) {
+			throw failed(s, e);
+		}
+	}
+
+	public void Write(byte[] buffer) throws IOException {
+		CableStream s = stream();
+		try {
+			s.Write(buffer);
+		} catch (IOException e) {
+			throw failed(s, e);
+		}
+	}
+
+	/**
+	 * The connection usable by the calling thread.
+	 */
+	private CableStream stream() throws IOException {
+		CableStream s = current;
+		int st = state;
+		if (st == CONNECTED && s != null)
+			return s;
+		if (st == CLOSED)
+			throw new EOFException("Communication stream closed");
+		if (Thread.currentThread() == restorer && s != null)
+			return s;
+		throw new IOException("Connection lost: reconnecting");
+	}
+
+	/**
+	 * A read which returns -1: the connection has been closed by the other side.
+	 */
+	private int check(CableStream s, int n) throws IOException {
+		if (n < 0)
+			throw failed(s, new EOFException("Connection closed by reader"));
+		return n;
+	}
+
+	/**
+	 * Starts the reconnection after a failure of a connection.
+	 *
+	 * @return The exception to throw.
+	 */
+	private IOException failed(CableStream s, IOException e) {
+		// un timeout del socket non e' un guasto della connessione
+		if (e instanceof InterruptedIOException)
+			return e;
+		if (Thread.currentThread() == restorer)
+			return e; // il thread di riconnessione ritenta da solo
+		synchronized (lock) {
+			if (state != CONNECTED || current != s)
+				return e;
+			state = RECONNECTING;
+			failedAt = System.nanoTime();
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					reconnect();
+				}
+			}, "LabID reconnect");
+			t.setDaemon(true);
+			restorer = t;
+			t.start();
+		}
+		close(s);
+		return e;
+	}
+
+	/**
+	 * The reconnection thread: opens new connections until one is open and
+	 * restored by all listeners, or the stream is closed.
+	 */
+	private void reconnect() {
+		long delay = initialDelay;
+		while (state == RECONNECTING) {
+			CableStream s = null;
+			try {
+				s = connector.connect();
+				synchronized (lock) {
+					if (state != RECONNECTING) {
+						close(s);
+						break;
+					}
+					current = s;
+				}
+				for (Listener l : listeners)
+					l.reconnected(this);
+				synchronized (lock) {
+					if (state != RECONNECTING)
+						break;
+					long recovery = (System.nanoTime() - failedAt) / 1000000L;
+					lastRecovery = recovery;
+					if (recovery > maxRecovery)
+						maxRecovery = recovery;
+					generation++;
+					state = CONNECTED;
+					restorer = null;
+					lock.notifyAll();
+				}
+				return;
+			} catch (IOException e) {
+				attempts++;
+				if (s != null) {
+					synchronized (lock) {
+						if (current == s)
+							current = null;
+					}
+					close(s);
+				}
+			} catch (RuntimeException e) {
+				// un listener difettoso non deve fermare la riconnessione
+				attempts++;
+				if (s != null)
+					close(s);
+			}
+
+			// jitter: ritardo casuale tra meta' e l'intero intervallo
+			long sleep = delay / 2 + (long) (random.nextDouble() * (delay - delay / 2));
+			delay = Math.min(delay * 2, maxDelay);
+			try {
+				Thread.sleep(sleep);
+			} catch (InterruptedException e) {
+				break; // stream chiuso
+			}
+		}
+		synchronized (lock) {
+			if (restorer == Thread.currentThread())
+				restorer = null;
+		}
+	}
+
+	private static void close(CableStream s) {
+		try {
+			s.Close();
+		} catch (IOException e) {
+			// la connessione e' comunque abbandonata
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package labid.comm;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Event loop which serves many non blocking channels with a single thread.
+ * Channels are registered with a {@link Handler}, which is called by the loop
+ * thread when the channel is ready. Handlers must not block: they read and
+ * write what the channel accepts and return. <br/>
+ * Operations on selection keys must be done by the loop thread: other threads
+ * submit them with {@link #execute(Runnable)}. <br/>
+ * A task or a handler which throws a RuntimeException does not stop the loop:
+ * the exception is passed to the uncaught exception handler of the loop thread
+ * and, for a handler, only its channel is closed.
+ */
+public class SelectorLoop implements Runnable {
+
+	/**
+	 * Receives readiness notifications for a registered channel.
+	 */
+	public interface Handler {
+
+		/**
+		 * Called by the loop thread when the channel is ready for the operations
+		 * in key.readyOps().
+		 *
+		 * @throws IOException The channel is closed and {@link #failed(IOException)}
+		 * is called.
+		 */
+		void ready(SelectionKey key) throws IOException;
+
+		/**
+		 * Called by the loop thread when the channel has been closed after an error.
+		 */
+		void failed(IOException e);
+	}
+
+	private static SelectorLoop shared;
+
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	/**
+	 * Creates a new loop and starts its thread.
+	 *
+	 * @param name Name of the loop thread.
+	 */
+	public SelectorLoop(String name) throws IOException {
+		selector = Selector.open();
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * The loop shared by all {@link ChannelStream}s which do not specify one.
+	 */
+	public static synchronized SelectorLoop getDefault() throws IOException {
+		if (shared == null || !shared.running)
+			shared = new SelectorLoop("LabID selector");
+		return shared;
+	}
+
+	/**
+	 * Tells if the current thread is the loop thread.
+	 */
+	public boolean inLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Runs a task in the loop thread: immediately if called by the loop thread,
+	 * otherwise at the next iteration.
+	 */
+	public void execute(Runnable task) {
+		if (inLoop())
+			task.run();
+		else {
+			tasks.add(task);
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Registers a non blocking channel. The registration is done by the loop
+	 * thread, so the key could not be available yet when the method returns.
+	 *
+	 * @param channel The channel, already configured as non blocking.
+	 * @param ops Operations of interest.
+	 * @param handler Handler of the channel, which is attached to its key.
+	 */
+	public void register(final SelectableChannel channel, final int ops, final Handler handler) {
+		execute(new Runnable() {
+			public void run() {
+				try {
+					channel.register(selector, ops, handler);
+				} catch (ClosedChannelException e) {
+					handler.failed(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Changes the operations of interest of a channel.
+	 *
+	 * @param set Operations to add.
+	 * @param clear Operations to remove.
+	 */
+	public void interestOps(final SelectableChannel channel, final int set, final int clear) {
+		execute(new Runnable() {
+			public void run() {
+				SelectionKey key = channel.keyFor(selector);
+				if (key != null && key.isValid())
+					key.interestOps((key.interestOps() & ~clear) | set);
+			}
+		});
+	}
+
+	/**
+	 * Closes a channel and removes it from the loop.
+	 */
+	public void close(final SelectableChannel channel) {
+		execute(new Runnable() {
+			public void run() {
+				SelectionKey key = channel.keyFor(selector);
+				if (key != null)
+					key.cancel();
+				try {
+					channel.close();
+				} catch (IOException e) {}
+			}
+		});
+	}
+
+	/**
+	 * Number of channels registered in the loop.
+	 */
+	public int getChannelCount() {
+		return selector.keys().size();
+	}
+
+	/**
+	 * Stops the loop and closes all its channels.
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	public void run() {
+		while (running) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				break;
+			}
+
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// un task difettoso non deve fermare il loop
+					report(e);
+				}
+			}
+
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				Handler handler = (Handler) key.attachment();
+				try {
+					if (key.isValid())
+						handler.ready(key);
+				} catch (IOException e) {
+					fail(key, handler, e);
+				} catch (RuntimeException e) {
+					// un handler difettoso non deve fermare gli altri canali
+					report(e);
+					fail(key, handler, new IOException(e));
+				}
+			}
+		}
+
+		running = false;
+		for (SelectionKey key : selector.keys())
+			fail(key, (Handler) key.attachment(), new IOException("Selector loop stopped"));
+		try {
+			selector.close();
+		} catch (IOException e) {}
+	}
+
+	/**
+	 * Closes the channel of a key and notifies its handler.
+	 */
+	private void fail(SelectionKey key, Handler handler, IOException e) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException ignored) {}
+		try {
+			handler.failed(e);
+		} catch (RuntimeException re) {
+			report(re);
+		}
+	}
+
+	/**
+	 * Passes an unexpected exception to the uncaught exception handler of the
+	 * loop thread, which keeps running.
+	 */
+	private void report(RuntimeException e) {
+		thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+	}
+}
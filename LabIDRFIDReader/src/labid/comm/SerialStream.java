@@ -1,160 +1,385 @@
-package labid.comm;
-
-import jssc.*;
-
-import java.io.*;
-
-public class SerialStream implements CableStream {
-	
-	private SerialPort sp;
-	
-	public static final int PARITY_NONE = SerialPort.PARITY_NONE;
-	public static final int PARITY_EVEN = SerialPort.PARITY_EVEN;
-	public static final int PARITY_ODD  = SerialPort.PARITY_ODD;
-	
-	public static final int FLOWCONTROL_NONE  = SerialPort.FLOWCONTROL_NONE;
-	public static final int FLOWCONTROL_HARDWARE = SerialPort.FLOWCONTROL_RTSCTS_IN;
-	public static final int FLOWCONTROL_SOFTWARE = SerialPort.FLOWCONTROL_XONXOFF_IN;
-	
-	public static final int STOPBITS_1 = SerialPort.STOPBITS_1;
-	public static final int STOPBITS_1_5 = SerialPort.STOPBITS_1_5;
-	public static final int STOPBITS_2 = SerialPort.STOPBITS_2;
-	
-	public static final int DATABITS_8 = SerialPort.DATABITS_8;
-	public static final int DATABITS_7 = SerialPort.DATABITS_7;
-	
-	public SerialStream()  {}
-	
-	public void Open(String port, int baudrate) throws IOException {
-		
-		try {
-			sp = new SerialPort(port);
-			sp.openPort();
-			sp.setParams(baudrate, 
-					DATABITS_8,
-					STOPBITS_1,
-					PARITY_NONE);
-			sp.setFlowControlMode(FLOWCONTROL_NONE);
-		}
-		catch(Exception e) {throw new IOException();}
-	}
-	
-	public  void Close() throws IOException {
-		try 
-		{
-			sp.closePort();
-		} 
-		catch (SerialPortException e) {throw new IOException(e.getMessage());}
-	}
-	
-	public int Read(byte[] buffer, int offset, int count) throws IOException{
-		try 
-		{
-			byte[] temp = sp.readBytes(count);
-			if (temp.length == count) {
-				for (int i = 0; i < count ; i++) buffer[offset+i] = temp[i];
-			}
-			return temp.length;
-		} 
-		catch (SerialPortException e) {throw new IOException (e.getMessage());}
-	}
-	
-	public  void Write(byte[] buffer, int offset, int count) throws IOException {
-		byte[] temp = new byte[count-offset];
-		for (int i = offset; i < count ; i++) temp[i-offset] = buffer[i];
-		try 
-		{
-			sp.writeBytes(temp);
-		} 
-		catch (SerialPortException e) {throw new IOException(e.getMessage());}
-	}
-	
-	public int Read(byte[] buffer) throws IOException {
-		try 
-		{
-			buffer = sp.readBytes();
-		} 
-		catch (SerialPortException e) {throw new IOException(e.getMessage());}
-		
-		return buffer.length;
-	}
-	
-	public void Write(byte[] buffer) throws IOException {
-		try 
-		{
-			sp.writeBytes(buffer);
-		} 
-		catch (SerialPortException e) {throw new IOException(e.getMessage());}
-	}
-	
-	public void SetPortSettings(int baudrate, int flowcontrol, int parity, int databits, int stopbits) throws Exception {
-		sp.setParams(baudrate, databits, stopbits, parity);
-		sp.setFlowControlMode(flowcontrol);
-	}
-	
-	/*
-	public static SerialStream getInstance(SerialPortSettings sps) throws IOException
-	{
-		SerialStream sp;
-
-		String osName = System.getProperty("os.name").toUpperCase();
-		
-		// windows
-		if (osName.startsWith("WINDOWS"))
-		{
-			try {
-				sp = new SerialStream("COM" + sps.getPortNumber());
-				sp.SetPortSettings((int)sps.getBaudRate(), sps.getFlowControl(), sps.getParity(), (byte)8, sps.getStopBits());
-			}
-			catch (Exception e) {
-				throw new IOException("Unable to open COM" + sps.getPortNumber());
-			}
-			return sp;
-		}
-		
-		// MAC OS X
-		if (osName.startsWith("MAC OS X"))
-		{
-			try
-			{
-				//e.g. tty.usbserial-000013FA
-				sp = new SerialStream(sps.getPortName());
-			}
-			catch (Exception ex)
-			{
-				sp = null;
-			}
-			return sp;
-		}	
-		
-		// Linux
-		if (osName.startsWith("LINUX"))
-		{
-			// try to open USB emulated serial port
-			try
-			{
-				sp = new SerialStream("/dev/ttyUSB" + sps.getPortNumber());
-			}
-			catch (Exception ex)
-			{
-				sp = null;
-			}
-
-			// try to open hardware serial port
-			if (sp == null)
-			{
-				try
-				{
-					sp = new SerialStream("/dev/ttyS" + sps.getPortNumber());
-				}
-				catch (Exception ex)
-				{
-					sp = null;
-				}
-			}
-			return sp;
-		}
-		
-		throw new IOException("OS not supported " + osName);
-	}*/
-}
+package labid.comm;
+
+import jssc.*;
+
+import java.io.*;
+
+/**
+ * Stream on a serial port (or USB virtual serial port). <br/>
+ * Two receive modes are available:
+ * <ul>
+ * <li>blocking (the default): Read calls the serial port driver directly;</li>
+ * <li>event driven (see {@link #Open(String, int, boolean)}): a port listener drains
+ * received bytes as soon as they arrive into a ring buffer allocated once, and
+ * Read takes them from the buffer, waiting at most the timeout set with
+ * {@link #SetTimeout(int)}.</li>
+ * </ul>
+ */
+public class SerialStream implements DeadlineStream, BaudRateControl {
+	
+	private SerialPort sp;
+	
+	public static final int PARITY_NONE = SerialPort.PARITY_NONE;
+	public static final int PARITY_EVEN = SerialPort.PARITY_EVEN;
+	public static final int PARITY_ODD  = SerialPort.PARITY_ODD;
+	
+	public static final int FLOWCONTROL_NONE  = SerialPort.FLOWCONTROL_NONE;
+	public static final int FLOWCONTROL_HARDWARE = SerialPort.FLOWCONTROL_RTSCTS_IN;
+	public static final int FLOWCONTROL_SOFTWARE = SerialPort.FLOWCONTROL_XONXOFF_IN;
+	
+	public static final int STOPBITS_1 = SerialPort.STOPBITS_1;
+	public static final int STOPBITS_1_5 = SerialPort.STOPBITS_1_5;
+	public static final int STOPBITS_2 = SerialPort.STOPBITS_2;
+	
+	public static final int DATABITS_8 = SerialPort.DATABITS_8;
+	public static final int DATABITS_7 = SerialPort.DATABITS_7;
+	
+	/** Size of the receive buffer used in event driven mode */
+	public static final int RECEIVE_BUFFER_SIZE = 4096;
+	
+	private boolean eventDriven = false;
+	private ByteRingBuffer received;
+	private final Object drainLock = new Object();
+	/** byte lasciati nel buffer del driver perche' il ring era pieno */
+	private volatile boolean backlog = false;
+	private volatile IOException error;
+	private int timeout = 0;
+	private int baudrate = 0;
+	private int dataBits = DATABITS_8;
+	private int stopBits = STOPBITS_1;
+	private int parity = PARITY_NONE;
+	
+	public SerialStream()  {}
+	
+	public void Open(String port, int baudrate) throws IOException {
+		Open(port, baudrate, false);
+	}
+	
+	/**
+	 * Opens the port with 8 data bits, 1 stop bit, no parity and no flow control.
+	 *
+	 * @param port Name of the port (ex. "COM1" or "/dev/ttyUSB0").
+	 * @param baudrate Baud rate.
+	 * @param eventDriven True to receive bytes through port events (see the class description).
+	 */
+	public void Open(String port, int baudrate, boolean eventDriven) throws IOException {
+		
+		try {
+			sp = new SerialPort(port);
+			sp.openPort();
+			sp.setParams(baudrate, 
+					DATABITS_8,
+					STOPBITS_1,
+					PARITY_NONE);
+			sp.setFlowControlMode(FLOWCONTROL_NONE);
+		}
+		catch(Exception e) {throw new IOException();}
+		this.baudrate = baudrate;
+		this.dataBits = DATABITS_8;
+		this.stopBits = STOPBITS_1;
+		this.parity = PARITY_NONE;
+		
+		this.eventDriven = eventDriven;
+		if (eventDriven) {
+			if (received == null)
+				received = new ByteRingBuffer(RECEIVE_BUFFER_SIZE);
+			// il ring e' stato chiuso da Close o dalla perdita della porta precedente
+			received.reset();
+			backlog = false;
+			error = null;
+			try {
+				sp.addEventListener(new SerialPortEventListener() {
+					public void serialEvent(SerialPortEvent event) {
+						if (event.isRXCHAR() && event.getEventValue() > 0)
+							drain(event.getEventValue());
+					}
+				}, SerialPort.MASK_RXCHAR);
+			}
+			catch (SerialPortException e) {
+				this.eventDriven = false;
+				try {
+					sp.closePort();
+				} catch (SerialPortException e1) {}
+				throw new IOException(e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Tells if bytes are received through port events.
+	 */
+	public boolean isEventDriven() {
+		return eventDriven;
+	}
+	
+	/**
+	 * The baud rate set by Open, SetPortSettings or setBaudRate.
+	 */
+	public int getBaudRate() {
+		return baudrate;
+	}
+	
+	/**
+	 * Changes the baud rate of the open port, keeping data bits, stop bits and parity.
+	 */
+	public void setBaudRate(int baudrate) throws IOException {
+		try {
+			sp.setParams(baudrate, dataBits, stopBits, parity);
+		}
+		catch (SerialPortException e) {throw new IOException(e.getMessage());}
+		this.baudrate = baudrate;
+	}
+	
+	/**
+	 * Sets the maximum time Read waits for data.
+	 *
+	 * @param ReceiveTimeout Timeout in ms, 0 for no time limit.
+	 */
+	public void SetTimeout(int ReceiveTimeout) {
+		this.timeout = ReceiveTimeout;
+	}
+	
+	/**
+	 * Moves up to count received bytes from the driver to the ring buffer. The
+	 * bytes which do not fit stay in the driver until Read frees some space.
+	 * jssc returns a new array for each call, so the allocation is per event
+	 * rather than per Read.
+	 */
+	private void drain(int count) {
+		synchronized (drainLock) {
+			try {
+				int free = received.free();
+				backlog = (count > free);
+				if (count > free)
+					count = free;
+				if (count > 0) {
+					byte[] data = sp.readBytes(count);
+					received.put(data, 0, data.length);
+				}
+			}
+			catch (SerialPortException e) {
+				error = new IOException(e.getMessage());
+				received.close();
+			}
+		}
+	}
+	
+	public  void Close() throws IOException {
+		try 
+		{
+			if (eventDriven) {
+				received.close();
+				sp.removeEventListener();
+			}
+			sp.closePort();
+		} 
+		catch (SerialPortException e) {throw new IOException(e.getMessage());}
+	}
+	
+	/**
+	 * Reads up to count bytes. In blocking mode the method waits for all count
+	 * bytes; in event driven mode it returns as soon as some bytes are available.
+	 *
+	 * @return Number of read bytes, 0 if the timeout has expired.
+	 */
+	public int Read(byte[] buffer, int offset, int count) throws IOException{
+		if (eventDriven)
+			return received(received.read(buffer, offset, count, timeout));
+		
+		try 
+		{
+			byte[] temp = (timeout > 0) ? sp.readBytes(count, timeout) : sp.readBytes(count);
+			System.arraycopy(temp, 0, buffer, offset, temp.length);
+			return temp.length;
+		} 
+		catch (SerialPortTimeoutException e) {return 0;}
+		catch (SerialPortException e) {throw new IOException (e.getMessage());}
+	}
+	
+	/**
+	 * Reads up to count bytes, returning as soon as some bytes are available
+	 * (in both receive modes); the wait ends at the deadline.
+	 *
+	 * @param deadline Time limit, as a {@link System#nanoTime()} value.
+	 * @return Number of read bytes, 0 if the deadline has passed.
+	 */
+	public int Read(byte[] buffer, int offset, int count, long deadline) throws IOException {
+		if (eventDriven)
+			return received(received.readUntil(buffer, offset, count, deadline));
+		
+		try 
+		{
+			int n = sp.getInputBufferBytesCount();
+			if (n < 0)
+				throw new IOException("Port lost");
+			if (n == 0) {
+				// il driver attende il primo byte al massimo fino alla scadenza
+				int ms = (int) ((deadline - System.nanoTime() + 999999L) / 1000000L);
+				if (ms <= 0 || count <= 0)
+					return 0;
+				byte[] first = sp.readBytes(1, ms);
+				buffer[offset] = first[0];
+				n = sp.getInputBufferBytesCount();
+				if (n < 0)
+					throw new IOException("Port lost");
+				n = Math.min(count - 1, n);
+				if (n > 0) {
+					byte[] temp = sp.readBytes(n);
+					System.arraycopy(temp, 0, buffer, offset + 1, temp.length);
+				}
+				return n + 1;
+			}
+			if (n > count)
+				n = count;
+			byte[] temp = sp.readBytes(n);
+			System.arraycopy(temp, 0, buffer, offset, temp.length);
+			return temp.length;
+		} 
+		catch (SerialPortTimeoutException e) {return 0;}
+		catch (SerialPortException e) {throw new IOException (e.getMessage());}
+	}
+	
+	/**
+	 * Completes a read from the ring buffer: reports errors and moves to the
+	 * ring the bytes left in the driver.
+	 */
+	private int received(int n) throws IOException {
+		if (n < 0) {
+			if (error != null)
+				throw error;
+			throw new IOException("Port closed");
+		}
+		if (n > 0 && backlog) {
+			try {
+				drain(sp.getInputBufferBytesCount());
+			}
+			catch (SerialPortException e) {throw new IOException(e.getMessage());}
+		}
+		return n;
+	}
+	
+	public  void Write(byte[] buffer, int offset, int count) throws IOException {
+		byte[] temp = buffer;
+		if (offset != 0 || count != buffer.length) {
+			temp = new byte[count];
+			System.arraycopy(buffer, offset, temp, 0, count);
+		}
+		try 
+		{
+			// il driver segnala la porta scollegata solo con il valore di ritorno
+			if (!sp.writeBytes(temp))
+				throw new IOException("Write failed");
+		} 
+		catch (SerialPortException e) {throw new IOException(e.getMessage());}
+	}
+	
+	/**
+	 * Reads the bytes already received, at most buffer.length.
+	 *
+	 * @return Number of read bytes.
+	 */
+	public int Read(byte[] buffer) throws IOException {
+		if (eventDriven) {
+			if (received.available() == 0)
+				return 0;
+			return Read(buffer, 0, buffer.length);
+		}
+		
+		try 
+		{
+			int n = sp.getInputBufferBytesCount();
+			if (n > buffer.length)
+				n = buffer.length;
+			if (n <= 0)
+				return 0;
+			byte[] temp = sp.readBytes(n);
+			System.arraycopy(temp, 0, buffer, 0, temp.length);
+			return temp.length;
+		} 
+		catch (SerialPortException e) {throw new IOException(e.getMessage());}
+	}
+	
+	public void Write(byte[] buffer) throws IOException {
+		try 
+		{
+			if (!sp.writeBytes(buffer))
+				throw new IOException("Write failed");
+		} 
+		catch (SerialPortException e) {throw new IOException(e.getMessage());}
+	}
+	
+	public void SetPortSettings(int baudrate, int flowcontrol, int parity, int databits, int stopbits) throws Exception {
+		sp.setParams(baudrate, databits, stopbits, parity);
+		sp.setFlowControlMode(flowcontrol);
+		this.baudrate = baudrate;
+		this.dataBits = databits;
+		this.stopBits = stopbits;
+		this.parity = parity;
+	}
+	
+	/*
+	public static SerialStream getInstance(SerialPortSettings sps) throws IOException
+	{
+		SerialStream sp;
+
+		String osName = System.getProperty("os.name").toUpperCase();
+		
+		// windows
+		if (osName.startsWith("WINDOWS"))
+		{
+			try {
+				sp = new SerialStream("COM" + sps.getPortNumber());
+				sp.SetPortSettings((int)sps.getBaudRate(), sps.getFlowControl(), sps.getParity(), (byte)8, sps.getStopBits());
+			}
+			catch (Exception e) {
+				throw new IOException("Unable to open COM" + sps.getPortNumber());
+			}
+			return sp;
+		}
+		
+		// MAC OS X
+		if (osName.startsWith("MAC OS X"))
+		{
+			try
+			{
+				//e.g. tty.usbserial-000013FA
+				sp = new SerialStream(sps.getPortName());
+			}
+			catch (Exception ex)
+			{
+				sp = null;
+			}
+			return sp;
+		}	
+		
+		// Linux
+		if (osName.startsWith("LINUX"))
+		{
+			// try to open USB emulated serial port
+			try
+			{
+				sp = new SerialStream("/dev/ttyUSB" + sps.getPortNumber());
+			}
+			catch (Exception ex)
+			{
+				sp = null;
+			}
+
+			// try to open hardware serial port
+			if (sp == null)
+			{
+				try
+				{
+					sp = new SerialStream("/dev/ttyS" + sps.getPortNumber());
+				}
+				catch (Exception ex)
+				{
+					sp = null;
+				}
+			}
+			return sp;
+		}
+		
+		throw new IOException("OS not supported " + osName);
+	}*/
+}
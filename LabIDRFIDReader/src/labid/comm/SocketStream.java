@@ -16,11 +16,12 @@ import java.io.*;
 	/// <summary>
 	/// Represents a stream through TCP/IP Socket compatible with SerialStream
 	/// </summary>
-	public class SocketStream implements CableStream
+	public class SocketStream implements DeadlineStream
 	{
 		private Socket socket;
 		private InputStream in;
 		private OutputStream out;
+		private int timeout = 0;
 
 		/// <summary>
 		/// Opens a TCP/IP stream.
@@ -97,7 +98,30 @@ import java.io.*;
 		public void SetTimeout(int ReceiveTimeout) {
 			try {
 				socket.setSoTimeout(ReceiveTimeout);
+				this.timeout = ReceiveTimeout;
 			} catch (Exception e) {}
 		}
 		
+		/// <summary>
+		/// Reads some bytes, waiting at most until the deadline (SO_TIMEOUT is
+		/// set for the call, then restored).
+		/// </summary>
+		/// <param name="deadline">Time limit, as a System.nanoTime() value.</param>
+		/// <returns>Number of read bytes, 0 if the deadline has passed, -1 if the
+		/// connection has been closed.</returns>
+		public int Read(byte[] buffer, int offset, int length, long deadline) throws IOException
+		{
+			int ms = (int) ((deadline - System.nanoTime() + 999999L) / 1000000L);
+			if (ms <= 0)
+				return 0;
+			socket.setSoTimeout(ms);
+			try {
+				return in.read(buffer, offset, length);
+			} catch (SocketTimeoutException e) {
+				return 0;
+			} finally {
+				socket.setSoTimeout(timeout);
+			}
+		}
+		
 	}
@@ -69,8 +69,7 @@ public class ST_ISO14443B_Reader  extends LabIdReader {
 		cmd[2] = 0x0E;
 		
 		try {
-			send(cmd);
-			receive();
+			transceive(cmd);
 		} catch (java.io.IOException ioe) {
 			throw new RFReaderException(errMsg("Serial communication problem"));
 		}
@@ -91,6 +90,35 @@ public class ST_ISO14443B_Reader  extends LabIdReader {
 	 * @throws labid.reader.RFReaderException If unable to perform command.
 	 */
 	public byte[] Read(int firstBlock, int nBlocks) throws RFReaderException {
+		sendReceive(readCommand(firstBlock, nBlocks), "Unable to read blocks.");
+		
+		int respLen = recv_buf[5] * nBlocks; //DBsize * nBlocks
+		byte[] result = new byte[respLen];
+		ByteUtils.copy(recv_buf, 6, result, 0, respLen);
+		
+		return result;
+	}
+	
+	/**
+	 * Version of {@link #Read(int, int)} which stores the content of the blocks
+	 * into a caller supplied array instead of allocating a new one.
+	 *
+	 * @param firstBlock 0 based index of the first block to be read.
+	 * @param nBlocks Number of blocks to be read.
+	 * @param dest Destination array.
+	 * @param destOffset Index of the first byte written in dest.
+	 * @return Number of bytes written in dest.
+	 * @throws labid.reader.RFReaderException If unable to perform command.
+	 */
+	public int Read(int firstBlock, int nBlocks, byte[] dest, int destOffset) throws RFReaderException {
+		sendReceive(readCommand(firstBlock, nBlocks), "Unable to read blocks.");
+		
+		int respLen = recv_buf[5] * nBlocks; //DBsize * nBlocks
+		ByteUtils.copy(recv_buf, 6, dest, destOffset, respLen);
+		return respLen;
+	}
+	
+	private byte[] readCommand(int firstBlock, int nBlocks) {
 		byte[] cmd = new byte[5];
 		
 		cmd[0] = ISO14443B_CUSTOM;
@@ -98,14 +126,7 @@ public class ST_ISO14443B_Reader  extends LabIdReader {
 		cmd[2] = (byte)0x88;
 		cmd[3] = (byte)(firstBlock & 0xFF);
 		cmd[4] = (byte)(nBlocks & 0xFF);
-		
-		sendReceive(cmd, "Unable to read blocks.");
-		
-		int respLen = recv_buf[5] * nBlocks; //DBsize * nBlocks
-		byte[] result = new byte[respLen];
-		ByteUtils.copy(recv_buf, 6, result, 0, respLen);
-		
-		return result;
+		return cmd;
 	}
 	
 	/**
@@ -294,8 +315,7 @@ public class ST_ISO14443B_Reader  extends LabIdReader {
 			
 			try
 			{
-				send(cmd);
-				receive();
+				transceive(cmd);
 			}
 			catch (java.io.IOException e)
 			{
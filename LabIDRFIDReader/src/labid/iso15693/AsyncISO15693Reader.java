@@ -0,0 +1,320 @@
+package labid.iso15693;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import labid.comm.CableStream;
+import labid.reader.CommandArbiter;
+
+/**
+ * Asynchronous interface for ISO15693 commands. Every method returns immediately
+ * with a CompletableFuture, which is completed by the I/O thread of the
+ * communication stream (see {@link CommandArbiter#getExecutor()}) when the reader
+ * has answered. Futures of the same stream are completed in submission order,
+ * and can be composed without blocking the application thread:
+ * <pre>
+ * AsyncISO15693Reader reader = new AsyncISO15693Reader(stream);
+ * reader.inventory()
+ *	.thenCompose(uids -&gt; reader.read(uids[0], 0, 4))
+ *	.thenCompose(data -&gt; reader.write(uid, newData, 0, 4))
+ *	.exceptionally(e -&gt; ...);
+ * </pre>
+ * Commands which fail complete their future exceptionally with a
+ * {@link labid.reader.RFReaderException}. Byte arrays passed as parameters
+ * must not be modified until the future is completed.
+ */
+public class AsyncISO15693Reader {
+
+	/**
+	 * A command executed by the I/O thread.
+	 */
+	private interface Command<T> {
+		T execute(ISO15693Reader reader) throws Exception;
+	}
+
+	private final ISO15693Reader reader;
+	private final Executor executor;
+
+	/**
+	 * Creates an asynchronous reader on a communication stream.
+	 *
+	 * @param stream Communication stream.
+	 */
+	public AsyncISO15693Reader(CableStream stream) {
+		this(new ISO15693Reader(stream));
+	}
+
+	/**
+	 * Creates an asynchronous interface for an ISO15693Reader. The reader
+	 * object will be used by the I/O thread only: don't send commands through it
+	 * from other threads.
+	 *
+	 * @param reader The reader which executes commands.
+	 */
+	public AsyncISO15693Reader(ISO15693Reader reader) {
+		this.reader = reader;
+		this.executor = CommandArbiter.forStream(reader.getStream()).getExecutor();
+	}
+
+	private <T> CompletableFuture<T> submit(final Command<T> command) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			executor.execute(() -> {
+				if (future.isDone())
+					return; // annullato prima dell'esecuzione
+				try {
+					future.complete(command.execute(reader));
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#inventory()}.
+	 */
+	public CompletableFuture<byte[][]> inventory() {
+		return submit(r -> r.inventory());
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#inventory(byte)}.
+	 */
+	public CompletableFuture<byte[][]> inventory(final byte afi) {
+		return submit(r -> r.inventory(afi));
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#read(byte[], int, int)}.
+	 */
+	public CompletableFuture<byte[]> read(final byte[] uid, final int start, final int number) {
+		return submit(r -> r.read(uid, start, number));
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#read(int, int, boolean)}.
+	 */
+	public CompletableFuture<byte[]> read(final int start, final int number, final boolean selected) {
+		return submit(r -> r.read(start, number, selected));
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#write(byte[], byte[], int, int)}.
+	 */
+	public CompletableFuture<Void> write(final byte[] uid, final byte[] data, final int start, final int number) {
+		return submit(r -> {
+			r.write(uid, data, start, number);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#write(byte[], int, int, boolean)}.
+	 */
+	public CompletableFuture<Void> write(final byte[] data, final int start, final int number, final boolean selected) {
+		return submit(r -> {
+			r.write(data, start, number, selected);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#lockBlock(byte[], int)}.
+	 */
+	public CompletableFuture<Void> lockBlock(final byte[] uid, final int blockAddr) {
+		return submit(r -> {
+			r.lockBlock(uid, blockAddr);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#lockBlock(int, boolean)}.
+	 */
+	public CompletableFuture<Void> lockBlock(final int blockAddr, final boolean selected) {
+		return submit(r -> {
+			r.lockBlock(blockAddr, selected);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#lockMultipleBlocks(byte[], int, int)}.
+	 */
+	public CompletableFuture<Void> lockMultipleBlocks(final byte[] uid, final int start, final int nBlocks) {
+		return submit(r -> {
+			r.lockMultipleBlocks(uid, start, nBlocks);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#writeAFI(byte[], byte)}.
+	 */
+	public CompletableFuture<Void> writeAFI(final byte[] uid, final byte afi) {
+		return submit(r -> {
+			r.writeAFI(uid, afi);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#lockAFI(byte[])}.
+	 */
+	public CompletableFuture<Void> lockAFI(final byte[] uid) {
+		return submit(r -> {
+			r.lockAFI(uid);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#writeDSFID(byte[], byte)}.
+	 */
+	public CompletableFuture<Void> writeDSFID(final byte[] uid, final byte dsfid) {
+		return submit(r -> {
+			r.writeDSFID(uid, dsfid);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#lockDSFID(byte[])}.
+	 */
+	public CompletableFuture<Void> lockDSFID(final byte[] uid) {
+		return submit(r -> {
+			r.lockDSFID(uid);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#getBlockSecurityStatus(byte[], int, int)}.
+	 */
+	public CompletableFuture<byte[]> getBlockSecurityStatus(final byte[] uid, final int start, final int nBlocks) {
+		return submit(r -> r.getBlockSecurityStatus(uid, start, nBlocks));
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#stayQuiet(byte[])}.
+	 */
+	public CompletableFuture<Void> stayQuiet(final byte[] uid) {
+		return submit(r -> {
+			r.stayQuiet(uid);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#select(byte[])}.
+	 */
+	public CompletableFuture<Void> select(final byte[] uid) {
+		return submit(r -> {
+			r.select(uid);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#resetToReady(byte[])}.
+	 */
+	public CompletableFuture<Void> resetToReady(final byte[] uid) {
+		return submit(r -> {
+			r.resetToReady(uid);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#resetToReady(boolean)}.
+	 */
+	public CompletableFuture<Void> resetToReady(final boolean selected) {
+		return submit(r -> {
+			r.resetToReady(selected);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#getSystemInformation(byte[])}.
+	 */
+	public CompletableFuture<ISO15693SysInfo> getSystemInformation(final byte[] uid) {
+		return submit(r -> r.getSystemInformation(uid));
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#getSystemInformation(boolean)}.
+	 */
+	public CompletableFuture<ISO15693SysInfo> getSystemInformation(final boolean selected) {
+		return submit(r -> r.getSystemInformation(selected));
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#EAS_set(byte[])}.
+	 */
+	public CompletableFuture<Void> EAS_set(final byte[] uid) {
+		return submit(r -> {
+			r.EAS_set(uid);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#EAS_reset(byte[])}.
+	 */
+	public CompletableFuture<Void> EAS_reset(final byte[] uid) {
+		return submit(r -> {
+			r.EAS_reset(uid);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#EAS_lock(byte[])}.
+	 */
+	public CompletableFuture<Void> EAS_lock(final byte[] uid) {
+		return submit(r -> {
+			r.EAS_lock(uid);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#EAS_alarm(byte[])}.
+	 */
+	public CompletableFuture<byte[]> EAS_alarm(final byte[] uid) {
+		return submit(r -> r.EAS_alarm(uid));
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#EAS_alarm(boolean)}.
+	 */
+	public CompletableFuture<byte[]> EAS_alarm(final boolean selected) {
+		return submit(r -> r.EAS_alarm(selected));
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#rfOnOff(int)}.
+	 */
+	public CompletableFuture<Void> rfOnOff(final int mode) {
+		return submit(r -> {
+			r.rfOnOff(mode);
+			return null;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link ISO15693Reader#rfReset()}.
+	 */
+	public CompletableFuture<Void> rfReset() {
+		return submit(r -> {
+			r.rfReset();
+			return null;
+		});
+	}
+}
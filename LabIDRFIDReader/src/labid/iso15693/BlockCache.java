@@ -0,0 +1,418 @@
+package labid.iso15693;
+
+import labid.comm.ByteUtils;
+import labid.comm.LongIntHashMap;
+import labid.reader.CommandResult;
+import labid.reader.RFReaderException;
+import labid.reader.TagPresenceEvent;
+import labid.reader.TagPresenceListener;
+
+/**
+ * Cache of the memory blocks of ISO15693 transponders. Reads are served from
+ * memory when all the requested blocks are cached, otherwise the missing range
+ * is read from the tag with a single command (read-through). Writes made
+ * through the cache go to the tag and then update the cached blocks; locking
+ * blocks or writing the AFI through the cache drops the affected entries. <br/>
+ * The cache holds the blocks of a limited number of tags: when it is full, the
+ * least recently used tag is evicted. Tags are indexed by their packed serial
+ * number in a {@link LongIntHashMap}, blocks by a bitmap, so lookups don't
+ * allocate objects. <br/>
+ * Registered as listener of a {@link labid.reader.TagPresenceTracker}, the
+ * cache forgets departed tags and can prefetch a range of blocks as soon as a
+ * tag arrives, while it is still in the field:
+ * <pre>
+ * BlockCache cache = new BlockCache(reader, 256);
+ * cache.setPrefetch(0, 8);
+ * tracker.addListener(cache);
+ * ...
+ * byte[] config = cache.read(uid, 0, 4);
+ * </pre>
+ * Only changes made through the cache are seen by it: other writers must call
+ * {@link #invalidate(long)}. All methods are synchronized.
+ */
+public class BlockCache implements TagPresenceListener {
+
+	/** Blocks addressable by ISO15693 commands */
+	private static final int MAX_BLOCKS = 256;
+	/** Payload of a read reply which fits in a reader frame */
+	private static final int MAX_READ_BYTES = 502;
+
+	private final ISO15693Reader reader;
+	private final CommandResult result = new CommandResult();
+	private final int maxTags;
+
+	/** uid -> indice del record */
+	private final LongIntHashMap index;
+	private final long[] uids;
+	private final byte[][] data;
+	private final int[] blockSizes;
+	/** blocchi validi: 4 long per record */
+	private final long[] valid;
+	/** lista LRU: head e' il piu' recente */
+	private final int[] prev;
+	private final int[] next;
+	private int head = -1;
+	private int tail = -1;
+	private int used = 0;
+
+	private int prefetchStart = 0;
+	private int prefetchCount = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param reader The reader used for reads and writes. Its block size
+	 * (see {@link ISO15693Reader#getBlockSize()}) is the block size of new tags.
+	 * @param maxTags Number of tags kept in the cache.
+	 */
+	public BlockCache(ISO15693Reader reader, int maxTags) {
+		if (maxTags < 1)
+			throw new IllegalArgumentException("maxTags must be at least 1");
+		this.reader = reader;
+		this.maxTags = maxTags;
+		this.index = new LongIntHashMap(maxTags);
+		this.uids = new long[maxTags];
+		this.data = new byte[maxTags][];
+		this.blockSizes = new int[maxTags];
+		this.valid = new long[maxTags * 4];
+		this.prev = new int[maxTags];
+		this.next = new int[maxTags];
+	}
+
+	/**
+	 * Sets the blocks read when a tag arrives (see {@link #presenceChanged(TagPresenceEvent)}).
+	 *
+	 * @param start First block.
+	 * @param count Number of blocks, 0 to disable prefetching (the default).
+	 */
+	public synchronized void setPrefetch(int start, int count) {
+		this.prefetchStart = start;
+		this.prefetchCount = count;
+	}
+
+	/**
+	 * Reads blocks of an addressed transponder.
+	 *
+	 * @param uid Serial number of the transponder.
+	 * @param start Index of the first block.
+	 * @param n Number of blocks.
+	 * @return The content of the blocks.
+	 * @throws RFReaderException If some blocks are not cached and could not be read.
+	 */
+	public synchronized byte[] read(byte[] uid, int start, int n) throws RFReaderException {
+		int r = load(ByteUtils.toLong(uid, 0), uid, start, n);
+		int bs = blockSizes[r];
+		byte[] dest = new byte[n * bs];
+		ByteUtils.copy(data[r], start * bs, dest, 0, n * bs);
+		return dest;
+	}
+
+	/**
+	 * Reads blocks of an addressed transponder into a caller supplied array.
+	 *
+	 * @param uid Serial number of the transponder.
+	 * @param start Index of the first block.
+	 * @param n Number of blocks.
+	 * @param dest Destination array.
+	 * @param destOffset Index of the first byte written in dest.
+	 * @return Number of bytes written in dest.
+	 * @throws RFReaderException If some blocks are not cached and could not be read.
+	 */
+	public synchronized int read(byte[] uid, int start, int n, byte[] dest, int destOffset) throws RFReaderException {
+		int r = load(ByteUtils.toLong(uid, 0), uid, start, n);
+		int bs = blockSizes[r];
+		ByteUtils.copy(data[r], start * bs, dest, destOffset, n * bs);
+		return n * bs;
+	}
+
+	/**
+	 * Writes blocks of an addressed transponder, then updates the cache.
+	 *
+	 * @throws RFReaderException If unable to write; the blocks are dropped
+	 * from the cache, because they could have been partially written.
+	 * @throws IllegalArgumentException If the range exceeds the 256 blocks
+	 * addressable by ISO15693 commands; nothing is sent to the tag.
+	 */
+	public synchronized void write(byte[] uid, byte[] buf, int start, int n) throws RFReaderException {
+		checkRange(start, n);
+		long key = ByteUtils.toLong(uid, 0);
+		try {
+			reader.write(uid, buf, start, n);
+		} catch (RFReaderException e) {
+			invalidate(key, start, n);
+			throw e;
+		}
+		int r = index.get(key, -1);
+		if (r < 0)
+			return;
+		int bs = blockSizes[r];
+		for (int b = start; b < start + n; b++) {
+			// il reader completa con zeri i dati troppo corti
+			int off = (b - start) * bs;
+			for (int i = 0; i < bs; i++)
+				data[r][b * bs + i] = (off + i < buf.length) ? buf[off + i] : 0;
+			setValid(r, b);
+		}
+	}
+
+	/**
+	 * Locks a block of an addressed transponder and drops it from the cache.
+	 */
+	public synchronized void lockBlock(byte[] uid, int blockAddr) throws RFReaderException {
+		invalidate(ByteUtils.toLong(uid, 0), blockAddr, 1);
+		reader.lockBlock(uid, blockAddr);
+	}
+
+	/**
+	 * Locks blocks of an addressed transponder and drops them from the cache.
+	 */
+	public synchronized void lockMultipleBlocks(byte[] uid, int start, int nBlocks) throws RFReaderException {
+		invalidate(ByteUtils.toLong(uid, 0), start, nBlocks);
+		reader.lockMultipleBlocks(uid, start, nBlocks);
+	}
+
+	/**
+	 * Writes the AFI of an addressed transponder and drops the tag from the cache.
+	 */
+	public synchronized void writeAFI(byte[] uid, byte afi) throws RFReaderException {
+		invalidate(ByteUtils.toLong(uid, 0));
+		reader.writeAFI(uid, afi);
+	}
+
+	/**
+	 * Reads the prefetch range of the tag into the cache. Errors are ignored.
+	 *
+	 * @return True if the blocks are cached.
+	 */
+	public synchronized boolean prefetch(long uid) {
+		if (prefetchCount <= 0)
+			return false;
+		try {
+			load(uid, ByteUtils.toBytes(uid), prefetchStart, prefetchCount);
+			return true;
+		} catch (RFReaderException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Forgets departed tags and prefetches arrived ones.
+	 */
+	public void presenceChanged(TagPresenceEvent event) {
+		if (event.type == TagPresenceEvent.DEPARTED)
+			invalidate(event.uid);
+		else if (event.type == TagPresenceEvent.ARRIVED)
+			prefetch(event.uid);
+	}
+
+	/**
+	 * Drops all the blocks of a tag.
+	 */
+	public synchronized void invalidate(long uid) {
+		int r = index.get(uid, -1);
+		if (r >= 0)
+			release(r);
+	}
+
+	/**
+	 * Drops some blocks of a tag.
+	 */
+	public synchronized void invalidate(long uid, int start, int n) {
+		int r = index.get(uid, -1);
+		if (r < 0)
+			return;
+		for (int b = start; b < start + n && b < MAX_BLOCKS; b++)
+			valid[r * 4 + (b >> 6)] &= ~(1L << b);
+	}
+
+	/**
+	 * Drops all the tags.
+	 */
+	public synchronized void clear() {
+		while (head >= 0)
+			release(head);
+	}
+
+	/**
+	 * Tells if a block is cached.
+	 */
+	public synchronized boolean contains(long uid, int block) {
+		int r = index.get(uid, -1);
+		return r >= 0 && isValid(r, block);
+	}
+
+	/**
+	 * Number of tags in the cache.
+	 */
+	public synchronized int size() {
+		return used;
+	}
+
+	/**
+	 * Number of reads served from the cache.
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Number of reads which required a command.
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Number of tags evicted to make room for new ones.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Makes sure that blocks are cached, reading the missing range from the tag.
+	 *
+	 * @return The record of the tag.
+	 */
+	private int load(long key, byte[] uid, int start, int n) throws RFReaderException {
+		checkRange(start, n);
+		int r = index.get(key, -1);
+		if (r < 0)
+			r = allocate(key);
+		else
+			touch(r);
+
+		int first = start;
+		while (first < start + n && isValid(r, first))
+			first++;
+		if (first == start + n) {
+			hits++;
+			return r;
+		}
+		int last = start + n - 1;
+		while (isValid(r, last))
+			last--;
+
+		misses++;
+		int bs = blockSizes[r];
+		int chunk = MAX_READ_BYTES / bs;
+		boolean security = reader.getIso15693Option(ISO15693Reader.ISO_OPTION_SecurityStatus);
+		reader.setIso15693Option(ISO15693Reader.ISO_OPTION_SecurityStatus, false);
+		try {
+			for (int b = first; b <= last; b += chunk) {
+				int cnt = Math.min(chunk, last + 1 - b);
+				if (reader.read(uid, b, cnt, result) != CommandResult.STATUS_OK || result.length != cnt * bs)
+					throw new RFReaderException("Could not read", b);
+				ByteUtils.copy(result.data, result.offset, data[r], b * bs, result.length);
+				for (int i = b; i < b + cnt; i++)
+					setValid(r, i);
+			}
+		} finally {
+			reader.setIso15693Option(ISO15693Reader.ISO_OPTION_SecurityStatus, security);
+		}
+		return r;
+	}
+
+	/**
+	 * Rejects the ranges outside the bitmap and the data of a record.
+	 */
+	private static void checkRange(int start, int n) {
+		if (start < 0 || n < 1 || start + n > MAX_BLOCKS)
+			throw new IllegalArgumentException("Block range out of bounds");
+	}
+
+	private boolean isValid(int r, int block) {
+		return (valid[r * 4 + (block >> 6)] & (1L << block)) != 0;
+	}
+
+	private void setValid(int r, int block) {
+		valid[r * 4 + (block >> 6)] |= 1L << block;
+	}
+
+	private int allocate(long key) {
+		int r;
+		if (used < maxTags)
+			r = used++;
+		else {
+			// il record meno usato di recente viene riciclato
+			r = tail;
+			unlink(r);
+			index.remove(uids[r]);
+			evictions++;
+		}
+		int bs = reader.getBlockSize();
+		if (data[r] == null || blockSizes[r] != bs)
+			data[r] = new byte[MAX_BLOCKS * bs];
+		blockSizes[r] = bs;
+		uids[r] = key;
+		for (int i = 0; i < 4; i++)
+			valid[r * 4 + i] = 0;
+		index.put(key, r);
+		linkFirst(r);
+		return r;
+	}
+
+	/**
+	 * Removes a record, moving the last used record in its place so that
+	 * records 0..used-1 are always in use.
+	 */
+	private void release(int r) {
+		unlink(r);
+		index.remove(uids[r]);
+		int last = --used;
+		if (r == last)
+			return;
+		boolean wasHead = (head == last);
+		int p = prev[last];
+		int nx = next[last];
+		byte[] buf = data[r];
+		data[r] = data[last];
+		data[last] = buf;
+		blockSizes[r] = blockSizes[last];
+		uids[r] = uids[last];
+		System.arraycopy(valid, last * 4, valid, r * 4, 4);
+		index.put(uids[r], r);
+		prev[r] = p;
+		next[r] = nx;
+		if (p >= 0)
+			next[p] = r;
+		if (nx >= 0)
+			prev[nx] = r;
+		if (wasHead)
+			head = r;
+		if (tail == last)
+			tail = r;
+	}
+
+	private void touch(int r) {
+		if (head == r)
+			return;
+		unlink(r);
+		linkFirst(r);
+	}
+
+	private void linkFirst(int r) {
+		prev[r] = -1;
+		next[r] = head;
+		if (head >= 0)
+			prev[head] = r;
+		head = r;
+		if (tail < 0)
+			tail = r;
+	}
+
+	private void unlink(int r) {
+		int p = prev[r];
+		int nx = next[r];
+		if (p >= 0)
+			next[p] = nx;
+		else
+			head = nx;
+		if (nx >= 0)
+			prev[nx] = p;
+		else
+			tail = p;
+	}
+}
@@ -0,0 +1,252 @@
+package labid.iso15693;
+
+import labid.comm.ByteUtils;
+import labid.reader.RFReaderException;
+
+/**
+ * Writes a memory image to an ISO15693 transponder, writing only the blocks
+ * whose content differs from the target. The current content is taken from a
+ * {@link BlockCache}, if set, or read from the tag; consecutive changed blocks
+ * are coalesced into multiple-block writes, locked blocks are skipped (see
+ * {@link ISO15693Reader#getBlockSecurityStatus(byte[], int, int)}), and the
+ * written blocks are verified with the fewest reads which cover them.
+ * <pre>
+ * DiffWriter w = new DiffWriter(reader);
+ * w.write(uid, image, 0, 28);
+ * if (w.getLockedCount() &gt; 0) ...
+ * </pre>
+ * Writes are the slow part of encoding and wear the EEPROM: on partially
+ * updated tags most of the range is not written at all.
+ */
+public class DiffWriter {
+
+	/** Payload of a read reply which fits in a reader frame */
+	private static final int MAX_READ_BYTES = 502;
+	/** Data of a write command which fits in a reader frame */
+	private static final int MAX_WRITE_BYTES = 493;
+
+	private final ISO15693Reader reader;
+	private BlockCache cache;
+	private boolean checkLocks = true;
+	private boolean verify = true;
+	private int maxGap = 0;
+	private int maxWriteBlocks = 0;
+
+	private int written;
+	private int writeCommands;
+	private int locked;
+	private int unchanged;
+
+	public DiffWriter(ISO15693Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Sets the cache used to get the current content of the tag and updated
+	 * by the writes, or null to read the tag (the default).
+	 */
+	public void setCache(BlockCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Enables the check of the block security status before writing (default true).
+	 */
+	public void setCheckLocks(boolean value) {
+		this.checkLocks = value;
+	}
+
+	/**
+	 * Enables the read-back of the written blocks (default true).
+	 */
+	public void setVerify(boolean value) {
+		this.verify = value;
+	}
+
+	/**
+	 * Sets the number of unchanged blocks which may be written again to join
+	 * two writes into one (default 0: unchanged blocks are never written).
+	 */
+	public void setMaxGap(int blocks) {
+		this.maxGap = blocks;
+	}
+
+	/**
+	 * Limits the number of blocks of each write, for transponders which accept
+	 * shorter multiple writes. 0 (the default) means no limit other than the
+	 * frame size.
+	 */
+	public void setMaxWriteBlocks(int blocks) {
+		this.maxWriteBlocks = blocks;
+	}
+
+	/**
+	 * Writes the blocks of an addressed transponder which differ from the target.
+	 *
+	 * @param uid Serial number of the transponder.
+	 * @param target Content of the blocks, at least n * block size bytes.
+	 * @param start Index of the first block.
+	 * @param n Number of blocks.
+	 * @return Number of blocks written.
+	 * @throws RFReaderException If unable to read, write or verify; the detail
+	 * of a verify error is the first block which does not match.
+	 */
+	public int write(byte[] uid, byte[] target, int start, int n) throws RFReaderException {
+		int bs = reader.getBlockSize();
+		if (target.length < n * bs)
+			throw new IllegalArgumentException("Target image shorter than the block range");
+		written = 0;
+		writeCommands = 0;
+		locked = 0;
+		unchanged = 0;
+
+		byte[] current = new byte[n * bs];
+		if (cache != null)
+			cache.read(uid, start, n, current, 0);
+		else
+			readRange(uid, start, n, current);
+
+		byte[] security = checkLocks ? readSecurityStatus(uid, start, n) : null;
+
+		// blocchi da scrivere
+		boolean[] dirty = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			if (equalBlock(current, target, i * bs, bs))
+				unchanged++;
+			else if (security != null && security[i] != 0)
+				locked++;
+			else
+				dirty[i] = true;
+		}
+
+		int maxBlocks = Math.min(255, MAX_WRITE_BYTES / bs);
+		if (maxWriteBlocks > 0 && maxWriteBlocks < maxBlocks)
+			maxBlocks = maxWriteBlocks;
+
+		boolean[] done = new boolean[n];
+		int first = -1;
+		int last = -1;
+		int i = 0;
+		while (i < n) {
+			if (!dirty[i]) {
+				i++;
+				continue;
+			}
+			// estendo la scrittura finche' i buchi sono piccoli e non bloccati
+			int end = i + 1;
+			int j = end;
+			while (j < n && j - i < maxBlocks) {
+				if (dirty[j]) {
+					end = ++j;
+				} else if (j - end < maxGap && (security == null || security[j] == 0)) {
+					j++;
+				} else
+					break;
+			}
+			writeBlocks(uid, target, i, start + i, end - i, bs);
+			for (int k = i; k < end; k++)
+				done[k] = true;
+			if (first < 0)
+				first = i;
+			last = end - 1;
+			i = end;
+		}
+
+		if (verify && first >= 0)
+			verifyRange(uid, target, done, start, first, last, bs);
+		return written;
+	}
+
+	private void writeBlocks(byte[] uid, byte[] target, int index, int block, int count, int bs)
+			throws RFReaderException {
+		byte[] data = new byte[count * bs];
+		ByteUtils.copy(target, index * bs, data, 0, data.length);
+		if (cache != null)
+			cache.write(uid, data, block, count);
+		else
+			reader.write(uid, data, block, count);
+		writeCommands++;
+		written += count;
+	}
+
+	/**
+	 * Reads back the blocks between the first and the last written one and
+	 * compares the written ones.
+	 */
+	private void verifyRange(byte[] uid, byte[] target, boolean[] done, int start, int first, int last, int bs)
+			throws RFReaderException {
+		byte[] check = new byte[(last - first + 1) * bs];
+		readRange(uid, start + first, last - first + 1, check);
+		for (int b = first; b <= last; b++) {
+			if (done[b] && !equalBlock(check, (b - first) * bs, target, b * bs, bs)) {
+				if (cache != null)
+					cache.invalidate(ByteUtils.toLong(uid, 0), start + first, last - first + 1);
+				throw new RFReaderException("Verify failed", start + b);
+			}
+		}
+	}
+
+	private void readRange(byte[] uid, int start, int n, byte[] dest) throws RFReaderException {
+		boolean security = reader.getIso15693Option(ISO15693Reader.ISO_OPTION_SecurityStatus);
+		reader.setIso15693Option(ISO15693Reader.ISO_OPTION_SecurityStatus, false);
+		try {
+			int chunk = Math.min(255, MAX_READ_BYTES / reader.getBlockSize());
+			int off = 0;
+			for (int b = start; b < start + n; b += chunk)
+				off += reader.read(uid, b, Math.min(chunk, start + n - b), dest, off);
+		} finally {
+			reader.setIso15693Option(ISO15693Reader.ISO_OPTION_SecurityStatus, security);
+		}
+	}
+
+	private byte[] readSecurityStatus(byte[] uid, int start, int n) throws RFReaderException {
+		byte[] result = new byte[n];
+		for (int b = start; b < start + n; b += 255) {
+			int cnt = Math.min(255, start + n - b);
+			byte[] s = reader.getBlockSecurityStatus(uid, b, cnt);
+			ByteUtils.copy(s, 0, result, b - start, Math.min(cnt, s.length));
+		}
+		return result;
+	}
+
+	private static boolean equalBlock(byte[] a, byte[] b, int off, int bs) {
+		return equalBlock(a, off, b, off, bs);
+	}
+
+	private static boolean equalBlock(byte[] a, int aOff, byte[] b, int bOff, int bs) {
+		for (int i = 0; i < bs; i++) {
+			if (a[aOff + i] != b[bOff + i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Number of blocks written by the last write, unchanged blocks joined to
+	 * writes included.
+	 */
+	public int getWrittenCount() {
+		return written;
+	}
+
+	/**
+	 * Number of write commands sent by the last write.
+	 */
+	public int getWriteCommandCount() {
+		return writeCommands;
+	}
+
+	/**
+	 * Number of changed blocks which were not written because locked.
+	 */
+	public int getLockedCount() {
+		return locked;
+	}
+
+	/**
+	 * Number of blocks which already held the target content.
+	 */
+	public int getUnchangedCount() {
+		return unchanged;
+	}
+}
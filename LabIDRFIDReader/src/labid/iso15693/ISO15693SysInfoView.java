@@ -0,0 +1,145 @@
+package labid.iso15693;
+
+import labid.comm.ByteUtils;
+
+/**
+ * System information of an iso15693 transponder, read directly from the reply
+ * of the reader: unlike {@link ISO15693SysInfo}, the view copies nothing and
+ * can be reused for any number of commands (see
+ * {@link ISO15693Reader#getSystemInformation(byte[], ISO15693SysInfoView)}). <br/>
+ * The view is valid until the next command sent through the reader object
+ * which filled it. As in ISO15693SysInfo, check the matching "valid" method
+ * before reading a field.
+ */
+public class ISO15693SysInfoView {
+
+	private static final int FLAG_DSFID = 0;
+	private static final int FLAG_AFI = 1;
+	private static final int FLAG_MEMORY_SIZE = 2;
+	private static final int FLAG_IC_REF = 3;
+
+	private byte[] buf;
+	/** indice del byte dei flag */
+	private int offset;
+
+	/**
+	 * Points the view to a system information reply: a flags byte, the serial
+	 * number (8 bytes), then the optional fields signalled by the flags.
+	 *
+	 * @param buf The buffer which contains the reply.
+	 * @param offset Index of the flags byte.
+	 */
+	public void wrap(byte[] buf, int offset) {
+		this.buf = buf;
+		this.offset = offset;
+	}
+
+	private boolean hasField(int flag) {
+		return ByteUtils.getBit(buf[offset], flag);
+	}
+
+	/**
+	 * Index of an optional field: fields follow the serial number in the
+	 * order of their flags.
+	 */
+	private int fieldIndex(int flag) {
+		int i = offset + 9;
+		for (int f = 0; f < flag; f++) {
+			if (hasField(f))
+				i += (f == FLAG_MEMORY_SIZE) ? 2 : 1;
+		}
+		return i;
+	}
+
+	/**
+	 * Copies the serial number of the transponder.
+	 *
+	 * @param dest Destination array, at least 8 bytes from destOffset.
+	 * @param destOffset Index of the first byte in dest.
+	 */
+	public void getUid(byte[] dest, int destOffset) {
+		ByteUtils.copy(buf, offset + 1, dest, destOffset, 8);
+	}
+
+	/**
+	 * Serial number packed into a long (see {@link ByteUtils#toLong(byte[], int)}).
+	 */
+	public long getUidLong() {
+		return ByteUtils.toLong(buf, offset + 1);
+	}
+
+	public boolean isValidDSFID() {
+		return hasField(FLAG_DSFID);
+	}
+
+	public boolean isValidAFI() {
+		return hasField(FLAG_AFI);
+	}
+
+	public boolean isValidMemorySize() {
+		return hasField(FLAG_MEMORY_SIZE);
+	}
+
+	public boolean isValidIC_REF() {
+		return hasField(FLAG_IC_REF);
+	}
+
+	/**
+	 * Data Storage Family id.
+	 */
+	public byte getDSFID() {
+		return buf[fieldIndex(FLAG_DSFID)];
+	}
+
+	/**
+	 * Application family id.
+	 */
+	public byte getAFI() {
+		return buf[fieldIndex(FLAG_AFI)];
+	}
+
+	/**
+	 * Number of memory blocks.
+	 */
+	public int getBlockCount() {
+		return (buf[fieldIndex(FLAG_MEMORY_SIZE)] & 0xFF) + 1;
+	}
+
+	/**
+	 * Number of bytes in each block.
+	 */
+	public int getBlockSize() {
+		return (buf[fieldIndex(FLAG_MEMORY_SIZE) + 1] & 0x1F) + 1;
+	}
+
+	/**
+	 * Integrated circuit id.
+	 */
+	public byte getIC_REF() {
+		return buf[fieldIndex(FLAG_IC_REF)];
+	}
+
+	/**
+	 * Copies the information into a new ISO15693SysInfo object.
+	 */
+	public ISO15693SysInfo toSysInfo() {
+		ISO15693SysInfo result = new ISO15693SysInfo();
+		result.uid = new byte[8];
+		getUid(result.uid, 0);
+		result.validDSFID = isValidDSFID();
+		if (result.validDSFID)
+			result.DSFID = getDSFID();
+		result.validAFI = isValidAFI();
+		if (result.validAFI)
+			result.AFI = getAFI();
+		result.validMemorySize = isValidMemorySize();
+		if (result.validMemorySize) {
+			result.nBlocks = getBlockCount();
+			result.blockSize = getBlockSize();
+		}
+		result.validIC_REF = isValidIC_REF();
+		if (result.validIC_REF)
+			result.IC_REF = getIC_REF();
+		return result;
+	}
+}
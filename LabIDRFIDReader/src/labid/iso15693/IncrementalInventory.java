@@ -0,0 +1,199 @@
+package labid.iso15693;
+
+import labid.comm.LongHashSet;
+import labid.reader.RFReaderException;
+
+/**
+ * Inventory engine for large ISO15693 populations. Each sweep sends inventories
+ * with the StayQuiet option, so that every tag is reported once and then stops
+ * answering, until an inventory finds no new tags: sweeps are not limited to
+ * the {@link ISO15693Reader#MAX_INVENTORY_TAGS} of a single reply, and tags
+ * already processed cost no RF time or parsing. <br/>
+ * Silenced tags are re-armed with an RF reset, which powers them off and back
+ * to the ready state, according to a configurable interval; tags which leave
+ * the field and come back are ready again and are reported as new. A re-arm
+ * starts a new window: the tags reported since the last re-arm are in
+ * {@link #getSeen()}, the ones of the previous window in {@link #getPreviousSeen()}.
+ * <pre>
+ * IncrementalInventory inv = new IncrementalInventory(reader);
+ * inv.setRearmInterval(5000);
+ * while (running) {
+ *     int n = inv.sweep();
+ *     for (int i = 0; i &lt; n; i++)
+ *         process(inv.getNewTag(i));
+ * }
+ * </pre>
+ * Non addressed reset to ready is not used for re-arming because quiet tags do
+ * not answer non addressed commands.
+ */
+public class IncrementalInventory {
+
+	private final ISO15693Reader reader;
+	private final long[] round = new long[ISO15693Reader.MAX_INVENTORY_TAGS];
+
+	private LongHashSet seen = new LongHashSet(256);
+	private LongHashSet previousSeen = new LongHashSet(256);
+	private long[] newTags = new long[256];
+	private int nNewTags = 0;
+
+	private long rearmInterval = 0;
+	private long lastRearm = 0;
+	private boolean rearmPending = true;
+	private boolean rearmed = false;
+	private int maxRounds = 64;
+	private int maxCollisionRounds = 4;
+	private int rounds = 0;
+
+	/**
+	 * Creates an engine which re-arms the field before every sweep.
+	 *
+	 * @param reader The reader used for inventories. Its StayQuiet option is set
+	 * during sweeps and restored afterwards.
+	 */
+	public IncrementalInventory(ISO15693Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Sets the time between re-arms of the field.
+	 *
+	 * @param millis Minimum time between two RF resets; 0 to re-arm before
+	 * every sweep (each sweep reports all tags).
+	 */
+	public void setRearmInterval(long millis) {
+		this.rearmInterval = millis;
+	}
+
+	public long getRearmInterval() {
+		return rearmInterval;
+	}
+
+	/**
+	 * Sets the maximum number of inventory commands of a sweep (default 64).
+	 */
+	public void setMaxRounds(int rounds) {
+		this.maxRounds = rounds;
+	}
+
+	/**
+	 * Sets the number of consecutive inventories with unresolved collisions after
+	 * which a sweep gives up (default 4).
+	 */
+	public void setMaxCollisionRounds(int rounds) {
+		this.maxCollisionRounds = rounds;
+	}
+
+	/**
+	 * Re-arms the field at the beginning of the next sweep.
+	 */
+	public void rearm() {
+		rearmPending = true;
+	}
+
+	/**
+	 * Performs a sweep: re-arms the field if it is time to, then inventories
+	 * until no new tags answer.
+	 *
+	 * @return Number of tags reported for the first time since the last re-arm
+	 * (see {@link #getNewTag(int)}).
+	 * @throws RFReaderException If the communication with the reader fails.
+	 */
+	public int sweep() throws RFReaderException {
+		long now = System.currentTimeMillis();
+		rearmed = false;
+		if (rearmPending || now - lastRearm >= rearmInterval) {
+			reader.rfReset();
+			LongHashSet temp = previousSeen;
+			previousSeen = seen;
+			seen = temp;
+			seen.clear();
+			lastRearm = now;
+			rearmPending = false;
+			rearmed = true;
+		}
+
+		nNewTags = 0;
+		rounds = 0;
+		int collisions = 0;
+		boolean stayQuiet = reader.getIso15693Option(ISO15693Reader.ISO_OPTION_StayQuiet);
+		reader.setIso15693Option(ISO15693Reader.ISO_OPTION_StayQuiet, true);
+		try {
+			while (rounds < maxRounds) {
+				int n = reader.inventory(round);
+				rounds++;
+				if (n == 0) {
+					// con una collisione non risolta ci sono ancora tag da leggere
+					if (reader.getLastInventoryStatus() != ISO15693Reader.INVENTORY_COLLISION
+							|| ++collisions >= maxCollisionRounds)
+						break;
+					continue;
+				}
+				collisions = 0;
+				for (int i = 0; i < n; i++) {
+					if (seen.add(round[i]))
+						addNewTag(round[i]);
+				}
+			}
+		} finally {
+			reader.setIso15693Option(ISO15693Reader.ISO_OPTION_StayQuiet, stayQuiet);
+		}
+		return nNewTags;
+	}
+
+	private void addNewTag(long uid) {
+		if (nNewTags == newTags.length) {
+			long[] temp = new long[newTags.length * 2];
+			System.arraycopy(newTags, 0, temp, 0, nNewTags);
+			newTags = temp;
+		}
+		newTags[nNewTags++] = uid;
+	}
+
+	/**
+	 * Number of new tags found by the last sweep.
+	 */
+	public int getNewTagCount() {
+		return nNewTags;
+	}
+
+	/**
+	 * A new tag found by the last sweep, packed as by
+	 * {@link labid.comm.ByteUtils#toLong(byte[], int)}.
+	 */
+	public long getNewTag(int index) {
+		if (index >= nNewTags)
+			throw new IndexOutOfBoundsException();
+		return newTags[index];
+	}
+
+	/**
+	 * Tags reported since the last re-arm. The set is owned by the engine: don't
+	 * modify it.
+	 */
+	public LongHashSet getSeen() {
+		return seen;
+	}
+
+	/**
+	 * Tags reported between the last two re-arms. Comparing it with
+	 * {@link #getSeen()} after a re-arm sweep tells which tags have left the field.
+	 * The set is owned by the engine: don't modify it.
+	 */
+	public LongHashSet getPreviousSeen() {
+		return previousSeen;
+	}
+
+	/**
+	 * Tells if the last sweep started with a re-arm of the field.
+	 */
+	public boolean wasRearmed() {
+		return rearmed;
+	}
+
+	/**
+	 * Number of inventory commands sent by the last sweep.
+	 */
+	public int getRounds() {
+		return rounds;
+	}
+}
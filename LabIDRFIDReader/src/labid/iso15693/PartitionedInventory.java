@@ -0,0 +1,132 @@
+package labid.iso15693;
+
+import labid.comm.LongHashSet;
+import labid.reader.RFReaderException;
+
+/**
+ * Inventory of populations which do not fit a single reply frame. A sweep
+ * starts with an inventory of the whole field; if the reply is full
+ * ({@link ISO15693Reader#MAX_INVENTORY_TAGS} UIDs) or the reader reports a
+ * collision, the population is split by AFI family (0x10, 0x20 ... 0xF0) and
+ * families which still overflow are split by subfamily. Partitions which cannot
+ * be split further are drained with repeated inventories. <br/>
+ * All inventories use the StayQuiet option, so every tag is reported once per
+ * sweep and does not crowd the following partitions; tags with AFI 0x00 (which
+ * do not answer inventories with an AFI) are collected by a final inventory
+ * of the whole field. Each sweep starts with an RF reset, which brings all
+ * tags back to the ready state. <br/>
+ * Results are merged into one set of packed UIDs (see
+ * {@link labid.comm.ByteUtils#toLong(byte[], int)}).
+ */
+public class PartitionedInventory {
+
+	private final ISO15693Reader reader;
+	private final long[] round = new long[ISO15693Reader.MAX_INVENTORY_TAGS];
+	private final LongHashSet tags = new LongHashSet(256);
+
+	private int maxDrainRounds = 16;
+	private int rounds = 0;
+	/** numero di UID dell'ultima risposta */
+	private int lastCount = 0;
+
+	/**
+	 * @param reader The reader used for inventories. Its StayQuiet and AfiEnabled
+	 * options are set during sweeps and restored afterwards.
+	 */
+	public PartitionedInventory(ISO15693Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Sets the maximum number of inventories used to drain a partition which
+	 * cannot be split (default 16).
+	 */
+	public void setMaxDrainRounds(int rounds) {
+		this.maxDrainRounds = rounds;
+	}
+
+	/**
+	 * Inventories all tags in the field.
+	 *
+	 * @return Number of distinct tags found.
+	 * @throws RFReaderException If the communication with the reader fails.
+	 */
+	public int sweep() throws RFReaderException {
+		tags.clear();
+		rounds = 0;
+
+		boolean stayQuiet = reader.getIso15693Option(ISO15693Reader.ISO_OPTION_StayQuiet);
+		boolean afiEnabled = reader.getIso15693Option(ISO15693Reader.ISO_OPTION_AfiEnabled);
+		reader.rfReset();
+		reader.setIso15693Option(ISO15693Reader.ISO_OPTION_StayQuiet, true);
+		try {
+			reader.setIso15693Option(ISO15693Reader.ISO_OPTION_AfiEnabled, false);
+			if (inventory((byte) 0x00)) {
+				reader.setIso15693Option(ISO15693Reader.ISO_OPTION_AfiEnabled, true);
+				for (int family = 1; family < 16; family++)
+					partition(family << 4);
+				// tag con AFI 0x00 e rimasti
+				reader.setIso15693Option(ISO15693Reader.ISO_OPTION_AfiEnabled, false);
+				drain((byte) 0x00);
+			}
+		} finally {
+			reader.setIso15693Option(ISO15693Reader.ISO_OPTION_StayQuiet, stayQuiet);
+			reader.setIso15693Option(ISO15693Reader.ISO_OPTION_AfiEnabled, afiEnabled);
+		}
+		return tags.size();
+	}
+
+	/**
+	 * Inventories a family and, if it overflows, its subfamilies.
+	 */
+	private void partition(int family) throws RFReaderException {
+		if (!inventory((byte) family))
+			return;
+		for (int subfamily = 1; subfamily < 16; subfamily++) {
+			if (inventory((byte) (family | subfamily)))
+				drain((byte) (family | subfamily));
+		}
+		// tag con sottofamiglia 0
+		drain((byte) family);
+	}
+
+	/**
+	 * Repeats inventories of a partition until no tag answers.
+	 */
+	private void drain(byte afi) throws RFReaderException {
+		for (int i = 0; i < maxDrainRounds; i++) {
+			inventory(afi);
+			if (lastCount == 0 && reader.getLastInventoryStatus() != ISO15693Reader.INVENTORY_COLLISION)
+				return;
+		}
+	}
+
+	/**
+	 * Sends one inventory and merges its result.
+	 *
+	 * @return True if the partition overflowed (full reply or collision).
+	 */
+	private boolean inventory(byte afi) throws RFReaderException {
+		int n = reader.inventory(afi, round);
+		rounds++;
+		for (int i = 0; i < n; i++)
+			tags.add(round[i]);
+		lastCount = n;
+		return n == round.length || reader.getLastInventoryStatus() == ISO15693Reader.INVENTORY_COLLISION;
+	}
+
+	/**
+	 * Tags found by the last sweep. The set is owned by this object and is
+	 * cleared by the next sweep.
+	 */
+	public LongHashSet getTags() {
+		return tags;
+	}
+
+	/**
+	 * Number of inventory commands sent by the last sweep.
+	 */
+	public int getRounds() {
+		return rounds;
+	}
+}
@@ -0,0 +1,259 @@
+package labid.iso15693;
+
+import labid.comm.ByteUtils;
+import labid.reader.CommandArbiter;
+import labid.reader.CommandPipeline;
+import labid.reader.CommandResult;
+import labid.reader.RFReaderException;
+
+/**
+ * Reads the whole memory of an ISO15693 transponder. The memory size is taken
+ * from the system information of the tag, then the blocks are read with the
+ * largest reads which fit in a reader frame. Reads are sent back to back while
+ * holding the communication stream, so that commands of other threads don't
+ * interleave, and pipelined (see {@link CommandPipeline}): the next read is on
+ * the line while the previous reply is copied. Blocks which could not be read
+ * are requested again, up to the configured number of retries, without reading
+ * again the others.
+ * <pre>
+ * TagMemoryReader mr = new TagMemoryReader(reader);
+ * byte[] image = mr.readAll(uid, true);
+ * byte[] lock = mr.getSecurityStatus();
+ * double speed = mr.getBlocksPerSecond();
+ * </pre>
+ */
+public class TagMemoryReader {
+
+	/** Maximum length of a reader frame */
+	private static final int MAX_FRAME = 511;
+	/** Header, number of blocks, block size and CRC of a read reply */
+	private static final int READ_OVERHEAD = 9;
+
+	private final ISO15693Reader reader;
+	private final ISO15693SysInfoView info = new ISO15693SysInfoView();
+	private final CommandPipeline pipeline;
+
+	private int maxChunkBlocks = 0;
+	private int maxRetries = 3;
+
+	private byte[] image;
+	private byte[] security;
+	private int nBlocks;
+	private int blockSize;
+	private int commands;
+	private int retries;
+	private long elapsed;
+	/** primi blocchi delle letture fallite nel passo corrente */
+	private int[] failed;
+	private int nFailed;
+
+	/**
+	 * @param reader The reader used for the reads. Its SecurityStatus option is
+	 * set as requested during reads and restored afterwards.
+	 */
+	public TagMemoryReader(ISO15693Reader reader) {
+		this.reader = reader;
+		this.pipeline = new CommandPipeline(reader, 2);
+	}
+
+	/**
+	 * Sets the number of reads sent without waiting for the previous reply
+	 * (default 2; 1 disables pipelining). Readers which reject overlapping
+	 * frames are detected and used with depth 1.
+	 */
+	public void setPipelineDepth(int depth) {
+		pipeline.setDepth(depth);
+	}
+
+	/**
+	 * Limits the number of blocks of each read, for transponders which accept
+	 * shorter multiple reads. 0 (the default) means no limit other than the
+	 * frame size.
+	 */
+	public void setMaxChunkBlocks(int blocks) {
+		this.maxChunkBlocks = blocks;
+	}
+
+	/**
+	 * Sets how many times the reads which failed are repeated (default 3).
+	 */
+	public void setMaxRetries(int retries) {
+		this.maxRetries = retries;
+	}
+
+	/**
+	 * Reads the whole memory of an addressed transponder.
+	 *
+	 * @param uid Serial number of the transponder.
+	 * @return The content of all the blocks.
+	 * @throws RFReaderException If the tag does not report its memory size or
+	 * some blocks could not be read; the detail is the first block not read.
+	 */
+	public byte[] readAll(byte[] uid) throws RFReaderException {
+		return readAll(uid, false);
+	}
+
+	/**
+	 * Reads the whole memory of an addressed transponder.
+	 *
+	 * @param uid Serial number of the transponder.
+	 * @param securityStatus Also reads the security status of each block (see
+	 * {@link #getSecurityStatus()}).
+	 * @return The content of all the blocks.
+	 * @throws RFReaderException If the tag does not report its memory size or
+	 * some blocks could not be read; the detail is the first block not read.
+	 */
+	public byte[] readAll(byte[] uid, boolean securityStatus) throws RFReaderException {
+		long start = System.nanoTime();
+		commands = 0;
+		retries = 0;
+		image = null;
+		security = null;
+
+		CommandArbiter arbiter = CommandArbiter.forStream(reader.getStream());
+		boolean oldSecurity = reader.getIso15693Option(ISO15693Reader.ISO_OPTION_SecurityStatus);
+		arbiter.acquire();
+		try {
+			reader.getSystemInformation(uid, info);
+			commands++;
+			if (!info.isValidMemorySize())
+				throw new RFReaderException("The transponder does not report its memory size");
+			nBlocks = info.getBlockCount();
+			blockSize = info.getBlockSize();
+
+			int recordSize = blockSize + (securityStatus ? 1 : 0);
+			int chunk = Math.min(255, (MAX_FRAME - READ_OVERHEAD) / recordSize);
+			if (maxChunkBlocks > 0 && maxChunkBlocks < chunk)
+				chunk = maxChunkBlocks;
+
+			byte[] data = new byte[nBlocks * blockSize];
+			byte[] status = securityStatus ? new byte[nBlocks] : null;
+			reader.setIso15693Option(ISO15693Reader.ISO_OPTION_SecurityStatus, securityStatus);
+
+			// primi blocchi delle letture da eseguire
+			int[] pending = new int[(nBlocks + chunk - 1) / chunk];
+			int nPending = 0;
+			for (int b = 0; b < nBlocks; b += chunk)
+				pending[nPending++] = b;
+
+			for (int pass = 0; nPending > 0; pass++) {
+				if (pass > maxRetries)
+					throw new RFReaderException("Could not read blocks", pending[0]);
+				if (pass > 0)
+					retries += nPending;
+				failed = new int[nPending];
+				nFailed = 0;
+				for (int i = 0; i < nPending; i++) {
+					int first = pending[i];
+					int n = Math.min(chunk, nBlocks - first);
+					commands++;
+					reader.read(uid, first, n, pipeline, new ChunkHandler(first, n, recordSize, data, status));
+				}
+				pipeline.flush();
+				pending = failed;
+				nPending = nFailed;
+			}
+
+			image = data;
+			security = status;
+			return data;
+		} finally {
+			reader.setIso15693Option(ISO15693Reader.ISO_OPTION_SecurityStatus, oldSecurity);
+			arbiter.release();
+			elapsed = System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Copies the reply of a chunk read, or records the chunk as failed.
+	 */
+	private class ChunkHandler implements CommandPipeline.ReplyHandler {
+		private final int first;
+		private final int n;
+		private final int recordSize;
+		private final byte[] data;
+		private final byte[] status;
+
+		ChunkHandler(int first, int n, int recordSize, byte[] data, byte[] status) {
+			this.first = first;
+			this.n = n;
+			this.recordSize = recordSize;
+			this.data = data;
+			this.status = status;
+		}
+
+		public void replyReceived(CommandResult result) {
+			if (result.status != CommandResult.STATUS_OK || result.length != n * recordSize) {
+				failed[nFailed++] = first;
+				return;
+			}
+			if (status == null) {
+				ByteUtils.copy(result.data, result.offset, data, first * blockSize, result.length);
+				return;
+			}
+			int p = result.offset;
+			for (int b = first; b < first + n; b++) {
+				status[b] = result.data[p++];
+				ByteUtils.copy(result.data, p, data, b * blockSize, blockSize);
+				p += blockSize;
+			}
+		}
+	}
+
+	/**
+	 * The memory read by the last successful readAll, or null.
+	 */
+	public byte[] getImage() {
+		return image;
+	}
+
+	/**
+	 * The security status of each block read by the last successful readAll,
+	 * or null if it was not requested.
+	 */
+	public byte[] getSecurityStatus() {
+		return security;
+	}
+
+	/**
+	 * Number of blocks of the last transponder.
+	 */
+	public int getBlockCount() {
+		return nBlocks;
+	}
+
+	/**
+	 * Block size of the last transponder.
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Number of commands sent by the last readAll, system information included.
+	 */
+	public int getCommandCount() {
+		return commands;
+	}
+
+	/**
+	 * Number of reads repeated by the last readAll.
+	 */
+	public int getRetryCount() {
+		return retries;
+	}
+
+	/**
+	 * Duration of the last readAll in ms.
+	 */
+	public double getElapsedTime() {
+		return elapsed / 1e6;
+	}
+
+	/**
+	 * Blocks read per second by the last readAll.
+	 */
+	public double getBlocksPerSecond() {
+		return (elapsed > 0 && image != null) ? nBlocks * 1e9 / elapsed : 0;
+	}
+}
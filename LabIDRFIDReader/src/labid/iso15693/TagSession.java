@@ -0,0 +1,216 @@
+package labid.iso15693;
+
+import labid.reader.CommandArbiter;
+import labid.reader.RFReaderException;
+
+/**
+ * A sequence of commands sent to one ISO15693 transponder. Addressed commands
+ * carry the 8 bytes serial number of the tag; when the sequence is long enough,
+ * the session selects the tag once, sends the commands in selected mode with
+ * the shorter frames and finally resets the tag to the ready state.
+ * <pre>
+ * try (TagSession s = new TagSession(reader)) {
+ *     s.open(uid, 6);
+ *     ISO15693SysInfo info = s.getSystemInformation();
+ *     byte[] data = s.read(0, 4);
+ *     s.write(newData, 0, 4);
+ *     ...
+ * }
+ * </pre>
+ * In automatic mode the choice compares the bytes saved by the planned commands
+ * with the cost of the select and reset commands, estimated from the baud rate
+ * and the command latency (see {@link #setLink(int, int)}). If the tag does not
+ * accept the select command the session uses addressed mode. <br/>
+ * The session holds the communication stream from open to close, so that no
+ * other command changes the selected tag: it must be used by a single thread.
+ */
+public class TagSession implements AutoCloseable {
+
+	/** Chooses the mode from the number of planned commands */
+	public static final int MODE_AUTO = 0;
+	/** Always sends addressed commands */
+	public static final int MODE_ADDRESSED = 1;
+	/** Always selects the tag */
+	public static final int MODE_SELECTED = 2;
+
+	/** Serial number bytes saved by each command in selected mode */
+	private static final int UID_BYTES = 8;
+	/** Bytes sent and received by select and reset to ready (frames included) */
+	private static final int SELECT_BYTES = 15 + 7;
+	private static final int RESET_BYTES = 7 + 7;
+
+	private final ISO15693Reader reader;
+	private int mode = MODE_AUTO;
+	private int baudRate = 115200;
+	private int latencyMicros = 3000;
+
+	private byte[] uid;
+	private boolean selected = false;
+	private CommandArbiter arbiter;
+
+	public TagSession(ISO15693Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Sets MODE_AUTO (the default), MODE_ADDRESSED or MODE_SELECTED.
+	 */
+	public void setMode(int mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Describes the link for the automatic choice.
+	 *
+	 * @param baudRate Baud rate of the communication stream (default 115200).
+	 * @param latencyMicros Time of a command besides the transmission of its
+	 * bytes: reader and tag processing (default 3000 us).
+	 */
+	public void setLink(int baudRate, int latencyMicros) {
+		this.baudRate = baudRate;
+		this.latencyMicros = latencyMicros;
+	}
+
+	/**
+	 * Tells if selected mode pays off for a number of commands: it saves
+	 * 8 bytes per command and costs two more commands.
+	 */
+	public boolean isSelectedModeConvenient(int plannedCommands) {
+		double byteMicros = 10 * 1e6 / baudRate; // start + 8 bit + stop
+		double saved = plannedCommands * UID_BYTES * byteMicros;
+		double cost = (SELECT_BYTES + RESET_BYTES) * byteMicros + 2 * latencyMicros;
+		return saved > cost;
+	}
+
+	/**
+	 * Starts a session with a transponder.
+	 *
+	 * @param uid Serial number of the transponder.
+	 * @param plannedCommands Number of commands the session will send, used in
+	 * automatic mode.
+	 * @throws RFReaderException If the stream is not available.
+	 */
+	public void open(byte[] uid, int plannedCommands) throws RFReaderException {
+		if (this.uid != null)
+			close();
+		arbiter = CommandArbiter.forStream(reader.getStream());
+		arbiter.acquire();
+		this.uid = uid;
+		selected = false;
+		if (mode == MODE_SELECTED || (mode == MODE_AUTO && isSelectedModeConvenient(plannedCommands))) {
+			try {
+				reader.select(uid);
+				selected = true;
+			} catch (RFReaderException e) {
+				// il tag non supporta select: si usa il modo indirizzato
+			}
+		}
+	}
+
+	/**
+	 * Tells if the commands of the session are sent in selected mode.
+	 */
+	public boolean isSelected() {
+		return selected;
+	}
+
+	public byte[] getUid() {
+		return uid;
+	}
+
+	public byte[] read(int start, int n) throws RFReaderException {
+		check();
+		return selected ? reader.read(start, n, true) : reader.read(uid, start, n);
+	}
+
+	/**
+	 * Reads blocks into a caller supplied array.
+	 *
+	 * @return Number of bytes written in dest.
+	 */
+	public int read(int start, int n, byte[] dest, int destOffset) throws RFReaderException {
+		check();
+		return selected ? reader.read(start, n, true, dest, destOffset) : reader.read(uid, start, n, dest, destOffset);
+	}
+
+	public void write(byte[] data, int start, int n) throws RFReaderException {
+		check();
+		if (selected)
+			reader.write(data, start, n, true);
+		else
+			reader.write(uid, data, start, n);
+	}
+
+	public void lockBlock(int blockAddr) throws RFReaderException {
+		check();
+		if (selected)
+			reader.lockBlock(blockAddr, true);
+		else
+			reader.lockBlock(uid, blockAddr);
+	}
+
+	public void lockMultipleBlocks(int start, int nBlocks) throws RFReaderException {
+		check();
+		if (selected)
+			reader.lockMultipleBlocks(start, nBlocks, true);
+		else
+			reader.lockMultipleBlocks(uid, start, nBlocks);
+	}
+
+	public byte[] getBlockSecurityStatus(int start, int nBlocks) throws RFReaderException {
+		check();
+		return selected ? reader.getBlockSecurityStatus(start, nBlocks, true)
+				: reader.getBlockSecurityStatus(uid, start, nBlocks);
+	}
+
+	public ISO15693SysInfo getSystemInformation() throws RFReaderException {
+		check();
+		return selected ? reader.getSystemInformation(true) : reader.getSystemInformation(uid);
+	}
+
+	public ISO15693SysInfoView getSystemInformation(ISO15693SysInfoView view) throws RFReaderException {
+		check();
+		return selected ? reader.getSystemInformation(true, view) : reader.getSystemInformation(uid, view);
+	}
+
+	public void writeAFI(byte afi) throws RFReaderException {
+		check();
+		if (selected)
+			reader.writeAFI(afi, true);
+		else
+			reader.writeAFI(uid, afi);
+	}
+
+	public void writeDSFID(byte dsfid) throws RFReaderException {
+		check();
+		if (selected)
+			reader.writeDSFID(dsfid, true);
+		else
+			reader.writeDSFID(uid, dsfid);
+	}
+
+	private void check() {
+		if (uid == null)
+			throw new IllegalStateException("Session not open");
+	}
+
+	/**
+	 * Ends the session: a selected tag is reset to the ready state, then the
+	 * stream is released.
+	 *
+	 * @throws RFReaderException If the tag could not be reset (for example
+	 * because it left the field); the session is closed anyway.
+	 */
+	public void close() throws RFReaderException {
+		if (uid == null)
+			return;
+		try {
+			if (selected)
+				reader.resetToReady(true);
+		} finally {
+			uid = null;
+			selected = false;
+			arbiter.release();
+		}
+	}
+}
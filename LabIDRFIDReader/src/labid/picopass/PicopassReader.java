@@ -57,8 +57,7 @@ public class PicopassReader extends LabIdReader
 
 		try
 		{
-			send(cmd);
-			receive();
+			transceive(cmd);
 		}
 		catch (java.io.IOException e)
 		{
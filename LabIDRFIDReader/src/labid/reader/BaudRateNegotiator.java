@@ -0,0 +1,373 @@
+package labid.reader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import labid.comm.BaudRateControl;
+import labid.comm.ByteUtils;
+
+/**
+ * Finds the baud rate of a reader and moves it to the fastest rate the link
+ * sustains. The speed of the reader is set by its configuration register 5
+ * (see {@link ReaderConfiguration#Baudrate}), from 9600 to 115200 baud, and a
+ * new value is effective only after a reboot of the reader; so the negotiation
+ * spans two connections:
+ * <pre>
+ * BaudRateNegotiator n = new BaudRateNegotiator(reader, new File("labid-baud.properties"));
+ * n.connect();          // finds the speed of the reader, checks a pending change
+ * if (n.upgrade())      // programs a faster speed
+ *     System.out.println("Restart the reader to use " + n.getPendingBaudRate() + " baud");
+ * </pre>
+ * connect tries the speeds recorded for the readers met before, fastest
+ * first, then the standard ones; at the speed which answers it checks the link
+ * with a burst of software version commands. If replies are lost or corrupted
+ * (CRC or framing errors, on either side), the speed is recorded as too fast
+ * for the reader and the register is set back to the previous speed. <br/>
+ * Results are recorded per reader UID in a properties file, so that the next
+ * startup finds each reader at the first attempt.
+ */
+public class BaudRateNegotiator {
+
+	/** Speeds accepted by the reader, fastest first */
+	public static final int[] BAUD_RATES = { 115200, 57600, 38400, 19200, 9600 };
+
+	/** Configuration register of the baud rate */
+	private static final int BAUD_REGISTER = 5;
+	/** tentativi di scrittura del registro, anche su un collegamento instabile */
+	private static final int PROGRAM_ATTEMPTS = 3;
+	/** silenzio che chiude lo svuotamento della linea */
+	private static final long DISCARD_NANOS = 5000000L;
+
+	private final LabIdReader reader;
+	private final BaudRateControl line;
+	private final File file;
+	private final Properties settings = new Properties();
+
+	private int maxBaudRate = 115200;
+	private int probeTimeout = 200;
+	private int verifyCommands = 20;
+	private int maxErrors = 0;
+
+	private String uid;
+	private int baudRate;
+	private int errors;
+
+	/**
+	 * @param reader A reader whose stream can change its speed (see {@link BaudRateControl}).
+	 * @param file The file where the speeds of the readers are recorded, or null.
+	 * @throws RFReaderException If the file exists but cannot be read.
+	 */
+	public BaudRateNegotiator(LabIdReader reader, File file) throws RFReaderException {
+		if (!(reader.getStream() instanceof BaudRateControl))
+			throw new IllegalArgumentException("The stream cannot change its baud rate");
+		this.reader = reader;
+		this.line = (BaudRateControl) reader.getStream();
+		this.file = file;
+		if (file != null && file.exists()) {
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					settings.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				throw new RFReaderException("Could not read " + file);
+			}
+		}
+	}
+
+	/**
+	 * Limits the speeds used by {@link #upgrade()} (default 115200).
+	 */
+	public void setMaxBaudRate(int baudrate) {
+		this.maxBaudRate = baudrate;
+	}
+
+	/**
+	 * Sets how long each speed is tried by connect (default 200 ms).
+	 */
+	public void setProbeTimeout(int millis) {
+		this.probeTimeout = millis;
+	}
+
+	/**
+	 * Sets the number of commands which check the link (default 20) and how
+	 * many of them may fail (default 0).
+	 */
+	public void setVerification(int commands, int maxErrors) {
+		this.verifyCommands = commands;
+		this.maxErrors = maxErrors;
+	}
+
+	/**
+	 * Finds the speed of the reader, sets the line to it and checks the link.
+	 * If a faster speed had been programmed and the link does not sustain it,
+	 * the register is set back to the previous speed (see {@link #isRebootRequired()}).
+	 *
+	 * @return The speed in use.
+	 * @throws RFReaderException If the reader does not answer at any speed; the
+	 * line is set back to its original speed.
+	 */
+	public int connect() throws RFReaderException {
+		int original = line.getBaudRate();
+		int timeout = reader.getTimeout();
+		reader.setTimeout(probeTimeout);
+		baudRate = 0;
+		try {
+			for (int rate : candidates(original)) {
+				if (setLine(rate) && ping()) {
+					baudRate = rate;
+					break;
+				}
+			}
+		} finally {
+			reader.setTimeout(timeout);
+		}
+		if (baudRate == 0) {
+			setLine(original);
+			throw new RFReaderException("The reader does not answer at any baud rate");
+		}
+
+		uid = ByteUtils.toHexString(reader.getReaderUID());
+		if (verify()) {
+			put("baud", baudRate);
+			if (get("pending") == baudRate) {
+				// la nuova velocita' e' confermata
+				remove("pending");
+				remove("previous");
+			}
+			save();
+			return baudRate;
+		}
+
+		// collegamento instabile: si torna alla velocita' precedente
+		put("limit", baudRate);
+		int previous = get("previous");
+		if (previous == 0 || previous >= baudRate)
+			previous = slower(baudRate);
+		remove("previous");
+		remove("pending");
+		try {
+			if (previous > 0) {
+				program(previous);
+				put("pending", previous);
+			}
+		} finally {
+			save();
+		}
+		return baudRate;
+	}
+
+	/**
+	 * Programs the reader for the fastest speed not above the maximum and not
+	 * known to fail with this reader. The change is effective after a reboot of
+	 * the reader; the next connect checks it.
+	 *
+	 * @return True if a new speed has been programmed.
+	 * @throws RFReaderException If the reader could not be configured.
+	 */
+	public boolean upgrade() throws RFReaderException {
+		if (uid == null)
+			throw new IllegalStateException("Not connected");
+		int limit = get("limit");
+		int target = 0;
+		for (int rate : BAUD_RATES) {
+			if (rate <= maxBaudRate && (limit == 0 || rate < limit)) {
+				target = rate;
+				break;
+			}
+		}
+		if (target <= baudRate || target == get("pending"))
+			return false;
+		program(target);
+		put("pending", target);
+		put("previous", baudRate);
+		save();
+		return true;
+	}
+
+	/**
+	 * Tells if the reader has been programmed for a speed which is not in use
+	 * yet: the reader must be restarted.
+	 */
+	public boolean isRebootRequired() {
+		int pending = get("pending");
+		return pending != 0 && pending != baudRate;
+	}
+
+	/**
+	 * The speed programmed in the reader and effective after a reboot, 0 if none.
+	 */
+	public int getPendingBaudRate() {
+		return isRebootRequired() ? get("pending") : 0;
+	}
+
+	/**
+	 * The speed in use after connect.
+	 */
+	public int getBaudRate() {
+		return baudRate;
+	}
+
+	/**
+	 * UID of the reader, as a hex string.
+	 */
+	public String getReaderUid() {
+		return uid;
+	}
+
+	/**
+	 * Number of failed commands in the last check of the link.
+	 */
+	public int getErrorCount() {
+		return errors;
+	}
+
+	/**
+	 * Speeds to try, each once: those recorded for the known readers (in use or
+	 * programmed), fastest first, then the current one, then the standard ones.
+	 */
+	private int[] candidates(int current) {
+		int[] list = new int[BAUD_RATES.length + 1];
+		int n = 0;
+		for (int rate : BAUD_RATES) {
+			String value = Integer.toString(rate);
+			for (String key : settings.stringPropertyNames()) {
+				if ((key.endsWith(".baud") || key.endsWith(".pending")) && value.equals(settings.getProperty(key))) {
+					list[n++] = rate;
+					break;
+				}
+			}
+		}
+		if (!contains(list, n, current))
+			list[n++] = current;
+		for (int rate : BAUD_RATES) {
+			if (!contains(list, n, rate))
+				list[n++] = rate;
+		}
+		int[] result = new int[n];
+		System.arraycopy(list, 0, result, 0, n);
+		return result;
+	}
+
+	private static boolean contains(int[] a, int n, int value) {
+		for (int i = 0; i < n; i++) {
+			if (a[i] == value)
+				return true;
+		}
+		return false;
+	}
+
+	private static int slower(int rate) {
+		for (int r : BAUD_RATES) {
+			if (r < rate)
+				return r;
+		}
+		return 0;
+	}
+
+	private boolean setLine(int rate) {
+		if (rate <= 0)
+			return false;
+		try {
+			if (line.getBaudRate() != rate)
+				line.setBaudRate(rate);
+		} catch (IOException e) {
+			return false;
+		}
+		// i tempi misurati valevano per la velocita' precedente
+		CommandArbiter arbiter = CommandArbiter.forStream(reader.getStream());
+		RttEstimator rtt = arbiter.getRttEstimator();
+		rtt.setBaudRate(rate);
+		rtt.reset();
+		// scarta le risposte tardive ricevute alla velocita' precedente
+		arbiter.discardInput(DISCARD_NANOS);
+		return true;
+	}
+
+	private boolean ping() {
+		try {
+			reader.getSoftwareVersion();
+			return true;
+		} catch (RFReaderException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Sends the software version command several times: lost replies, error
+	 * replies (the reader received a corrupted frame) and bytes discarded by
+	 * the frame decoder (the host received a corrupted frame) count as errors.
+	 */
+	private boolean verify() {
+		CommandArbiter arbiter = CommandArbiter.forStream(reader.getStream());
+		long discarded = arbiter.getDecoder().getDiscardedBytes();
+		errors = 0;
+		byte[] expected = null;
+		for (int i = 0; i < verifyCommands; i++) {
+			try {
+				byte[] version = reader.getSoftwareVersion();
+				if (expected == null)
+					expected = version;
+				else if (!ByteUtils.areEqual(expected, version))
+					errors++;
+			} catch (RFReaderException e) {
+				errors++;
+			}
+		}
+		if (arbiter.getDecoder().getDiscardedBytes() != discarded && errors == 0)
+			errors++;
+		return errors <= maxErrors;
+	}
+
+	private void program(int rate) throws RFReaderException {
+		// registro in EEPROM: effettivo al riavvio del lettore
+		for (int i = 1; ; i++) {
+			try {
+				reader.setReaderConfiguration((byte) 0, BAUD_REGISTER, (byte) (rate / 1000));
+				return;
+			} catch (RFReaderException e) {
+				if (i >= PROGRAM_ATTEMPTS)
+					throw e;
+			}
+		}
+	}
+
+	private int get(String key) {
+		String value = settings.getProperty(uid + "." + key);
+		try {
+			return (value != null) ? Integer.parseInt(value.trim()) : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private void put(String key, int value) {
+		settings.setProperty(uid + "." + key, Integer.toString(value));
+	}
+
+	private void remove(String key) {
+		settings.remove(uid + "." + key);
+	}
+
+	private void save() throws RFReaderException {
+		if (file == null)
+			return;
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				settings.store(out, "LAB ID reader baud rates");
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new RFReaderException("Could not write " + file);
+		}
+	}
+}
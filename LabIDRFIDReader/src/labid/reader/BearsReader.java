@@ -6,7 +6,12 @@
 
 package labid.reader;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 import labid.comm.CableStream;
+import labid.comm.ReconnectingStream;
 import labid.comm.SerialStream;
 import labid.iso14443.ST_ISO14443B_Reader;
 import labid.iso14443.mifare.MifareReader;
@@ -17,7 +22,10 @@ import labid.iso15693.ISO15693Reader;
  * and a {@link labid.iso14443.iso14443.ISO14443Reader } object and cares about
  * automatic serial port connection and notification of incoming
  * transponders events. This class requires firmware version of RFID reader
- * 2.3 or greater.
+ * 2.3 or greater. <br/>
+ * Events are received by the {@link TagEventDispatcher} of the stream and
+ * passed to the listeners by a thread of this object, so listeners can send
+ * commands to the reader: the dispatcher hands the stream over to them.
  */
 public class BearsReader implements RFIDTagDetectedListener {
 	
@@ -27,7 +35,14 @@ public class BearsReader implements RFIDTagDetectedListener {
 	private boolean connected = false;
 	private int eventsNotified = RF_ISOProtocol.None;
 	private boolean useBeep = true;
-	private RFIDTagDetectedListener evListener;
+	private boolean autoReconnect = false;
+	private RFIDTagDetectedListener[] evListeners = new RFIDTagDetectedListener[0];
+	private TagEventDispatcher dispatcher;
+	private TagEventDispatcher.Subscription subscription;
+	private ExecutorService listenerExecutor;
+	
+	/** attesa massima della fine del thread di ricezione eventi (ms) */
+	private static final int STOP_TIMEOUT = 1000;
 	
 	/**
 	 * Creates a new instance of BearsReader. You should call a
@@ -96,12 +111,15 @@ public class BearsReader implements RFIDTagDetectedListener {
 			
 			testStream = new SerialStream();
 			testStream.Open(comPort, baud);
-			LabIdReader r = new LabIdReader(testStream);
+			CableStream stream = testStream;
+			if (autoReconnect)
+				stream = new ReconnectingStream(testStream, ReconnectingStream.serialPort(comPort, baud));
+			LabIdReader r = new LabIdReader(stream);
 			
 			try {
 				byte[] version = r.getSoftwareVersion();
 				System.out.printf("Reader Version %d.%d Date %d-%d-%d ", version[0],version[1],version[4],version[3],version[2]);
-				this.createReaders(testStream);
+				this.createReaders(stream);
 				return;
 			} catch (Exception ex) {
 				throw new RFReaderException("Reader not found on COM" + comPort);
@@ -122,70 +140,26 @@ public class BearsReader implements RFIDTagDetectedListener {
 	
 	/**
 	 * Automatically detects and opens the serial port where the RFID
-	 * reader is connected to.
-	 * @throws RFReaderException If the connection test failed.
-	 * @throws java.io.IOException If unable to find a connection.
+	 * reader is connected to. All ports are probed at the same time (see
+	 * {@link ReaderDiscovery}); if more readers are found, the first port is used.
+	 * @throws RFReaderException If no reader answers on any port.
+	 * @throws java.io.IOException If unable to open the reader port.
 	 */
-	/*public void Connect() throws RFReaderException, java.io.IOException {
+	public void Connect() throws RFReaderException, java.io.IOException {
 		if (!connected) {
-			SerialStream testStream;
-			int[] baudrates = { 115200, 9600, 19200, 38400, 57600 };
-			
-			SerialPortSettings sps = new SerialPortSettings();
-			
-			sps.setFlowControl(SerialStream.FLOWCONTROL_NONE);
-			sps.setParity(SerialStream.PARITY_NONE);
-			sps.setStopBits(SerialStream.STOPBITS_1);
-			sps.setTimeout(100);
-			
-			for (int iBaud = 0; iBaud<baudrates.length; iBaud++)
-			{
-				sps.setBaudRate(baudrates[iBaud]);
-
-				int i;
-
-				if (System.getProperty("os.name").toUpperCase().startsWith("WIN"))
-				{
-					i = 1;
-				}
-				else
-				{
-					i = 0;
-				}
-
-				for (; i<40; i++) {
-					sps.setPortNumber(i);
-					
-					try {
-						testStream = SerialStream.getInstance(sps);
-					} catch (Exception ex) {
-						continue;
-					}
-
-					LabIdReader r = new LabIdReader(testStream);
-					r.setRetry(1);
-					try {
-						r.getSoftwareVersion();
-						this.createReaders(testStream);
-						return;
-					} catch (Exception ex) {
-						try {
-							testStream.Close();
-						} catch (Exception exc) {}
-					}
-				}
-				
-				// wait for rfid reader to reboot after a bad baudrate communication
-				try {
-					Thread.sleep(10);
-				}
-				catch (Exception e) {}
-						
-			}
-			throw new RFReaderException();
+			ReaderDiscovery discovery = new ReaderDiscovery(null);
+			discovery.setExpectedReaders(1);
+			java.util.List<DiscoveredReader> found = discovery.discover();
+			if (found.isEmpty())
+				throw new RFReaderException("Reader not found on any serial port");
+			DiscoveredReader r = found.get(0);
+			if (autoReconnect)
+				this.createReaders(new ReconnectingStream(r.stream, ReconnectingStream.serialPort(r.port, r.baudRate)));
+			else
+				this.createReaders(r.stream);
 		}
 	}
-	*/
+	
 	/**
 	 * Opens the communication through a CableStream object. This method sends 
 	 * automatically a test command to the RFID reader. 
@@ -219,9 +193,9 @@ public class BearsReader implements RFIDTagDetectedListener {
 		this.eventsNotified = ISOProtocol;
 		if (connected) {
 			if (ISOProtocol == RF_ISOProtocol.None)
-				icReader.stopTagEventNotification();
+				stopEvents();
 			else {
-				icReader.getNextTagEvent(ISOProtocol, this.useBeep);
+				dispatcher.start(ISOProtocol, this.useBeep);
 			}
 		}
 	}
@@ -240,17 +214,57 @@ public class BearsReader implements RFIDTagDetectedListener {
 		mfReader = new MifareReader(stream);
 		stReader = new ST_ISO14443B_Reader(stream);
 		connected = true;
-		icReader.addTagEventListener(this); //onRFIDTagDetected += new RFIDTagEventHandler(icReader_onRFIDTagDetected);
+		// i delegati girano su un thread proprio: il ricevitore riarma il lettore senza aspettarli
+		listenerExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LabID tag listeners");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		dispatcher = CommandArbiter.forStream(stream).getTagEventDispatcher();
+		subscription = dispatcher.subscribe(this, listenerExecutor, TagEventDispatcher.POLICY_DROP);
 		this.setTagType(this.eventsNotified);
 	}
 	
+	/**
+	 * Stops the event notification and waits for the receiver thread.
+	 */
+	private void stopEvents() throws java.io.IOException {
+		try {
+			dispatcher.stop(STOP_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new java.io.InterruptedIOException("Interrupted while stopping the tag events");
+		}
+	}
+	
 	/**
 	 * Registers an object as listener for incoming transponder event.
-	 * Only one event handler is notified.
+	 * All registered listeners are notified, in registration order.
 	 * @param listener The listener object.
 	 */
-	public void addTagEventListener(RFIDTagDetectedListener listener) {
-		this.evListener = listener; //stupid implementation: only one event handler is notified
+	public synchronized void addTagEventListener(RFIDTagDetectedListener listener) {
+		RFIDTagDetectedListener[] temp = new RFIDTagDetectedListener[evListeners.length + 1];
+		System.arraycopy(evListeners, 0, temp, 0, evListeners.length);
+		temp[evListeners.length] = listener;
+		this.evListeners = temp;
+	}
+	
+	/**
+	 * Unregisters a listener for incoming transponder event.
+	 * @param listener The listener object.
+	 */
+	public synchronized void removeTagEventListener(RFIDTagDetectedListener listener) {
+		for (int i = 0; i < evListeners.length; i++) {
+			if (evListeners[i] == listener) {
+				RFIDTagDetectedListener[] temp = new RFIDTagDetectedListener[evListeners.length - 1];
+				System.arraycopy(evListeners, 0, temp, 0, i);
+				System.arraycopy(evListeners, i + 1, temp, i, temp.length - i);
+				this.evListeners = temp;
+				return;
+			}
+		}
 	}
 	
 	/**
@@ -259,14 +273,12 @@ public class BearsReader implements RFIDTagDetectedListener {
 	 * @param args --
 	 */
 	public void TagDetected(int args) throws java.io.IOException {
-		if (this.evListener != null) {
+		//il dispatcher ha gia' riarmato il lettore e cede lo stream ai comandi dei delegati
+		for (RFIDTagDetectedListener l : this.evListeners) {
 			try {
-				//eseguo il delegato e riprendo la notifica eventi
-				this.evListener.TagDetected(args);
+				l.TagDetected(args);
 			} catch (Exception ex){} // LabIdReader dovrebbe intercettare l'eccezione?
 		}
-		
-		icReader.getNextTagEvent(this.eventsNotified, this.useBeep);
 	}
 	
 	/**
@@ -278,11 +290,32 @@ public class BearsReader implements RFIDTagDetectedListener {
 	public void dispose() throws java.io.IOException {
 		//fermo il thread di notifica dei tag
 		if (icReader != null) {
-			icReader.stopTagEventNotification();
+			subscription.cancel();
+			stopEvents();
+			listenerExecutor.shutdown();
 			icReader.close();
 		}
 	}
 	
+	/**
+	 * Specifies if the serial port opened by the next Connect is reopened
+	 * automatically when the reader is unplugged (see {@link ReconnectingStream}):
+	 * the reader objects and the event notification keep working after the
+	 * reconnection.
+	 * @param useIt Option value.
+	 */
+	public void setAutoReconnect(boolean useIt) {
+		this.autoReconnect = useIt;
+	}
+	
+	/**
+	 * Tells if the serial port is reopened automatically when the reader is unplugged.
+	 * @return Option value.
+	 */
+	public boolean getAutoReconnect() {
+		return this.autoReconnect;
+	}
+	
 	/**
 	 * Specifies if the RFID reader must produce a short sound
 	 * each time a transponder is detected.
@@ -302,7 +335,8 @@ public class BearsReader implements RFIDTagDetectedListener {
 	}
 	
 	/** 
-	 * Tests the current connection.
+	 * Tests the current connection. A connection which is being restored (see
+	 * {@link #setAutoReconnect(boolean)}) is not working, but stays open.
 	 * @return true if the connection is working
 	 */
 	public boolean testConnection() {
@@ -316,7 +350,9 @@ public class BearsReader implements RFIDTagDetectedListener {
 				return true;
 			}
 			catch (Exception e) {
-				this.connected = false;
+				CableStream stream = this.mfReader.getStream();
+				if (!(stream instanceof ReconnectingStream) || ((ReconnectingStream) stream).isClosed())
+					this.connected = false;
 				return false;
 			}
 		}
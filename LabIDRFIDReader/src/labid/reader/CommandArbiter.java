@@ -0,0 +1,298 @@
+package labid.reader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import labid.comm.CableStream;
+import labid.comm.DeadlineStream;
+import labid.comm.ReconnectingStream;
+import labid.comm.FrameDecoder;
+
+/**
+ * Serializes the request/response transactions sent through a communication
+ * stream. All {@link LabIdReader} objects built on the same {@link CableStream}
+ * (for example the ISO15693, Mifare and ST readers created by {@link BearsReader})
+ * share the same arbiter, so that several threads can use one physical reader
+ * without mixing their frames. <br/>
+ * Transactions are granted in arrival order (fair queue): when a transaction
+ * ends, the first waiting one takes the stream immediately. A transaction that
+ * is not granted before its deadline fails with a {@link RFReaderException}. <br/>
+ * The arbiter also owns the {@link FrameDecoder} of the stream, because bytes
+ * received for one reader object must not be lost by another one. <br/>
+ * Each reader object decodes replies in its own buffer: threads which work in
+ * parallel should use different reader objects built on the same stream. <br/>
+ * On a {@link ReconnectingStream} the arbiter restores the configuration
+ * registers written to the RAM of the reader on every new connection, because
+ * a reader which has been unplugged restarts with the EEPROM configuration. <br/>
+ * The arbiter of a stream is forgotten when the stream is closed by a reader
+ * object (see {@link LabIdReader#close()}) or when the stream is no longer
+ * referenced.
+ */
+public class CommandArbiter {
+
+	private static final Map<CableStream, CommandArbiter> arbiters = new WeakHashMap<CableStream, CommandArbiter>();
+
+	/** riferimento debole: la mappa degli arbitri non deve trattenere lo stream */
+	private final WeakReference<CableStream> stream;
+	private final ReentrantLock lock = new ReentrantLock(true);
+	private final Object writeLock = new Object();
+	private final FrameDecoder decoder = new FrameDecoder();
+	private final RttEstimator rtt = new RttEstimator();
+	private ExecutorService executor;
+	private TagEventDispatcher dispatcher;
+	/** frame sovrapposti (vedi CommandPipeline): 0 non verificato, 1 accettati, -1 rifiutati */
+	volatile int overlap = 0;
+	/** registri di configurazione scritti in RAM, da ripristinare dopo una riconnessione */
+	private final byte[] ramRegisters = new byte[16];
+	private int ramMask = 0;
+	private ReconnectingStream.Listener restorer;
+
+	/** attesa massima dello stream per ripristinare la configurazione (ms) */
+	private static final int RESTORE_TIMEOUT = 5000;
+	private static final long DISCARD_NANOS = 5000000L;
+
+	private CommandArbiter(CableStream stream) {
+		this.stream = new WeakReference<CableStream>(stream);
+		if (stream instanceof ReconnectingStream) {
+			restorer = new ReconnectingStream.Listener() {
+				public void reconnected(ReconnectingStream s) throws IOException {
+					restore();
+				}
+			};
+			((ReconnectingStream) stream).addListener(restorer);
+		}
+	}
+
+	/**
+	 * Gets the arbiter of a communication stream, creating it at the first request.
+	 *
+	 * @param stream The communication stream.
+	 * @return The arbiter shared by all readers which use the stream.
+	 */
+	public static CommandArbiter forStream(CableStream stream) {
+		if (stream == null)
+			throw new IllegalArgumentException("Communication stream not open");
+		synchronized (arbiters) {
+			CommandArbiter arbiter = arbiters.get(stream);
+			if (arbiter == null) {
+				arbiter = new CommandArbiter(stream);
+				arbiters.put(stream, arbiter);
+			}
+			return arbiter;
+		}
+	}
+
+	/**
+	 * Forgets the arbiter of a stream which has been closed.
+	 */
+	public static void remove(CableStream stream) {
+		CommandArbiter arbiter;
+		synchronized (arbiters) {
+			arbiter = arbiters.remove(stream);
+		}
+		if (arbiter != null)
+			arbiter.shutdown();
+	}
+
+	/**
+	 * The communication stream controlled by this arbiter, null if it is no
+	 * longer referenced.
+	 */
+	public CableStream getStream() {
+		return stream.get();
+	}
+
+	/**
+	 * The decoder which rebuilds frames received from the stream. It must be used
+	 * only by the thread which holds the stream (see {@link #acquire(long)}).
+	 */
+	public FrameDecoder getDecoder() {
+		return decoder;
+	}
+
+	/**
+	 * The estimator of the reply times of the reader, which sets the deadline
+	 * of each command.
+	 */
+	public RttEstimator getRttEstimator() {
+		return rtt;
+	}
+
+	/**
+	 * Throws away the bytes received and not decoded yet, for example replies
+	 * sent at a previous baud rate, waiting until the line has been quiet for
+	 * the given time (only on streams with deadlines, see {@link DeadlineStream}).
+	 */
+	void discardInput(long quietNanos) {
+		decoder.reset();
+		CableStream s = stream.get();
+		if (!(s instanceof DeadlineStream))
+			return;
+		DeadlineStream in = (DeadlineStream) s;
+		byte[] junk = new byte[64];
+		try {
+			while (in.Read(junk, 0, junk.length, System.nanoTime() + quietNanos) > 0)
+				;
+		} catch (IOException e) {
+			// il comando successivo segnalera' il problema
+		}
+	}
+
+	/**
+	 * Waits until the stream is available for a new transaction. The same thread
+	 * can acquire the stream more than once (for example to send several commands
+	 * back to back), then it must call {@link #release()} the same number of times.
+	 *
+	 * @param deadline Time limit, as a {@link System#nanoTime()} value.
+	 * @throws RFReaderException If the stream is not available before the deadline or
+	 * the thread is interrupted.
+	 */
+	public void acquire(long deadline) throws RFReaderException {
+		try {
+			if (!lock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+				throw new RFReaderException("Reader busy: timeout waiting for the communication stream");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RFReaderException("Interrupted while waiting for the communication stream");
+		}
+	}
+
+	/**
+	 * Waits with no time limit until the stream is available.
+	 *
+	 * @throws RFReaderException If the thread is interrupted.
+	 */
+	public void acquire() throws RFReaderException {
+		try {
+			lock.lockInterruptibly();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RFReaderException("Interrupted while waiting for the communication stream");
+		}
+	}
+
+	/**
+	 * Ends a transaction and hands the stream over to the next waiting one.
+	 */
+	public void release() {
+		lock.unlock();
+	}
+
+	/**
+	 * Tells if the current thread holds the stream.
+	 */
+	public boolean isHeldByCurrentThread() {
+		return lock.isHeldByCurrentThread();
+	}
+
+	/**
+	 * Number of transactions waiting for the stream (an estimate).
+	 */
+	public int getQueueLength() {
+		return lock.getQueueLength();
+	}
+
+	/**
+	 * The I/O thread of the stream: a single thread which runs the commands
+	 * submitted by asynchronous readers, in submission order. It is created at the
+	 * first request and stopped when the stream is closed.
+	 */
+	public synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "LabID I/O");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * The tag event dispatcher of the stream, created at the first request.
+	 */
+	public synchronized TagEventDispatcher getTagEventDispatcher() {
+		if (dispatcher == null)
+			dispatcher = new TagEventDispatcher(this);
+		return dispatcher;
+	}
+
+	/**
+	 * Records a configuration register written by a reader object: registers
+	 * written to RAM are restored after a reconnection, a write to EEPROM
+	 * replaces them.
+	 */
+	synchronized void configurationWritten(int register, byte value, boolean ram) {
+		if (register < 0 || register >= ramRegisters.length)
+			return;
+		if (ram) {
+			ramRegisters[register] = value;
+			ramMask |= 1 << register;
+		} else {
+			ramMask &= ~(1 << register);
+		}
+	}
+
+	/**
+	 * Prepares a new connection of a {@link ReconnectingStream}: discards the
+	 * bytes of the old one and writes again the RAM configuration.
+	 */
+	private void restore() throws IOException {
+		acquire(System.nanoTime() + RESTORE_TIMEOUT * 1000000L);
+		try {
+			discardInput(DISCARD_NANOS);
+			int mask;
+			byte[] values;
+			synchronized (this) {
+				mask = ramMask;
+				values = ramRegisters.clone();
+			}
+			LabIdReader r = new LabIdReader(getStream());
+			for (int i = 0; i < values.length; i++) {
+				if ((mask & (1 << i)) != 0)
+					r.setReaderConfiguration((byte) 1, i, values[i]);
+			}
+		} finally {
+			release();
+		}
+	}
+
+	private synchronized void shutdown() {
+		CableStream s = stream.get();
+		if (restorer != null && s != null)
+			((ReconnectingStream) s).removeListener(restorer);
+		if (executor != null)
+			executor.shutdown();
+		if (dispatcher != null) {
+			try {
+				dispatcher.stop(0);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Writes a frame to the stream. Writes are atomic, even if they come from a
+	 * thread which does not hold the stream (for example the command which stops
+	 * the tag event notification).
+	 */
+	public void write(byte[] data, int offset, int count) throws IOException {
+		CableStream s = stream.get();
+		if (s == null)
+			throw new EOFException("Communication stream closed");
+		synchronized (writeLock) {
+			s.Write(data, offset, count);
+		}
+	}
+}
@@ -0,0 +1,489 @@
+package labid.reader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * Sends commands without waiting for the reply of the previous one. Up to
+ * "depth" frames are on the line at the same time: while the reader executes a
+ * command, the next ones are already encoded and sent, and the replies are
+ * passed to a {@link ReplyHandler} as they arrive, in submission order. The
+ * reader answers in the order it receives the frames, so a reply belongs to
+ * the oldest unanswered command with its control and command bytes.
+ * <pre>
+ * CommandPipeline p = new CommandPipeline(reader, 4);
+ * for (int i = 0; i &lt; uids.length; i++)
+ *     reader.read(uids[i], 0, 8, p, handlers[i]);
+ * p.flush();
+ * </pre>
+ * The pipeline holds the communication stream from the first submitted command
+ * to {@link #flush()}, so commands of other threads don't interleave. Handlers
+ * run in the submitting thread, inside submit or flush: the time spent there
+ * overlaps with the commands still on the line. <br/>
+ * Equal commands (for example the reads of a memory) cannot be told apart by
+ * their replies: if one reply is lost, the following ones would be taken for
+ * the replies of the previous commands. The reply of a command is therefore
+ * passed to its handler only when no equal command is waiting for its reply;
+ * until then it is copied aside, and up to {@link #MAX_HELD} commands wait for
+ * their handlers. A long run of equal commands is thus sent in bursts, each
+ * one checked when its last reply arrives. <br/>
+ * Readers whose firmware does not accept a frame while it is executing another
+ * one answer with a framing error, or don't answer at all. The first time the
+ * pipeline overlaps frames it sends two different reader commands (reader UID
+ * and software version) back to back: if one of them is not answered or is
+ * rejected with a framing error, the pipelines of the stream switch to depth 1.
+ * Once the reader has accepted the probe, a lost reply or a framing error is
+ * taken for a transmission error: the replies still on the line are collected,
+ * the commands which were not answered, and those equal to a command which was
+ * not answered, are sent again one at a time and the pipeline goes on at its
+ * depth. <br/>
+ * The replies are decoded in the receive buffer of the reader object: the
+ * CommandResult passed to handlers is valid only during the call, and the
+ * reader object must not be used by other threads while the pipeline is busy.
+ */
+public class CommandPipeline {
+
+	/**
+	 * Receives the reply of a pipelined command.
+	 */
+	public interface ReplyHandler {
+		/**
+		 * @param result The outcome of the command; its data are valid only
+		 * during the call.
+		 * @throws RFReaderException To stop the pipeline: the exception is thrown
+		 * by the submit or flush call which received the reply.
+		 */
+		void replyReceived(CommandResult result) throws RFReaderException;
+	}
+
+	/**
+	 * Maximum number of commands whose reply has not been passed to the
+	 * handler yet: when it is reached, submit waits until the replies can be
+	 * checked.
+	 */
+	public static final int MAX_HELD = 16;
+
+	private static final byte[] PROBE_UID = { 0x00, 0x01 };
+	private static final byte[] PROBE_VERSION = { 0x00, 0x65 };
+
+	private static class Request {
+		final byte[] command;
+		final byte ctrl;
+		final byte cmd;
+		final byte[] frame;
+		final ReplyHandler handler;
+		long sentAt;
+		/** e' arrivata una risposta con il suo codice */
+		boolean answered;
+		/** copia della risposta, finche' non viene passata all'handler */
+		byte[] reply;
+
+		Request(byte[] command, byte[] frame, ReplyHandler handler) {
+			this.command = command;
+			this.ctrl = command[0];
+			this.cmd = command[1];
+			this.frame = frame;
+			this.handler = handler;
+		}
+
+		boolean sameCommand(Request r) {
+			return ctrl == r.ctrl && cmd == r.cmd;
+		}
+	}
+
+	private final LabIdReader reader;
+	private final CommandResult result = new CommandResult();
+	/** comandi in ordine di invio, fino alla chiamata del loro handler */
+	private final ArrayDeque<Request> outstanding = new ArrayDeque<Request>();
+	/** buffer per le copie delle risposte, riusati */
+	private final ArrayDeque<byte[]> buffers = new ArrayDeque<byte[]>();
+	/** comandi in attesa della risposta */
+	private int unanswered;
+	private int depth;
+	private CommandArbiter arbiter;
+	private long sent;
+	private long resent;
+	/** istante dell'ultima risposta ricevuta */
+	private long lastReply;
+	/** e' in corso la verifica dei frame sovrapposti */
+	private boolean probing;
+
+	/**
+	 * @param reader The reader object whose stream and receive buffer are used.
+	 * @param depth Maximum number of commands waiting for their reply.
+	 */
+	public CommandPipeline(LabIdReader reader, int depth) {
+		this.reader = reader;
+		setDepth(depth);
+	}
+
+	/**
+	 * Sets the maximum number of commands waiting for their reply; 1 means no
+	 * pipelining.
+	 */
+	public void setDepth(int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("Pipeline depth must be at least 1");
+		this.depth = depth;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * The depth actually used: 1 after the reader has rejected overlapping frames.
+	 */
+	public int getEffectiveDepth() {
+		return isOverlapRejected() ? 1 : depth;
+	}
+
+	/**
+	 * Tells if the reader rejected overlapping frames. The check is done once
+	 * for each communication stream and shared by all its pipelines.
+	 */
+	public boolean isOverlapRejected() {
+		return reader.arbiter().overlap < 0;
+	}
+
+	/**
+	 * Sends a command. If the pipeline is full, waits for the oldest replies
+	 * and passes them to their handlers first.
+	 *
+	 * @param command The command (control byte, command code and parameters).
+	 * @param handler Receives the reply, or null to ignore it.
+	 * @throws RFReaderException If the stream is not available, the communication
+	 * fails or a handler throws; the commands still on the line are discarded.
+	 */
+	public void submit(byte[] command, ReplyHandler handler) throws RFReaderException {
+		// il frame viene preparato prima di attendere la linea
+		Request r = new Request(command, reader.encode(command), handler);
+		if (arbiter == null) {
+			CommandArbiter a = reader.arbiter();
+			a.acquire(System.nanoTime() + reader.queueTimeoutMillis * 1000000L);
+			arbiter = a;
+		}
+		boolean ok = false;
+		try {
+			if (arbiter.overlap == 0 && depth > 1 && !outstanding.isEmpty()) {
+				while (!outstanding.isEmpty())
+					receiveNext();
+				probe();
+			}
+			while (unanswered >= getEffectiveDepth() || outstanding.size() >= MAX_HELD)
+				receiveNext();
+			write(r);
+			outstanding.add(r);
+			unanswered++;
+			sent++;
+			ok = true;
+		} finally {
+			if (!ok)
+				abort();
+		}
+	}
+
+	/**
+	 * Waits for the replies of all the submitted commands, then releases the stream.
+	 *
+	 * @throws RFReaderException If the communication fails or a handler throws.
+	 */
+	public void flush() throws RFReaderException {
+		if (arbiter == null)
+			return;
+		boolean ok = false;
+		try {
+			while (!outstanding.isEmpty())
+				receiveNext();
+			ok = true;
+		} finally {
+			if (ok)
+				releaseStream();
+			else
+				abort();
+		}
+	}
+
+	/**
+	 * Number of commands whose reply has not been passed to their handler yet.
+	 */
+	public int getPendingCount() {
+		return outstanding.size();
+	}
+
+	/**
+	 * Number of commands submitted.
+	 */
+	public long getSentCount() {
+		return sent;
+	}
+
+	/**
+	 * Number of commands sent again because their frame or their reply was
+	 * lost, or because an equal command lost its reply.
+	 */
+	public long getResentCount() {
+		return resent;
+	}
+
+	/**
+	 * Checks if the reader accepts overlapping frames; the replies are handled
+	 * as those of the other commands, so a reader which loses the second frame
+	 * makes the pipeline fall back to depth 1.
+	 */
+	private void probe() throws RFReaderException {
+		Request a = new Request(PROBE_UID, reader.encode(PROBE_UID), null);
+		Request b = new Request(PROBE_VERSION, reader.encode(PROBE_VERSION), null);
+		probing = true;
+		try {
+			write(a);
+			outstanding.add(a);
+			unanswered++;
+			write(b);
+			outstanding.add(b);
+			unanswered++;
+			while (!outstanding.isEmpty())
+				receiveNext();
+		} finally {
+			probing = false;
+		}
+		if (arbiter.overlap == 0)
+			arbiter.overlap = 1;
+	}
+
+	private void write(Request r) throws RFReaderException {
+		try {
+			r.sentAt = System.nanoTime();
+			if (unanswered == 0)
+				lastReply = r.sentAt;
+			arbiter.write(r.frame, 0, r.frame.length);
+		} catch (IOException e) {
+			throw new RFReaderException("Serial communication problem");
+		}
+	}
+
+	/**
+	 * Receives one frame, assigns it to its command and passes to the handlers
+	 * the replies which can no longer be mistaken.
+	 */
+	private void receiveNext() throws RFReaderException {
+		Request first = firstUnanswered();
+		try {
+			reader.receive(deadline(first));
+		} catch (EOFException e) {
+			throw new RFReaderException("Serial communication problem");
+		} catch (IOException e) {
+			// il reader puo' aver scartato un frame arrivato mentre eseguiva il precedente
+			if (depth > 1 && arbiter.overlap >= 0) {
+				resync();
+				return;
+			}
+			throw new RFReaderException("Serial communication problem");
+		}
+		lastReply = System.nanoTime();
+		byte[] f = reader.recv_buf;
+		if (f[4] == LabIdReader.ERR_FRAMING && depth > 1 && arbiter.overlap >= 0) {
+			resync();
+			return;
+		}
+		Request r = match(f);
+		if (r == null)
+			return; // frame non richiesto (es. evento), scartato
+		answered(r);
+		if (r != first) {
+			// la risposta di un comando precedente e' andata persa
+			hold(r);
+			resync();
+			return;
+		}
+		deliverReady(r);
+	}
+
+	/**
+	 * Deadline of the oldest command waiting for its reply: the reader starts
+	 * it when it has been received and the previous reply has been sent.
+	 */
+	private long deadline(Request r) {
+		long start = (lastReply - r.sentAt > 0) ? lastReply : r.sentAt;
+		return start + reader.replyTimeout(r.command, r.frame.length);
+	}
+
+	private Request firstUnanswered() {
+		for (Request r : outstanding) {
+			if (!r.answered)
+				return r;
+		}
+		return null;
+	}
+
+	/**
+	 * The oldest unanswered command with the control and command bytes of a reply.
+	 */
+	private Request match(byte[] f) {
+		for (Request r : outstanding) {
+			if (!r.answered && r.ctrl == f[2] && r.cmd == f[3])
+				return r;
+		}
+		return null;
+	}
+
+	private void answered(Request r) {
+		r.answered = true;
+		unanswered--;
+	}
+
+	/**
+	 * Tells if the reply assigned to a command is surely its own: no equal
+	 * command is still waiting, so no reply of an equal command has been lost.
+	 */
+	private boolean confirmed(Request r) {
+		for (Request o : outstanding) {
+			if (!o.answered && o.sameCommand(r))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Passes to the handlers, in submission order, the replies which are
+	 * confirmed; the reply just received, if it must wait, is copied aside.
+	 */
+	private void deliverReady(Request fresh) throws RFReaderException {
+		while (!outstanding.isEmpty()) {
+			Request r = outstanding.peek();
+			if (!r.answered || !confirmed(r))
+				break;
+			outstanding.poll();
+			deliver(r);
+		}
+		if (fresh.reply == null && outstanding.contains(fresh))
+			hold(fresh);
+	}
+
+	/**
+	 * Copies aside the reply in the receive buffer.
+	 */
+	private void hold(Request r) {
+		byte[] f = reader.recv_buf;
+		int len = (f[0] & 0xFF) | ((f[1] & 0x01) << 8);
+		r.reply = buffers.isEmpty() ? new byte[f.length] : buffers.pop();
+		System.arraycopy(f, 0, r.reply, 0, len);
+	}
+
+	private void release(Request r) {
+		if (r.reply != null) {
+			buffers.push(r.reply);
+			r.reply = null;
+		}
+		r.answered = false;
+	}
+
+	/**
+	 * Passes a reply to its handler: the copy set aside, or the receive buffer
+	 * if the reply has just arrived.
+	 */
+	private void deliver(Request r) throws RFReaderException {
+		try {
+			result.set((r.reply != null) ? r.reply : reader.recv_buf);
+			if (r.handler != null)
+				r.handler.replyReceived(result);
+		} finally {
+			release(r);
+		}
+	}
+
+	/**
+	 * Recovers from a lost frame: collects the replies still on the line, then
+	 * sends again, one at a time, the commands which were not answered and
+	 * those equal to them, whose replies may belong to another command. A
+	 * frame lost during the probe shows that the reader does not accept
+	 * overlapping frames: the stream switches to depth 1.
+	 */
+	private void resync() throws RFReaderException {
+		if (probing)
+			arbiter.overlap = -1;
+		while (unanswered > 0) {
+			try {
+				reader.receive();
+			} catch (EOFException e) {
+				throw new RFReaderException("Serial communication problem");
+			} catch (IOException e) {
+				break; // nessun'altra risposta in arrivo
+			}
+			if (reader.recv_buf[4] == LabIdReader.ERR_FRAMING)
+				continue;
+			Request r = match(reader.recv_buf);
+			if (r != null) {
+				answered(r);
+				hold(r);
+			}
+		}
+
+		// le risposte dei comandi uguali a uno senza risposta sono dubbie
+		for (Request r : outstanding) {
+			if (r.answered && !confirmed(r))
+				release(r);
+		}
+		// i comandi da ripetere non sono sulla linea
+		unanswered = 0;
+
+		while (!outstanding.isEmpty()) {
+			Request r = outstanding.peek();
+			if (!r.answered) {
+				write(r);
+				resent++;
+				do {
+					try {
+						reader.receive(deadline(r));
+					} catch (IOException e) {
+						throw new RFReaderException("Serial communication problem");
+					}
+					lastReply = System.nanoTime();
+				} while (reader.recv_buf[2] != r.ctrl || reader.recv_buf[3] != r.cmd);
+			}
+			outstanding.poll();
+			deliver(r);
+		}
+	}
+
+	/**
+	 * Discards the commands on the line, waiting for their replies so that they
+	 * are not taken for replies of later commands, and releases the stream.
+	 */
+	private void abort() {
+		if (arbiter == null)
+			return;
+		try {
+			while (unanswered > 0) {
+				try {
+					reader.receive();
+				} catch (IOException e) {
+					break;
+				}
+				Request r = match(reader.recv_buf);
+				if (r != null) {
+					// anche le risposte precedenti sono perse
+					for (Request o : outstanding) {
+						if (!o.answered)
+							answered(o);
+						if (o == r)
+							break;
+					}
+				}
+			}
+		} finally {
+			for (Request r : outstanding)
+				release(r);
+			outstanding.clear();
+			unanswered = 0;
+			releaseStream();
+		}
+	}
+
+	private void releaseStream() {
+		CommandArbiter a = arbiter;
+		arbiter = null;
+		a.release();
+	}
+}
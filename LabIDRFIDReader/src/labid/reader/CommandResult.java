@@ -0,0 +1,70 @@
+package labid.reader;
+
+/**
+ * Outcome of a command executed without exceptions for the error codes of the
+ * reader. Commands which accept a CommandResult fill it with the status code
+ * and the position of the reply data, and throw a {@link RFReaderException}
+ * only if the communication with the reader fails:
+ * <pre>
+ * CommandResult r = new CommandResult();
+ * while (running) {
+ *     if (reader.read(uid, 0, 4, r) == CommandResult.STATUS_OK)
+ *         process(r.data, r.offset, r.length);
+ * }
+ * </pre>
+ * The object can be reused for any number of commands. The data array is the
+ * receive buffer of the reader object: its content is valid until the next
+ * command sent through the same reader object.
+ */
+public class CommandResult {
+
+	/** The command has been executed */
+	public static final int STATUS_OK = 0x00;
+	/** No transponder answered */
+	public static final int STATUS_NO_TRANSPONDER = 0x01;
+	/** The transponder could not be written */
+	public static final int STATUS_WRITE_ERROR = 0x03;
+	/** Collision between transponders */
+	public static final int STATUS_COLLISION = 0x0B;
+
+	/** Status code returned by the reader */
+	public int status;
+	/** Buffer which contains the reply data */
+	public byte[] data;
+	/** Index of the first data byte in data */
+	public int offset;
+	/** Number of data bytes */
+	public int length;
+
+	/**
+	 * Tells if the command has been executed.
+	 */
+	public boolean isOk() {
+		return status == STATUS_OK;
+	}
+
+	/**
+	 * Describes a reply frame: the data follow the status byte and precede
+	 * the CRC.
+	 *
+	 * @return The status code.
+	 */
+	int set(byte[] frame) {
+		int frameLength = (frame[0] & 0xFF) | ((frame[1] & 0x01) << 8);
+		status = frame[4] & 0xFF;
+		data = frame;
+		offset = 5;
+		length = Math.max(frameLength - 7, 0);
+		return status;
+	}
+
+	/**
+	 * Skips the first n data bytes (for example the header of a reply).
+	 */
+	public void skip(int n) {
+		if (n > length)
+			n = length;
+		offset += n;
+		length -= n;
+	}
+}
@@ -0,0 +1,39 @@
+package labid.reader;
+
+import labid.comm.ByteUtils;
+import labid.comm.CableStream;
+
+/**
+ * A reader found by {@link ReaderDiscovery}: its stream is open at the speed
+ * of the reader and can be passed to the reader classes (ex.
+ * new ISO15693Reader(found.stream)).
+ */
+public class DiscoveredReader {
+
+	/** Name of the port (ex. "COM3" or "/dev/ttyUSB0") */
+	public final String port;
+	/** Baud rate of the reader */
+	public final int baudRate;
+	/** UID of the reader, as returned by {@link LabIdReader#getReaderUID()} */
+	public final byte[] uid;
+	/** The open stream */
+	public final CableStream stream;
+
+	public DiscoveredReader(String port, int baudRate, byte[] uid, CableStream stream) {
+		this.port = port;
+		this.baudRate = baudRate;
+		this.uid = uid;
+		this.stream = stream;
+	}
+
+	/**
+	 * UID of the reader, as a hex string.
+	 */
+	public String getUidString() {
+		return ByteUtils.toHexString(uid);
+	}
+
+	public String toString() {
+		return port + " " + baudRate + " " + getUidString();
+	}
+}
@@ -1,185 +1,239 @@
-package labid.reader;
-
-import java.io.*;
-
-import labid.comm.CableStream;
-import labid.comm.SerialStream;
-
-/**  is an abstract class which represents a RF reader
- * connected through serial or USB port.
- */
-public abstract class LocalRFReader {
-	/**  Size of serial number of an iso15693 transponder.
-	 * You should never change it.
-	 */
-	protected int uidSize = 8;
-	
-	/**
-	 * Number of bytes in each block of an iso15693 transponder memory.
-	 */
-	protected int blockSize = 4;
-	
-	/**
-	 * Gets how many bytes are supposed to be in each data block of transponders.
-	 */
-	public int getBlockSize() {
-		return this.blockSize;
-	}
-	
-	/**
-	 * Sets how many bytes are supposed to be in each data block of transponders.
-	 */
-	public void setBlockSize(int bytes) {
-		this.blockSize = bytes;
-	}
-	
-	/**  Sets serial communication timeout
-	 */
-	public int getTimeout() {
-		return this.timeoutMillis;
-	}
-	
-	public void	setTimeout(int value) {
-		this.timeoutMillis = value;
-	}
-	
-	/**  Sets the number of attempts for every serial communication
-	 */
-	public void setRetry(int value) {
-		nTentativi = value;
-	}
-	
-	public int getRetry() {
-		return this.nTentativi;
-	}
-	
-	/**  indica se � possibile eseguire una nuova operazione, segnala cio� la disponibilit�
-	 * della porta seriale
-	 */
-	protected  boolean available = true;
-	
-	/** The communication stream
-	 */
-	protected  CableStream sp;
-	
-	/**  il numero di tentativi di comunicazione con la porta seriale che vengono
-	 * effettuati prima di considerare l'operazione fallita
-	 */
-	protected  int nTentativi = 5;
-	/**  il tempo (in ms) che deve trascorrere prima di considerare fallita una
-	 * comunicazione con la porta seriale
-	 */
-	protected  int timeoutMillis = 1000;
-	
-	/**  Opens a serial connection with the RFID reader with its
-	 * default settings.
-	 */
-	
-	public abstract void openSerialPort(String portName) throws RFReaderException;
-	
-	/**
-	 * Closes the current serial connection.
-	 */
-	public  void closeSerialPort() throws IOException {
-		sp.Close();
-	}
-	
-	/**
-	 * Writes a sequence of bytes to the opened serial port and returns
-	 * the reader response. Use it with care and only if you know the
-	 * exact communication protocol of the connected device.
-	 *
-	 * @param cmd Bytes to send to serial port.
-	 * @return Bytes read from serial port.
-	 *
-	 */
-	public byte[] writeToSerialPort(byte[] cmd) throws RFReaderException {
-		while (available == false) {
-			try {
-				wait();
-			}
-			catch (Exception e) {
-			}
-		}
-		available = false;
-		
-		int tentativi;
-		int nLetti = 0;
-		int daLeggere = 0;
-		int rimasti;
-		byte[] letti = new byte[256];
-		byte[] reply;
-		
-		try {
-			sp.Write(cmd,0,cmd.length);
-			
-			//sp.enableReceiveThreshold(1); // attendo almeno 1 byte
-			nLetti = 0;
-			tentativi = nTentativi;
-			while ((nLetti == 0) && (tentativi-- > 0)) {
-				nLetti = sp.Read(letti, 0, letti.length);
-			}
-			
-			if (tentativi < 0)
-				throw new RFReaderException("No answer from reader");
-			else {
-				
-				daLeggere = letti[0] & 0xFF - nLetti;
-				rimasti = daLeggere;
-				
-				while ((rimasti > 0) && (tentativi-- > 0)) {
-					//sp.enableReceiveThreshold(rimasti);
-					nLetti += sp.Read(letti, nLetti, rimasti);
-					rimasti = daLeggere - nLetti;
-				}
-				
-				if (tentativi < 0)
-					throw new RFReaderException("No answer from reader");
-				else {
-					reply = letti;
-				}
-			}
-		}
-		catch (Exception e) {
-			throw new RFReaderException("No answer from reader: " + e.getMessage());
-		}
-		
-		available = true;
-		notifyAll();
-		return reply;
-	}
-	
-	/**
-	 * Opens a serial port with the specified parameters. Be sure to indicate
-	 * right settings for your current device.
-	 *
-	 * @param portName Name of the serial port (ex. "COM1")
-	 * @param BaudRate Communication baudrate.
-	 * @param flowControl Communication flow control.
-	 * @param parity Communication parity.
-	 *
-	 */
-	public void openSerialPort(String portName, int BaudRate) throws RFReaderException {
-		try {
-			sp = new SerialStream();
-			((SerialStream)sp).Open(portName, BaudRate);
-		}
-		catch (Exception e) {
-			throw new RFReaderException("Unable to open " + portName);
-		}
-	}
-	
-	/**
-	 * Sets an already open communication stream as the current stream of the reader.
-	 */
-	public void open(CableStream stream) throws RFReaderException {
-		sp = stream;
-	}
-	
-	/**
-	 * Closes the current communication stream.
-	 */
-	public void close() throws IOException {
-		sp.Close();
-	}
-}
+package labid.reader;
+
+import java.io.*;
+import java.util.Arrays;
+
+import labid.comm.CableStream;
+import labid.comm.DeadlineStream;
+import labid.comm.FrameDecoder;
+import labid.comm.SerialStream;
+
+/**  is an abstract class which represents a RF reader
+ * connected through serial or USB port.
+ */
+public abstract class LocalRFReader {
+	/**  Size of serial number of an iso15693 transponder.
+	 * You should never change it.
+	 */
+	protected int uidSize = 8;
+	
+	/**
+	 * Number of bytes in each block of an iso15693 transponder memory.
+	 */
+	protected int blockSize = 4;
+	
+	/**
+	 * Gets how many bytes are supposed to be in each data block of transponders.
+	 */
+	public int getBlockSize() {
+		return this.blockSize;
+	}
+	
+	/**
+	 * Sets how many bytes are supposed to be in each data block of transponders.
+	 */
+	public void setBlockSize(int bytes) {
+		this.blockSize = bytes;
+	}
+	
+	/**  Sets serial communication timeout: the longest wait for a reply, in ms.
+	 * Commands are given shorter deadlines as soon as the reply times of the
+	 * reader have been measured (see {@link RttEstimator}).
+	 */
+	public int getTimeout() {
+		return this.timeoutMillis;
+	}
+	
+	public void	setTimeout(int value) {
+		this.timeoutMillis = value;
+	}
+	
+	/**  Sets the number of attempts for every serial communication, on streams
+	 * which do not support deadlines (see {@link DeadlineStream})
+	 */
+	public void setRetry(int value) {
+		nTentativi = value;
+	}
+	
+	public int getRetry() {
+		return this.nTentativi;
+	}
+	
+	/**  Sets how long (in ms) a command can wait for the communication stream
+	 * while other threads are using the same reader
+	 */
+	public void setQueueTimeout(int value) {
+		this.queueTimeoutMillis = value;
+	}
+	
+	public int getQueueTimeout() {
+		return this.queueTimeoutMillis;
+	}
+	
+	/** The communication stream used by the reader
+	 */
+	public CableStream getStream() {
+		return this.sp;
+	}
+	
+	/**  indica se � possibile eseguire una nuova operazione, segnala cio� la disponibilit�
+	 * della porta seriale
+	 */
+	protected  boolean available = true;
+	
+	/** The communication stream
+	 */
+	protected  CableStream sp;
+	
+	/**  il numero di tentativi di comunicazione con la porta seriale che vengono
+	 * effettuati prima di considerare l'operazione fallita
+	 */
+	protected  int nTentativi = 5;
+	/**  il tempo (in ms) che deve trascorrere prima di considerare fallita una
+	 * comunicazione con la porta seriale
+	 */
+	protected  int timeoutMillis = 1000;
+	/**  il tempo massimo (in ms) di attesa dello stream, se e' occupato da
+	 * comandi inviati da altri thread
+	 */
+	protected  int queueTimeoutMillis = 10000;
+	
+	/**  Opens a serial connection with the RFID reader with its
+	 * default settings.
+	 */
+	
+	public abstract void openSerialPort(String portName) throws RFReaderException;
+	
+	/**
+	 * Closes the current serial connection.
+	 */
+	public  void closeSerialPort() throws IOException {
+		sp.Close();
+	}
+	
+	/**
+	 * Writes a sequence of bytes to the opened serial port and returns
+	 * the reader response. Use it with care and only if you know the
+	 * exact communication protocol of the connected device. <br/>
+	 * The reply is rebuilt by the frame decoder of the stream (see
+	 * {@link CommandArbiter#getDecoder()}), as the replies to the other
+	 * commands: bytes which do not belong to a valid frame are discarded.
+	 *
+	 * @param cmd Bytes to send to serial port (a whole frame, with length and CRC16).
+	 * @return The reply frame.
+	 *
+	 */
+	public byte[] writeToSerialPort(byte[] cmd) throws RFReaderException {
+		CommandArbiter arbiter = CommandArbiter.forStream(sp);
+		arbiter.acquire(System.nanoTime() + queueTimeoutMillis * 1000000L);
+		
+		FrameDecoder decoder = arbiter.getDecoder();
+		byte[] letti = new byte[FrameDecoder.MAX_FRAME_LENGTH + 1];
+		int lunghezza;
+		
+		try {
+			arbiter.write(cmd,0,cmd.length);
+			long scadenza = System.nanoTime() + timeoutMillis * 1000000L;
+			
+			// se lo stream rispetta la scadenza i tentativi non vengono contati
+			boolean conScadenza = sp instanceof DeadlineStream;
+			int tentativi = nTentativi;
+			long scartati = decoder.getDiscardedBytes();
+			
+			while ((lunghezza = decoder.poll(letti, 0)) == 0) {
+				int daLeggere = Math.min(decoder.needed(), decoder.writeSpace());
+				int nLetti = read(decoder.buffer(), decoder.writeOffset(), daLeggere, scadenza);
+				if (nLetti < 0)
+					throw new RFReaderException("Communication stream closed");
+				
+				if (nLetti > 0) {
+					decoder.commit(nLetti);
+					// la risposta sta arrivando: la scadenza copre i byte mancanti
+					long resto = System.nanoTime() + arbiter.getRttEstimator().getTransferTime(decoder.needed());
+					if (resto - scadenza > 0)
+						scadenza = resto;
+				}
+				else if (conScadenza ? System.nanoTime() - scadenza >= 0 : --tentativi <= 0) {
+					// un frame incompleto tratterrebbe anche la risposta successiva
+					decoder.reset();
+					throw new RFReaderException("No answer from reader");
+				}
+				
+				if (decoder.getDiscardedBytes() - scartati > letti.length)
+					throw new RFReaderException("Unable to synchronize with reader");
+			}
+		}
+		catch (RFReaderException e) {
+			throw e;
+		}
+		catch (IOException e) {
+			throw new RFReaderException("No answer from reader: " + e.getMessage());
+		}
+		finally {
+			arbiter.release();
+		}
+		
+		return Arrays.copyOf(letti, lunghezza);
+	}
+	
+	/**
+	 * Reads from the stream, waiting at most until the deadline if the stream
+	 * supports it.
+	 */
+	private int read(byte[] buffer, int offset, int count, long deadline) throws IOException {
+		if (sp instanceof DeadlineStream)
+			return ((DeadlineStream) sp).Read(buffer, offset, count, deadline);
+		return sp.Read(buffer, offset, count);
+	}
+	
+	/**
+	 * Opens a serial port with the specified parameters. Be sure to indicate
+	 * right settings for your current device.
+	 *
+	 * @param portName Name of the serial port (ex. "COM1")
+	 * @param BaudRate Communication baudrate.
+	 * @param flowControl Communication flow control.
+	 * @param parity Communication parity.
+	 *
+	 */
+	public void openSerialPort(String portName, int BaudRate) throws RFReaderException {
+		openSerialPort(portName, BaudRate, false);
+	}
+	
+	/**
+	 * Opens a serial port. In event driven mode received bytes are collected by a
+	 * port listener as soon as they arrive, and each read waits at most the
+	 * communication timeout (see {@link #setTimeout(int)}).
+	 *
+	 * @param portName Name of the serial port (ex. "COM1")
+	 * @param BaudRate Communication baudrate.
+	 * @param eventDriven True to receive bytes through port events.
+	 */
+	public void openSerialPort(String portName, int BaudRate, boolean eventDriven) throws RFReaderException {
+		try {
+			SerialStream stream = new SerialStream();
+			stream.Open(portName, BaudRate, eventDriven);
+			if (eventDriven)
+				stream.SetTimeout(timeoutMillis);
+			sp = stream;
+			CommandArbiter.forStream(stream).getRttEstimator().setBaudRate(BaudRate);
+		}
+		catch (Exception e) {
+			throw new RFReaderException("Unable to open " + portName);
+		}
+	}
+	
+	/**
+	 * Sets an already open communication stream as the current stream of the reader.
+	 */
+	public void open(CableStream stream) throws RFReaderException {
+		sp = stream;
+	}
+	
+	/**
+	 * Closes the current communication stream.
+	 */
+	public void close() throws IOException {
+		sp.Close();
+	}
+}
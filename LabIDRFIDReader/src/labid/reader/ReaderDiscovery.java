@@ -0,0 +1,387 @@
+package labid.reader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import jssc.SerialPortList;
+import labid.comm.BaudRateControl;
+import labid.comm.CableStream;
+import labid.comm.SerialStream;
+
+/**
+ * Finds the readers connected to the serial (or USB emulated) ports of the
+ * host. All ports are probed at the same time, each by its own thread, and on
+ * each port the baud rates are tried in order of likelihood: first the speed
+ * the port had at the last discovery, then the speeds most used by the other
+ * ports, then the standard ones (115200 first, the default of the reader).
+ * Every attempt is a single reader UID command with a short timeout. <br/>
+ * The port, speed and UID of each reader found are recorded in a properties
+ * file, so that a warm start finds every reader with one command:
+ * <pre>
+ * ReaderDiscovery discovery = new ReaderDiscovery(new File("labid-readers.properties"));
+ * for (DiscoveredReader r : discovery.discover())
+ *     new ISO15693Reader(r.stream) ...
+ * </pre>
+ * Ports without a reader are tried at all the speeds. A warm start does not
+ * wait for them: the discovery ends as soon as the ports where readers were
+ * recorded have answered, with the readers found on other ports in the
+ * meantime (if a recorded reader is missing, all the ports are waited for). If the number of readers is known, {@link #setExpectedReaders(int)}
+ * ends the discovery as soon as they have been found.
+ */
+public class ReaderDiscovery {
+
+	/** pausa dopo un tentativo fallito: il lettore si riprende da un frame alla velocita' sbagliata */
+	private static final int RECOVERY_MILLIS = 10;
+	/** silenzio che chiude lo svuotamento della linea */
+	private static final long DISCARD_NANOS = 5000000L;
+
+	private final File file;
+	private final Properties cache = new Properties();
+
+	private int[] baudRates = BaudRateNegotiator.BAUD_RATES;
+	private int probeTimeout = 200;
+	private int expectedReaders = 0;
+	private int maxThreads = 32;
+	/** risultati raccolti: i probe ancora in corso chiudono le loro porte */
+	private volatile boolean completed;
+
+	/**
+	 * @param file The file where the ports of the readers are recorded, or null.
+	 * @throws RFReaderException If the file exists but cannot be read.
+	 */
+	public ReaderDiscovery(File file) throws RFReaderException {
+		this.file = file;
+		if (file != null && file.exists()) {
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					cache.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				throw new RFReaderException("Could not read " + file);
+			}
+		}
+	}
+
+	/**
+	 * Sets the speeds to try, in order of preference (default
+	 * {@link BaudRateNegotiator#BAUD_RATES}).
+	 */
+	public void setBaudRates(int[] baudRates) {
+		this.baudRates = baudRates.clone();
+	}
+
+	/**
+	 * Sets how long each speed is tried on each port (default 200 ms).
+	 */
+	public void setProbeTimeout(int millis) {
+		this.probeTimeout = millis;
+	}
+
+	/**
+	 * Ends the discovery as soon as this number of readers has been found,
+	 * without waiting for the other probes (their ports are closed). 0 (the
+	 * default) waits for the ports where readers were recorded, or for all the
+	 * ports if none was recorded; a negative count probes all the ports.
+	 */
+	public void setExpectedReaders(int count) {
+		this.expectedReaders = count;
+	}
+
+	/**
+	 * Sets the maximum number of ports probed at the same time (default 32).
+	 */
+	public void setMaxThreads(int count) {
+		this.maxThreads = count;
+	}
+
+	/**
+	 * Probes all the serial ports of the host.
+	 *
+	 * @see #discover(String[])
+	 */
+	public List<DiscoveredReader> discover() throws RFReaderException {
+		return discover(SerialPortList.getPortNames());
+	}
+
+	/**
+	 * Probes the given ports at the same time.
+	 *
+	 * @param ports Names of the ports (ex. "COM3" or "/dev/ttyUSB0").
+	 * @return The readers found, in the order of the ports, with their streams
+	 * open; the caller must close them. The list is empty if no reader answers.
+	 * @throws RFReaderException If the thread is interrupted or the results
+	 * cannot be recorded.
+	 */
+	public List<DiscoveredReader> discover(String[] ports) throws RFReaderException {
+		List<DiscoveredReader> result = new ArrayList<DiscoveredReader>();
+		if (ports.length == 0)
+			return result;
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(ports.length, Math.max(maxThreads, 1)),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "LabID discovery");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		CompletionService<Probe> done = new ExecutorCompletionService<Probe>(executor);
+		completed = false;
+		for (String port : ports)
+			done.submit(new Probe(port, candidates(port)));
+
+		// porte con un lettore registrato: alla ripartenza non si attendono le altre
+		boolean[] recorded = new boolean[ports.length];
+		int pending = 0;
+		if (expectedReaders == 0) {
+			for (int i = 0; i < ports.length; i++) {
+				if (cache.getProperty(ports[i] + ".uid") != null) {
+					recorded[i] = true;
+					pending++;
+				}
+			}
+		}
+
+		Probe[] probes = new Probe[ports.length];
+		int found = 0;
+		try {
+			for (int i = 0; i < ports.length; i++) {
+				Future<Probe> f = done.take();
+				Probe p;
+				try {
+					p = f.get();
+				} catch (ExecutionException e) {
+					continue; // errore inatteso su una porta: le altre proseguono
+				}
+				int k = indexOf(ports, p.port);
+				probes[k] = p;
+				if (p.reader != null && ++found == expectedReaders)
+					break;
+				if (recorded[k]) {
+					// un lettore registrato che manca puo' essere su un'altra porta
+					if (p.reader == null)
+						Arrays.fill(recorded, false);
+					else if (--pending == 0)
+						break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RFReaderException("Interrupted while probing the serial ports");
+		} finally {
+			synchronized (this) {
+				completed = true;
+			}
+			executor.shutdown();
+		}
+
+		for (Probe p : probes) {
+			if (p == null)
+				continue;
+			if (p.reader != null) {
+				result.add(p.reader);
+				cache.setProperty(p.port + ".uid", p.reader.getUidString());
+				cache.setProperty(p.port + ".baud", Integer.toString(p.reader.baudRate));
+			} else if (p.searched) {
+				cache.remove(p.port + ".uid");
+				cache.remove(p.port + ".baud");
+			}
+		}
+		save();
+		return result;
+	}
+
+	/**
+	 * Opens a port at a speed. Subclasses can override it to use other kinds
+	 * of streams.
+	 *
+	 * @throws IOException If the port does not exist or is in use.
+	 */
+	protected CableStream openPort(String port, int baudrate) throws IOException {
+		SerialStream stream = new SerialStream();
+		stream.Open(port, baudrate);
+		return stream;
+	}
+
+	/**
+	 * The probe of a port, run by its own thread.
+	 */
+	private class Probe implements Callable<Probe> {
+		final String port;
+		final int[] rates;
+		DiscoveredReader reader;
+		/** tutte le velocita' provate senza risposta */
+		boolean searched;
+
+		Probe(String port, int[] rates) {
+			this.port = port;
+			this.rates = rates;
+		}
+
+		public Probe call() {
+			CableStream stream = null;
+			try {
+				for (int i = 0; i < rates.length; i++) {
+					if (completed)
+						return this;
+					try {
+						if (stream == null) {
+							stream = openPort(port, rates[i]);
+						} else if (stream instanceof BaudRateControl) {
+							((BaudRateControl) stream).setBaudRate(rates[i]);
+						} else {
+							close(stream);
+							stream = null;
+							stream = openPort(port, rates[i]);
+						}
+					} catch (IOException e) {
+						if (stream == null)
+							return this; // porta inesistente o occupata
+						continue;
+					}
+					byte[] uid = identify(stream, rates[i]);
+					if (uid != null) {
+						synchronized (ReaderDiscovery.this) {
+							// dopo la raccolta nessuno chiuderebbe lo stream
+							if (!completed) {
+								reader = new DiscoveredReader(port, rates[i], uid, stream);
+								stream = null;
+							}
+						}
+						return this;
+					}
+					try {
+						Thread.sleep(RECOVERY_MILLIS);
+					} catch (InterruptedException e) {
+						return this;
+					}
+				}
+				searched = true;
+				return this;
+			} finally {
+				if (stream != null)
+					close(stream);
+			}
+		}
+	}
+
+	/**
+	 * Sends the reader UID command at a speed.
+	 *
+	 * @return The UID, null if the reader does not answer.
+	 */
+	private byte[] identify(CableStream stream, int rate) {
+		CommandArbiter arbiter = CommandArbiter.forStream(stream);
+		RttEstimator rtt = arbiter.getRttEstimator();
+		rtt.setBaudRate(rate);
+		rtt.reset();
+		arbiter.discardInput(DISCARD_NANOS);
+		LabIdReader r = new LabIdReader(stream);
+		r.setTimeout(probeTimeout);
+		r.setRetry(1);
+		try {
+			return r.getReaderUID();
+		} catch (RFReaderException e) {
+			return null;
+		}
+	}
+
+	private static void close(CableStream stream) {
+		try {
+			new LabIdReader(stream).close();
+		} catch (IOException e) {
+			// la porta e' comunque abbandonata
+		}
+	}
+
+	/**
+	 * Speeds to try on a port: the one recorded for the port, then those
+	 * recorded for the other ports (most frequent first), then the others.
+	 */
+	private int[] candidates(String port) {
+		int[] votes = new int[baudRates.length];
+		for (String key : cache.stringPropertyNames()) {
+			if (key.endsWith(".baud")) {
+				int i = indexOf(baudRates, parse(cache.getProperty(key)));
+				if (i >= 0)
+					votes[i]++;
+			}
+		}
+		int own = indexOf(baudRates, parse(cache.getProperty(port + ".baud")));
+		if (own >= 0)
+			votes[own] = Integer.MAX_VALUE;
+
+		// ordinamento stabile per voti: a parita' vale l'ordine di baudRates
+		int[] order = baudRates.clone();
+		int[] v = votes.clone();
+		for (int i = 1; i < order.length; i++) {
+			for (int j = i; j > 0 && v[j] > v[j - 1]; j--) {
+				int t = v[j];
+				v[j] = v[j - 1];
+				v[j - 1] = t;
+				t = order[j];
+				order[j] = order[j - 1];
+				order[j - 1] = t;
+			}
+		}
+		return order;
+	}
+
+	private static int parse(String value) {
+		try {
+			return (value != null) ? Integer.parseInt(value.trim()) : 0;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static int indexOf(int[] a, int value) {
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] == value)
+				return i;
+		}
+		return -1;
+	}
+
+	private static int indexOf(String[] a, String value) {
+		for (int i = 0; i < a.length; i++) {
+			if (a[i].equals(value))
+				return i;
+		}
+		return -1;
+	}
+
+	private void save() throws RFReaderException {
+		if (file == null)
+			return;
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				cache.store(out, "LAB ID reader ports");
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new RFReaderException("Could not write " + file);
+		}
+	}
+}
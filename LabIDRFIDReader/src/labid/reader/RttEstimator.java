@@ -0,0 +1,181 @@
+package labid.reader;
+
+import java.util.HashMap;
+
+/**
+ * Estimates how long the reader takes to answer each type of command, to give
+ * every command a deadline close to the real reply time instead of a fixed
+ * timeout. As for the retransmission timeout of TCP, the estimate is the
+ * smoothed reply time plus four times its mean deviation; each timeout doubles
+ * the estimate of its command type until a reply is received again. <br/>
+ * Samples exclude the transmission of the frames at the baud rate of the line
+ * (see {@link #setBaudRate(int)}), so they measure the processing time of the
+ * reader and of the transponders, which does not depend on the frame length;
+ * the transmission time is added back to each deadline. The processing time
+ * of ISO15693 reads and writes grows with the number of blocks, which is part
+ * of their type: a long write is not given the deadline of short ones. <br/>
+ * One estimator is shared by all readers of a communication stream (see
+ * {@link CommandArbiter#getRttEstimator()}).
+ */
+public class RttEstimator {
+
+	private static final int MAX_BACKOFF = 6;
+
+	/**
+	 * Statistics of a command type, in ns.
+	 */
+	private static class Entry {
+		long srtt;
+		long rttvar;
+		int backoff;
+		long samples;
+	}
+
+	private final HashMap<Integer, Entry> entries = new HashMap<Integer, Entry>();
+	private long byteNanos = 0;
+	private long minTimeoutNanos = 20000000L;
+
+	/**
+	 * Sets the baud rate of the line, used to separate the transmission time
+	 * from the processing time (10 bits per byte). 0 (the default) means unknown:
+	 * the transmission time is then part of the estimate.
+	 */
+	public synchronized void setBaudRate(int baudrate) {
+		this.byteNanos = (baudrate > 0) ? 10000000000L / baudrate : 0;
+	}
+
+	/**
+	 * Sets the lowest processing time allowed to a command (default 20 ms), to
+	 * absorb the scheduling and USB latencies of the host.
+	 */
+	public synchronized void setMinTimeout(int millis) {
+		this.minTimeoutNanos = millis * 1000000L;
+	}
+
+	/**
+	 * Transmission time of a byte in ns, 0 if the baud rate is unknown.
+	 */
+	public synchronized long getByteTime() {
+		return byteNanos;
+	}
+
+	/**
+	 * Time allowed to receive the rest of a reply which is arriving.
+	 *
+	 * @param bytes Number of bytes still to receive.
+	 * @return Time in ns.
+	 */
+	public synchronized long getTransferTime(int bytes) {
+		return bytes * byteNanos + minTimeoutNanos;
+	}
+
+	/**
+	 * Time allowed to a command from the start of its transmission to the
+	 * first byte of the reply.
+	 *
+	 * @param command The command (control byte, command code and parameters).
+	 * @param frameLength Length of the frame sent.
+	 * @param maxNanos Upper limit, used also while no reply has been measured.
+	 * @return Time in ns.
+	 */
+	public synchronized long getTimeout(byte[] command, int frameLength, long maxNanos) {
+		Entry e = entries.get(key(command));
+		long t = maxNanos;
+		if (e != null && e.samples > 0) {
+			t = Math.max(e.srtt + 4 * e.rttvar, minTimeoutNanos) << e.backoff;
+			if (t > maxNanos || t < 0)
+				t = maxNanos;
+		}
+		return frameLength * byteNanos + t;
+	}
+
+	/**
+	 * Adds the reply time of a command.
+	 *
+	 * @param command The command (control byte, command code and parameters).
+	 * @param elapsedNanos Time from the start of the transmission to the end of the reply.
+	 * @param frameLength Length of the frame sent.
+	 * @param replyLength Length of the reply frame.
+	 */
+	public synchronized void sample(byte[] command, long elapsedNanos, int frameLength, int replyLength) {
+		long rtt = elapsedNanos - (frameLength + replyLength) * byteNanos;
+		if (rtt < 0)
+			rtt = 0;
+		Integer k = key(command);
+		Entry e = entries.get(k);
+		if (e == null) {
+			e = new Entry();
+			entries.put(k, e);
+		}
+		if (e.samples == 0) {
+			e.srtt = rtt;
+			e.rttvar = rtt / 2;
+		} else {
+			// RFC 6298: alfa = 1/8, beta = 1/4
+			long err = rtt - e.srtt;
+			e.srtt += err >> 3;
+			e.rttvar += (Math.abs(err) - e.rttvar) >> 2;
+		}
+		e.samples++;
+		e.backoff = 0;
+	}
+
+	/**
+	 * Records that a command got no reply before its deadline: the next
+	 * deadlines of its type are doubled.
+	 */
+	public synchronized void timedOut(byte[] command) {
+		Entry e = entries.get(key(command));
+		if (e != null && e.backoff < MAX_BACKOFF)
+			e.backoff++;
+	}
+
+	/**
+	 * The smoothed processing time of a command type.
+	 *
+	 * @param command The command, or at least its first bytes (up to the number
+	 * of blocks for commands on multiple blocks).
+	 * @return Time in us, -1 if no reply has been measured.
+	 */
+	public synchronized long getRtt(byte[] command) {
+		Entry e = entries.get(key(command));
+		return (e != null && e.samples > 0) ? e.srtt / 1000 : -1;
+	}
+
+	/**
+	 * Forgets all the measures, for example after a change of baud rate.
+	 */
+	public synchronized void reset() {
+		entries.clear();
+	}
+
+	/**
+	 * The type of a command: control byte and command code, which for custom
+	 * ISO15693 and ST commands follows the manufacturer code, and the number of
+	 * blocks of the ISO15693 commands on multiple blocks.
+	 */
+	private static Integer key(byte[] command) {
+		int ctrl = command[0] & 0xFF;
+		int cmd = ((ctrl == 0xB1 || ctrl == 0xC1) && command.length > 2) ? command[2] : command[1];
+		return Integer.valueOf((blockCount(command) << 16) | (ctrl << 8) | (cmd & 0xFF));
+	}
+
+	/**
+	 * Number of blocks plus one of an ISO15693 read, write or security status
+	 * of multiple blocks, 0 for the other commands.
+	 */
+	private static int blockCount(byte[] command) {
+		if ((command[0] & 0xFF) != 0xB0 || command.length < 3)
+			return 0;
+		switch (command[1] & 0xFF) {
+			case 0x23: // read multiple blocks
+			case 0x24: // write multiple blocks
+			case 0x2C: // block security status
+				// nei comandi indirizzati il numero di blocchi segue l'UID
+				int i = ((command[2] & 0x20) != 0) ? 12 : 4;
+				return (i < command.length) ? (command[i] & 0xFF) + 1 : 0;
+			default:
+				return 0;
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package labid.reader;
+
+import java.io.IOException;
+
+/**
+ * Schedules tag detection mixing reader events and polling. While the field is
+ * empty the scheduler waits for the reader tag event ({@link LabIdReader#getNextTagEvent(int, boolean)}),
+ * so neither the communication stream nor the host are busy; when a tag enters
+ * the field it polls with an adaptive interval: the minimum interval while the
+ * population changes, growing up to the maximum interval while it is stable.
+ * When polls have found no tags for the empty timeout, it goes back to waiting
+ * for events. <br/>
+ * The reader signals an event only when a tag enters an empty field: a tag which
+ * enters just before the event is armed is detected by the optional periodic
+ * recheck (see {@link #setEventRecheck(int)}). <br/>
+ * Polls are performed by a {@link Poller}, for example:
+ * <pre>
+ * final long[] uids = new long[ISO15693Reader.MAX_INVENTORY_TAGS];
+ * TagDetectionScheduler s = new TagDetectionScheduler(reader, () -&gt; {
+ *     int n = reader.inventory(uids);
+ *     tracker.round(uids, n);
+ *     return n;
+ * });
+ * s.start();
+ * </pre>
+ * The scheduler subscribes itself as the tag event listener of the reader,
+ * replacing any other listener. Event notification requires firmware 2.3 or later.
+ */
+public class TagDetectionScheduler implements RFIDTagDetectedListener, Runnable {
+
+	/**
+	 * Polls the reader for tags.
+	 */
+	public interface Poller {
+		/**
+		 * @return Number of tags found.
+		 */
+		int poll() throws RFReaderException;
+	}
+
+	/** Waiting for a reader tag event */
+	public static final int MODE_EVENT = 0;
+	/** Polling */
+	public static final int MODE_POLLING = 1;
+
+	private final LabIdReader reader;
+	private final Poller poller;
+
+	private int protocol = LabIdReader.RF_ISOProtocol_Any;
+	private boolean beep = false;
+	private int minInterval = 50;
+	private int maxInterval = 1000;
+	private int emptyTimeout = 2000;
+	private int eventRecheck = 0;
+
+	private final Object lock = new Object();
+	private volatile boolean running = false;
+	private volatile int mode = MODE_POLLING;
+	private boolean eventArrived = false;
+	private Thread thread;
+
+	private volatile long polls = 0;
+	private volatile long events = 0;
+
+	/**
+	 * @param reader Reader which generates tag events.
+	 * @param poller Polls the field, usually through the same reader.
+	 */
+	public TagDetectionScheduler(LabIdReader reader, Poller poller) {
+		this.reader = reader;
+		this.poller = poller;
+	}
+
+	/**
+	 * Sets the protocols which generate tag events (LabIdReader.RF_ISOProtocol_*
+	 * values, default any) and the reader beep on events.
+	 */
+	public void setEventProtocol(int protocol, boolean beep) {
+		this.protocol = protocol;
+		this.beep = beep;
+	}
+
+	/**
+	 * Sets the polling interval range.
+	 *
+	 * @param minMillis Interval while the population changes or the field is empty.
+	 * @param maxMillis Interval reached while the population is stable.
+	 */
+	public void setPollingInterval(int minMillis, int maxMillis) {
+		this.minInterval = minMillis;
+		this.maxInterval = Math.max(minMillis, maxMillis);
+	}
+
+	/**
+	 * Sets the time polls must find no tags before switching to event mode
+	 * (default 2000 ms).
+	 */
+	public void setEmptyTimeout(int millis) {
+		this.emptyTimeout = millis;
+	}
+
+	/**
+	 * Sets the interval of the checks performed with a single poll while waiting
+	 * for events, 0 to disable them (the default).
+	 */
+	public void setEventRecheck(int millis) {
+		this.eventRecheck = millis;
+	}
+
+	/**
+	 * Current mode: MODE_EVENT or MODE_POLLING.
+	 */
+	public int getMode() {
+		return mode;
+	}
+
+	/**
+	 * Number of polls performed.
+	 */
+	public long getPollCount() {
+		return polls;
+	}
+
+	/**
+	 * Number of tag events received.
+	 */
+	public long getEventCount() {
+		return events;
+	}
+
+	/**
+	 * Starts the scheduler thread.
+	 */
+	public synchronized void start() {
+		if (running)
+			return;
+		reader.addTagEventListener(this);
+		running = true;
+		thread = new Thread(this, "LabID tag detection");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the scheduler thread and waits for its termination.
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if (!running)
+			return;
+		running = false;
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		thread.join();
+	}
+
+	public void TagDetected(int protocol) {
+		synchronized (lock) {
+			eventArrived = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * The scheduler thread. <b>Use {@link #start()} to run it.</b>
+	 */
+	public void run() {
+		long lastTags = System.currentTimeMillis();
+		int interval = minInterval;
+		int lastCount = -1;
+
+		while (running) {
+			if (mode == MODE_EVENT) {
+				boolean detected = waitEvent();
+				if (!running)
+					break;
+				mode = MODE_POLLING;
+				interval = minInterval;
+				lastCount = -1;
+				// dopo un controllo periodico a vuoto si torna subito agli eventi
+				lastTags = detected ? System.currentTimeMillis() : 0;
+				continue;
+			}
+
+			int n;
+			try {
+				n = poller.poll();
+			} catch (RFReaderException e) {
+				n = 0;
+			}
+			polls++;
+			long now = System.currentTimeMillis();
+			if (n > 0) {
+				lastTags = now;
+				interval = (n != lastCount) ? minInterval : Math.min(interval * 2, maxInterval);
+			} else {
+				interval = minInterval;
+				if (now - lastTags >= emptyTimeout) {
+					mode = MODE_EVENT;
+					continue;
+				}
+			}
+			lastCount = n;
+			sleep(interval);
+		}
+	}
+
+	/**
+	 * Arms the reader event and waits for it, for the recheck interval or until
+	 * the scheduler is stopped.
+	 *
+	 * @return True if a tag event has been received.
+	 */
+	private boolean waitEvent() {
+		synchronized (lock) {
+			eventArrived = false;
+		}
+		try {
+			reader.getNextTagEvent(protocol, beep);
+		} catch (IOException e) {
+			sleep(maxInterval);
+			return false;
+		}
+
+		boolean detected;
+		synchronized (lock) {
+			long deadline = System.currentTimeMillis() + eventRecheck;
+			while (running && !eventArrived) {
+				long wait = deadline - System.currentTimeMillis();
+				if (eventRecheck > 0 && wait <= 0)
+					break;
+				try {
+					lock.wait((eventRecheck > 0) ? wait : 0);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					running = false;
+				}
+			}
+			detected = eventArrived;
+		}
+
+		if (detected) {
+			events++;
+			return true;
+		}
+		try {
+			reader.stopTagEventNotification();
+		} catch (IOException e) {
+		}
+		synchronized (lock) {
+			// l'evento puo' essere arrivato insieme allo stop
+			if (eventArrived)
+				events++;
+			return eventArrived;
+		}
+	}
+
+	private void sleep(int millis) {
+		synchronized (lock) {
+			if (!running)
+				return;
+			try {
+				lock.wait(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				running = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,435 @@
+package labid.reader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import labid.comm.CableStream;
+import labid.comm.ReconnectingStream;
+
+/**
+ * Receives the tag events of a communication stream with a single long-lived
+ * thread and dispatches them to any number of subscribers. Get the dispatcher
+ * of a stream with {@link CommandArbiter#getTagEventDispatcher()}. <br/>
+ * As soon as an event arrives the receiver re-arms the reader, then publishes
+ * the event in a bounded ring buffer. Each subscriber reads the buffer with its
+ * own cursor and receives events on its own executor; when it falls behind by
+ * more than the buffer capacity its policy applies:
+ * <ul>
+ * <li>{@link #POLICY_DROP}: the oldest events are lost;</li>
+ * <li>{@link #POLICY_COALESCE}: the subscriber receives only the latest event;</li>
+ * <li>{@link #POLICY_BLOCK}: the receiver waits for the subscriber before
+ * publishing the next event (the reader is already re-armed: following events
+ * wait in the stream).</li>
+ * </ul>
+ * Publishing does not take locks: only blocked receivers are parked. <br/>
+ * While the receiver waits for events it holds the stream. When other commands
+ * are waiting for the stream, it stops the notification and hands the stream
+ * over to them at the next event or receive timeout, then re-arms the reader:
+ * give the stream a receive timeout to let commands through promptly. <br/>
+ * On a {@link ReconnectingStream} the receiver survives the loss of the
+ * connection: it waits for the new connection and re-arms the reader. <br/>
+ * Don't use {@link LabIdReader#getNextTagEvent(int, boolean)} on a stream which
+ * has a running dispatcher.
+ */
+public class TagEventDispatcher implements Runnable {
+
+	/** A subscriber which falls behind loses the oldest events */
+	public static final int POLICY_DROP = 0;
+	/** The receiver waits for a subscriber which falls behind */
+	public static final int POLICY_BLOCK = 1;
+	/** A subscriber which falls behind receives only the latest event */
+	public static final int POLICY_COALESCE = 2;
+
+	/** Number of events kept for subscribers */
+	public static final int CAPACITY = 256;
+	private static final int MASK = CAPACITY - 1;
+	/** attesa massima di un evento prima di controllare i comandi in coda (ms) */
+	private static final int POLL_MILLIS = 50;
+
+	/**
+	 * A subscription to the events of the dispatcher.
+	 */
+	public class Subscription {
+		private final RFIDTagDetectedListener listener;
+		private final Executor executor;
+		private final int policy;
+		/** prossimo evento da consegnare */
+		private volatile long cursor;
+		private volatile boolean cancelled = false;
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		private final AtomicLong lost = new AtomicLong();
+		private final Runnable task = new Runnable() {
+			public void run() {
+				drain();
+			}
+		};
+
+		private Subscription(RFIDTagDetectedListener listener, Executor executor, int policy) {
+			this.listener = listener;
+			this.executor = executor;
+			this.policy = policy;
+			this.cursor = published;
+		}
+
+		/**
+		 * Stops the delivery of events to the subscriber.
+		 */
+		public void cancel() {
+			cancelled = true;
+			removeSubscription(this);
+		}
+
+		/**
+		 * Number of events the subscriber did not receive because of its policy.
+		 */
+		public long getLostCount() {
+			return lost.get();
+		}
+
+		/**
+		 * Number of events waiting to be delivered.
+		 */
+		public int getPending() {
+			return (int) Math.min(published - cursor, CAPACITY);
+		}
+
+		private void signal() {
+			if (cancelled || !scheduled.compareAndSet(false, true))
+				return;
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				scheduled.set(false);
+			}
+		}
+
+		private void drain() {
+			while (true) {
+				long end = published;
+				long c = cursor;
+				if (policy == POLICY_COALESCE && end - c > 1) {
+					lost.addAndGet(end - 1 - c);
+					c = end - 1;
+				} else if (end - c > CAPACITY) {
+					lost.addAndGet(end - CAPACITY - c);
+					c = end - CAPACITY;
+				}
+				while (c < end && !cancelled) {
+					int protocol = protocols[(int) (c & MASK)];
+					// lo slot e' valido se il ricevitore non ha ancora iniziato a riscriverlo
+					if (published - c >= CAPACITY) {
+						lost.incrementAndGet();
+						c++;
+						continue;
+					}
+					cursor = ++c;
+					if (policy == POLICY_BLOCK)
+						wakeReceiver();
+					try {
+						listener.TagDetected(protocol);
+					} catch (Exception e) {
+					}
+				}
+				cursor = c;
+				scheduled.set(false);
+				// un evento pubblicato durante la consegna potrebbe non aver programmato il task
+				if (cancelled || published == cursor || !scheduled.compareAndSet(false, true))
+					return;
+			}
+		}
+	}
+
+	private final CommandArbiter arbiter;
+	private final int[] protocols = new int[CAPACITY];
+	/** numero di eventi pubblicati */
+	private volatile long published = 0;
+	private volatile Subscription[] subscriptions = new Subscription[0];
+
+	private volatile boolean running = false;
+	private volatile byte[] armCommand;
+	/** protocolli cambiati mentre il ricevitore e' attivo: va riarmato */
+	private volatile boolean rearm = false;
+	private volatile Thread receiver;
+	private volatile IOException error;
+	private volatile long received = 0;
+
+	TagEventDispatcher(CommandArbiter arbiter) {
+		this.arbiter = arbiter;
+	}
+
+	/**
+	 * Subscribes a listener.
+	 *
+	 * @param listener Receives the protocol of each event.
+	 * @param executor Runs the listener; events are delivered in order, one at a time.
+	 * @param policy POLICY_DROP, POLICY_BLOCK or POLICY_COALESCE.
+	 */
+	public Subscription subscribe(RFIDTagDetectedListener listener, Executor executor, int policy) {
+		Subscription s = new Subscription(listener, executor, policy);
+		synchronized (this) {
+			Subscription[] temp = new Subscription[subscriptions.length + 1];
+			System.arraycopy(subscriptions, 0, temp, 0, subscriptions.length);
+			temp[subscriptions.length] = s;
+			subscriptions = temp;
+		}
+		return s;
+	}
+
+	private synchronized void removeSubscription(Subscription s) {
+		for (int i = 0; i < subscriptions.length; i++) {
+			if (subscriptions[i] == s) {
+				Subscription[] temp = new Subscription[subscriptions.length - 1];
+				System.arraycopy(subscriptions, 0, temp, 0, i);
+				System.arraycopy(subscriptions, i + 1, temp, i, temp.length - i);
+				subscriptions = temp;
+				break;
+			}
+		}
+		wakeReceiver();
+	}
+
+	/**
+	 * Starts the receiver, or changes the notified protocols if it is running
+	 * (the reader is armed again within the receive timeout).
+	 *
+	 * @param isoStandard The protocols which generate events (LabIdReader.RF_ISOProtocol_*).
+	 * @param beep The reader beeps when a tag is detected.
+	 */
+	public synchronized void start(int isoStandard, boolean beep) {
+		byte protocol = (byte) isoStandard;
+		if (beep)
+			protocol = (byte) (protocol | 0x40);
+		byte[] cmd = new byte[] { 0x00, (byte) 0xE0, protocol };
+		if (running) {
+			if (cmd[2] != armCommand[2]) {
+				armCommand = cmd;
+				rearm = true;
+			}
+			return;
+		}
+		armCommand = cmd;
+		rearm = false;
+		running = true;
+		error = null;
+		Thread t = new Thread(this, "LabID tag events");
+		t.setDaemon(true);
+		receiver = t;
+		t.start();
+	}
+
+	/**
+	 * Stops the notification and waits for the receiver to terminate.
+	 *
+	 * @param timeout Maximum wait in ms, 0 to return immediately.
+	 * @return True if the receiver has terminated.
+	 */
+	public boolean stop(long timeout) throws InterruptedException {
+		Thread t;
+		synchronized (this) {
+			if (!running)
+				return true;
+			running = false;
+			t = receiver;
+		}
+		CableStream s = arbiter.getStream();
+		try {
+			if (s != null)
+				sendStop(new LabIdReader(s));
+		} catch (IOException e) {
+		}
+		LockSupport.unpark(t);
+		if (timeout > 0)
+			t.join(timeout);
+		return !t.isAlive();
+	}
+
+	/**
+	 * Tells if the receiver is running.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * The error which stopped the receiver, or null.
+	 */
+	public IOException getError() {
+		return error;
+	}
+
+	/**
+	 * Number of tag events received from the reader.
+	 */
+	public long getEventCount() {
+		return received;
+	}
+
+	/**
+	 * The receiver thread. <b>Use {@link #start(int, boolean)} to run it.</b>
+	 */
+	public void run() {
+		Thread me = Thread.currentThread();
+		LabIdReader reader = new LabIdReader(arbiter.getStream());
+		reader.setRetry(1);
+		reader.setTimeout(POLL_MILLIS);
+		try {
+			while (isActive(me)) {
+				awaitReconnection();
+				arbiter.acquire();
+				try {
+					// fermato durante l'attesa dello stream: stop ha gia' inviato il comando
+					// di arresto, armare ora lascerebbe il lettore in notifica
+					if (!isActive(me))
+						break;
+					rearm = false;
+					reader.send(armCommand);
+					while (isActive(me)) {
+						boolean event;
+						try {
+							reader.receive();
+							event = isEvent(reader.recv_buf);
+						} catch (EOFException e) {
+							throw e;
+						} catch (IOException e) {
+							if (isReconnecting())
+								throw e;
+							event = false; // timeout di ricezione
+						}
+						if (event) {
+							int protocol = decode(reader.recv_buf[5]);
+							// si riarma prima di pubblicare: un consumatore lento non ritarda il lettore
+							if (isActive(me) && arbiter.getQueueLength() == 0) {
+								rearm = false;
+								reader.send(armCommand);
+							}
+							publish(protocol);
+							if (arbiter.getQueueLength() > 0)
+								break;
+						} else if (isActive(me) && arbiter.getQueueLength() > 0) {
+							// comandi in attesa: fermo la notifica e cedo lo stream
+							sendStop(reader);
+							waitStopAcknowledge(reader);
+							break;
+						} else if (rearm && isActive(me)) {
+							rearm = false;
+							reader.send(armCommand);
+						}
+					}
+				} catch (IOException e) {
+					// connessione persa: si riarma il lettore quando e' ripristinata
+					if (!isReconnecting())
+						throw e;
+				} finally {
+					arbiter.release();
+				}
+			}
+		} catch (IOException e) {
+			error = e;
+		} finally {
+			synchronized (this) {
+				// un ricevitore fermato e gia' sostituito da un nuovo start non lo ferma
+				if (receiver == me)
+					running = false;
+			}
+		}
+	}
+
+	/**
+	 * Tells if a thread is the current receiver: after a stop and a new start,
+	 * the old receiver ends while the new one waits for the stream.
+	 */
+	private boolean isActive(Thread me) {
+		return running && receiver == me;
+	}
+
+	/**
+	 * Tells if the stream is a {@link ReconnectingStream} which is restoring its
+	 * connection: the reader has lost the notification and must be re-armed.
+	 */
+	private boolean isReconnecting() {
+		CableStream s = arbiter.getStream();
+		return s instanceof ReconnectingStream && !((ReconnectingStream) s).isConnected()
+				&& !((ReconnectingStream) s).isClosed();
+	}
+
+	/**
+	 * Waits, without holding the stream, until a lost connection is restored or
+	 * the receiver is stopped.
+	 */
+	private void awaitReconnection() throws IOException {
+		while (running && isReconnecting())
+			((ReconnectingStream) arbiter.getStream()).awaitConnected(System.nanoTime() + POLL_MILLIS * 1000000L);
+	}
+
+	private static boolean isEvent(byte[] frame) {
+		// la conferma dello stop non contiene il protocollo
+		return frame[2] == 0x00 && (frame[3] & 0xFF) == 0xE0 && frame[4] == 0x00
+				&& ((frame[0] & 0xFF) | ((frame[1] & 0x01) << 8)) > 7;
+	}
+
+	private static int decode(byte b) {
+		switch (b & 0xFF) {
+			case 0xA0:
+				return LabIdReader.RF_ISOProtocol_ISO14443A;
+			case 0xC0:
+				return LabIdReader.RF_ISOProtocol_ISO14443B;
+			case 0xD0:
+				return LabIdReader.RF_ISOProtocol_EPC;
+			default:
+				return LabIdReader.RF_ISOProtocol_ISO15693;
+		}
+	}
+
+	private void sendStop(LabIdReader reader) throws IOException {
+		reader.send(new byte[] { 0x00, (byte) 0xE0, 0x00 });
+	}
+
+	/**
+	 * Waits for the acknowledge of the stop command; events which arrive in the
+	 * meantime are published.
+	 */
+	private void waitStopAcknowledge(LabIdReader reader) throws IOException {
+		for (int i = 0; i < 4; i++) {
+			try {
+				reader.receive();
+			} catch (EOFException e) {
+				throw e;
+			} catch (IOException e) {
+				return; // il firmware potrebbe non confermare lo stop
+			}
+			if (isEvent(reader.recv_buf))
+				publish(decode(reader.recv_buf[5]));
+			else if ((reader.recv_buf[3] & 0xFF) == 0xE0)
+				return;
+		}
+	}
+
+	private void publish(int protocol) {
+		received++;
+		long seq = published;
+		Subscription[] subs = subscriptions;
+		for (Subscription s : subs) {
+			if (s.policy != POLICY_BLOCK)
+				continue;
+			// attendo che il sottoscrittore liberi lo slot
+			while (!s.cancelled && seq - s.cursor >= CAPACITY && running) {
+				LockSupport.parkNanos(this, 1000000L);
+			}
+		}
+		protocols[(int) (seq & MASK)] = protocol;
+		published = seq + 1;
+		for (Subscription s : subs)
+			s.signal();
+	}
+
+	private void wakeReceiver() {
+		Thread t = receiver;
+		if (t != null)
+			LockSupport.unpark(t);
+	}
+}
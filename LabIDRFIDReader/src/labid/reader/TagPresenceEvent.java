@@ -0,0 +1,35 @@
+package labid.reader;
+
+/**
+ * Change in the presence of a tag, notified by a {@link TagPresenceTracker}.
+ * The tracker reuses the same object for all notifications: copy the fields
+ * which must be kept after {@link TagPresenceListener#presenceChanged(TagPresenceEvent)}
+ * returns.
+ */
+public class TagPresenceEvent {
+
+	/** The tag has been read for the first time (or again after a departure). */
+	public static final int ARRIVED = 0;
+	/** The tag has not been read for the configured number of rounds. */
+	public static final int DEPARTED = 1;
+	/** The tag has been read again (notified only if enabled in the tracker). */
+	public static final int STILL_PRESENT = 2;
+
+	/** ARRIVED, DEPARTED or STILL_PRESENT */
+	public int type;
+	/** Packed serial number (see {@link labid.comm.ByteUtils#toLong(byte[], int)}) */
+	public long uid;
+	/** Time of the first read since the tag arrived, in ms */
+	public long firstSeen;
+	/** Time of the last read, in ms */
+	public long lastSeen;
+	/** Number of rounds in which the tag has been read since it arrived */
+	public int readCount;
+
+	/**
+	 * Time the tag has been in the field, from the first to the last read, in ms.
+	 */
+	public long getDwellTime() {
+		return lastSeen - firstSeen;
+	}
+}
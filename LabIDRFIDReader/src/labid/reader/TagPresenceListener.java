@@ -0,0 +1,13 @@
+package labid.reader;
+
+/**
+ * Receives the arrivals and departures of tags detected by a {@link TagPresenceTracker}.
+ */
+public interface TagPresenceListener extends java.util.EventListener {
+
+	/**
+	 * Called by the thread which feeds the tracker. The event object is reused
+	 * by the tracker after the method returns.
+	 */
+	void presenceChanged(TagPresenceEvent event);
+}
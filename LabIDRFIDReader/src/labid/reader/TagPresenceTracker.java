@@ -0,0 +1,276 @@
+package labid.reader;
+
+import java.util.Arrays;
+
+import labid.comm.LongIntHashMap;
+
+/**
+ * Keeps track of the tags in the field from the results of successive
+ * inventory rounds and notifies arrivals and departures. A tag departs when it
+ * has not been read for a number of consecutive rounds, so a single missed read
+ * does not generate a departure and a new arrival. <br/>
+ * Tag records are stored in parallel arrays indexed through a
+ * {@link LongIntHashMap}: once the arrays have grown to the size of the
+ * population, rounds do not allocate objects.
+ * <pre>
+ * TagPresenceTracker tracker = new TagPresenceTracker(3);
+ * tracker.addListener(e -&gt; ...);
+ * while (running) {
+ *     int n = reader.inventory(uids);
+ *     tracker.round(uids, n);
+ * }
+ * </pre>
+ * The tracker is not thread safe: it must be fed by a single thread, which also
+ * runs the listeners.
+ */
+public class TagPresenceTracker {
+
+	private final int departureRounds;
+	private boolean reportStillPresent = false;
+	private TagPresenceListener[] listeners = new TagPresenceListener[0];
+	private final TagPresenceEvent event = new TagPresenceEvent();
+
+	/** uid -> indice del record */
+	private final LongIntHashMap index = new LongIntHashMap(256);
+	private long[] uids = new long[256];
+	private long[] firstSeen = new long[256];
+	private long[] lastSeen = new long[256];
+	private int[] readCount = new int[256];
+	/** ultimo round in cui il tag e' stato letto */
+	private int[] lastRound = new int[256];
+	private boolean[] used = new boolean[256];
+	/** record liberi, usati come pila */
+	private int[] free = new int[256];
+	private int nFree = 0;
+	/** record mai usati a partire da qui */
+	private int highWater = 0;
+
+	private int round = 0;
+	private long roundTime;
+	private boolean inRound = false;
+
+	/**
+	 * @param departureRounds Number of consecutive rounds a tag must be missing
+	 * to be considered departed (at least 1).
+	 */
+	public TagPresenceTracker(int departureRounds) {
+		if (departureRounds < 1)
+			throw new IllegalArgumentException("departureRounds must be at least 1");
+		this.departureRounds = departureRounds;
+	}
+
+	public void addListener(TagPresenceListener listener) {
+		TagPresenceListener[] temp = new TagPresenceListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, temp, 0, listeners.length);
+		temp[listeners.length] = listener;
+		listeners = temp;
+	}
+
+	public void removeListener(TagPresenceListener listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i] == listener) {
+				TagPresenceListener[] temp = new TagPresenceListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, temp, 0, i);
+				System.arraycopy(listeners, i + 1, temp, i, temp.length - i);
+				listeners = temp;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Enables STILL_PRESENT notifications, one for each round in which a tag
+	 * which is already present is read. They are disabled by default.
+	 */
+	public void setReportStillPresent(boolean value) {
+		this.reportStillPresent = value;
+	}
+
+	/**
+	 * Starts an inventory round.
+	 *
+	 * @param time Time of the round in ms, used as first/last seen time of
+	 * tags read in the round.
+	 */
+	public void beginRound(long time) {
+		if (inRound)
+			endRound();
+		round++;
+		roundTime = time;
+		inRound = true;
+	}
+
+	/**
+	 * Records a read of a tag in the current round. A tag reported more than
+	 * once in a round is counted once.
+	 */
+	public void seen(long uid) {
+		if (!inRound)
+			beginRound(System.currentTimeMillis());
+		int i = index.get(uid, -1);
+		if (i < 0) {
+			i = allocate(uid);
+			firstSeen[i] = roundTime;
+			lastSeen[i] = roundTime;
+			readCount[i] = 1;
+			lastRound[i] = round;
+			fire(TagPresenceEvent.ARRIVED, i);
+			return;
+		}
+		// gia' letto in questo round (ad esempio da due antenne o da due slot)
+		if (lastRound[i] == round)
+			return;
+		lastSeen[i] = roundTime;
+		readCount[i]++;
+		lastRound[i] = round;
+		if (reportStillPresent)
+			fire(TagPresenceEvent.STILL_PRESENT, i);
+	}
+
+	/**
+	 * Ends the current round: tags missing for the configured number of rounds
+	 * are notified as departed and forgotten.
+	 */
+	public void endRound() {
+		if (!inRound)
+			return;
+		inRound = false;
+		for (int i = 0; i < highWater; i++) {
+			if (used[i] && round - lastRound[i] >= departureRounds) {
+				fire(TagPresenceEvent.DEPARTED, i);
+				release(i);
+			}
+		}
+	}
+
+	/**
+	 * Processes a whole inventory round taken now.
+	 *
+	 * @param uids Packed serial numbers read in the round.
+	 * @param count Number of valid elements in uids.
+	 */
+	public void round(long[] uids, int count) {
+		round(uids, count, System.currentTimeMillis());
+	}
+
+	/**
+	 * Processes a whole inventory round.
+	 *
+	 * @param uids Packed serial numbers read in the round.
+	 * @param count Number of valid elements in uids.
+	 * @param time Time of the round in ms.
+	 */
+	public void round(long[] uids, int count, long time) {
+		beginRound(time);
+		for (int i = 0; i < count; i++)
+			seen(uids[i]);
+		endRound();
+	}
+
+	/**
+	 * Forgets all tags, notifying their departure.
+	 */
+	public void clear() {
+		for (int i = 0; i < highWater; i++) {
+			if (used[i]) {
+				fire(TagPresenceEvent.DEPARTED, i);
+				release(i);
+			}
+		}
+	}
+
+	/**
+	 * Number of tags currently present.
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	public boolean isPresent(long uid) {
+		return index.containsKey(uid);
+	}
+
+	/**
+	 * Number of rounds in which a present tag has been read since it arrived,
+	 * 0 if it is not present.
+	 */
+	public int getReadCount(long uid) {
+		int i = index.get(uid, -1);
+		return (i >= 0) ? readCount[i] : 0;
+	}
+
+	/**
+	 * Time of the first read of a present tag, -1 if it is not present.
+	 */
+	public long getFirstSeen(long uid) {
+		int i = index.get(uid, -1);
+		return (i >= 0) ? firstSeen[i] : -1;
+	}
+
+	/**
+	 * Time of the last read of a present tag, -1 if it is not present.
+	 */
+	public long getLastSeen(long uid) {
+		int i = index.get(uid, -1);
+		return (i >= 0) ? lastSeen[i] : -1;
+	}
+
+	/**
+	 * Copies the serial numbers of the present tags into dest, which must hold
+	 * at least size() elements.
+	 *
+	 * @return Number of copied serial numbers.
+	 */
+	public int getPresent(long[] dest) {
+		int n = 0;
+		for (int i = 0; i < highWater; i++) {
+			if (used[i])
+				dest[n++] = uids[i];
+		}
+		return n;
+	}
+
+	private void fire(int type, int i) {
+		if (listeners.length == 0)
+			return;
+		event.type = type;
+		event.uid = uids[i];
+		event.firstSeen = firstSeen[i];
+		event.lastSeen = lastSeen[i];
+		event.readCount = readCount[i];
+		for (TagPresenceListener l : listeners)
+			l.presenceChanged(event);
+	}
+
+	private int allocate(long uid) {
+		int i;
+		if (nFree > 0)
+			i = free[--nFree];
+		else {
+			if (highWater == uids.length)
+				grow();
+			i = highWater++;
+		}
+		uids[i] = uid;
+		used[i] = true;
+		index.put(uid, i);
+		return i;
+	}
+
+	private void release(int i) {
+		index.remove(uids[i]);
+		used[i] = false;
+		free[nFree++] = i;
+	}
+
+	private void grow() {
+		int size = uids.length * 2;
+		uids = Arrays.copyOf(uids, size);
+		firstSeen = Arrays.copyOf(firstSeen, size);
+		lastSeen = Arrays.copyOf(lastSeen, size);
+		readCount = Arrays.copyOf(readCount, size);
+		lastRound = Arrays.copyOf(lastRound, size);
+		used = Arrays.copyOf(used, size);
+		free = Arrays.copyOf(free, size);
+	}
+}
@@ -0,0 +1,20 @@
+package labid.reader;
+
+/**
+ * A read of a tag, published by a {@link TagReadPublisher}.
+ */
+public class TagRead {
+
+	/** Protocol of the tag (LabIdReader.RF_ISOProtocol_*) */
+	public final int protocol;
+	/** Serial number, as returned by the reader */
+	public final byte[] uid;
+	/** Time of the inventory round, in ms */
+	public final long time;
+
+	public TagRead(int protocol, byte[] uid, long time) {
+		this.protocol = protocol;
+		this.uid = uid;
+		this.time = time;
+	}
+}
@@ -0,0 +1,362 @@
+package labid.reader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import labid.comm.CableStream;
+import labid.iso14443.ISO14443Reader;
+import labid.iso14443.ST_ISO14443B_Reader;
+import labid.iso15693.ISO15693Reader;
+
+/**
+ * Publishes the tags read by continuous inventory rounds, driven by the demand
+ * of its subscribers. The interfaces follow the contract of
+ * java.util.concurrent.Flow (Java 9), so on newer platforms a subscriber can be
+ * adapted with a few lines:
+ * <pre>
+ * publisher.subscribe(new TagReadPublisher.Subscriber() {
+ *     public void onSubscribe(TagReadPublisher.Subscription s) { this.s = s; s.request(10); }
+ *     public void onNext(TagRead read) { ...; s.request(1); }
+ *     public void onError(Throwable e) { ... }
+ *     public void onComplete() { ... }
+ * });
+ * </pre>
+ * A round is performed only when every subscriber has requested more reads than
+ * the ones still waiting for it: the slowest subscriber sets the pace down to
+ * the communication stream. When there is no demand the RF field is switched
+ * off (after a configurable delay), and switched on again at the next request. <br/>
+ * Rounds use {@link ISO15693Reader#inventory()}, {@link ISO14443Reader#ShowCards()}
+ * and {@link ST_ISO14443B_Reader#Select()} according to the selected protocols.
+ * All signals are delivered, in order, by the publisher thread. A communication
+ * error terminates the publisher: every subscriber receives onError.
+ */
+public class TagReadPublisher implements Runnable {
+
+	/**
+	 * Receives tag reads (see java.util.concurrent.Flow.Subscriber).
+	 */
+	public interface Subscriber {
+		void onSubscribe(Subscription subscription);
+
+		void onNext(TagRead read);
+
+		void onError(Throwable throwable);
+
+		void onComplete();
+	}
+
+	/**
+	 * Link between the publisher and a subscriber (see java.util.concurrent.Flow.Subscription).
+	 */
+	public interface Subscription {
+		/**
+		 * Adds n reads to the demand of the subscriber. A value not greater than
+		 * 0 cancels the subscription with an IllegalArgumentException.
+		 */
+		void request(long n);
+
+		void cancel();
+	}
+
+	private class TagSubscription implements Subscription {
+		private final Subscriber subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		/** letture in attesa di domanda (solo thread del publisher) */
+		private final ArrayDeque<TagRead> buffer = new ArrayDeque<TagRead>();
+		private volatile boolean cancelled = false;
+		private volatile boolean badRequest = false;
+
+		private TagSubscription(Subscriber subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public void request(long n) {
+			if (n <= 0)
+				badRequest = true;
+			else {
+				long d, nd;
+				do {
+					d = demand.get();
+					nd = d + n;
+					if (nd < 0)
+						nd = Long.MAX_VALUE;
+				} while (!demand.compareAndSet(d, nd));
+			}
+			wake();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			wake();
+		}
+	}
+
+	private final ISO15693Reader icReader;
+	private final ISO14443Reader aReader;
+	private final ST_ISO14443B_Reader stReader;
+	private final int protocols;
+
+	private int pollInterval = 0;
+	private int rfOffDelay = 500;
+
+	private final Object lock = new Object();
+	private boolean signalled = false;
+	private volatile TagSubscription[] subscriptions = new TagSubscription[0];
+	private volatile boolean running = false;
+	private boolean closed = false;
+	private Thread thread;
+	private volatile long rounds = 0;
+
+	/**
+	 * @param stream Communication stream of the reader.
+	 * @param protocols Protocols to inventory (LabIdReader.RF_ISOProtocol_* values,
+	 * EPC is ignored).
+	 */
+	public TagReadPublisher(CableStream stream, int protocols) {
+		this.icReader = new ISO15693Reader(stream);
+		this.aReader = new ISO14443Reader(stream);
+		this.stReader = new ST_ISO14443B_Reader(stream);
+		this.protocols = protocols;
+	}
+
+	/**
+	 * Sets the minimum time between the start of two rounds (default 0: rounds
+	 * are performed back to back while there is demand).
+	 */
+	public void setPollInterval(int millis) {
+		this.pollInterval = millis;
+	}
+
+	/**
+	 * Sets how long the RF field stays on without demand (default 500 ms), -1 to
+	 * never switch it off.
+	 */
+	public void setRfOffDelay(int millis) {
+		this.rfOffDelay = millis;
+	}
+
+	/**
+	 * Number of inventory rounds performed.
+	 */
+	public long getRoundCount() {
+		return rounds;
+	}
+
+	/**
+	 * Adds a subscriber. onSubscribe is called by the current thread; the
+	 * publisher thread is started at the first subscription.
+	 */
+	public void subscribe(Subscriber subscriber) {
+		TagSubscription s = new TagSubscription(subscriber);
+		synchronized (this) {
+			if (closed) {
+				subscriber.onSubscribe(s);
+				subscriber.onComplete();
+				return;
+			}
+		}
+		subscriber.onSubscribe(s);
+		synchronized (this) {
+			TagSubscription[] temp = new TagSubscription[subscriptions.length + 1];
+			System.arraycopy(subscriptions, 0, temp, 0, subscriptions.length);
+			temp[subscriptions.length] = s;
+			subscriptions = temp;
+			if (!running) {
+				running = true;
+				thread = new Thread(this, "LabID tag reads");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		wake();
+	}
+
+	/**
+	 * Stops the publisher: the subscribers receive onComplete.
+	 */
+	public void close() throws InterruptedException {
+		Thread t;
+		synchronized (this) {
+			closed = true;
+			running = false;
+			t = thread;
+		}
+		wake();
+		if (t != null && t != Thread.currentThread())
+			t.join();
+	}
+
+	/**
+	 * The publisher thread. <b>Use {@link #subscribe(Subscriber)} to run it.</b>
+	 */
+	public void run() {
+		boolean rfOn = false;
+		long idleSince = System.currentTimeMillis();
+		long lastRound = 0;
+		Throwable error = null;
+
+		try {
+			while (running) {
+				TagSubscription[] subs = deliver();
+				boolean ready = subs.length > 0;
+				for (TagSubscription s : subs) {
+					if (s.demand.get() == 0)
+						ready = false;
+				}
+
+				long now = System.currentTimeMillis();
+				if (!ready) {
+					long wait = 0;
+					if (rfOn && rfOffDelay >= 0) {
+						wait = idleSince + rfOffDelay - now;
+						if (wait <= 0) {
+							icReader.rfOnOff(0);
+							rfOn = false;
+							wait = 0;
+						}
+					}
+					await(wait);
+					continue;
+				}
+				if (now - lastRound < pollInterval) {
+					await(lastRound + pollInterval - now);
+					continue;
+				}
+
+				if (!rfOn) {
+					icReader.rfOnOff(1);
+					rfOn = true;
+				}
+				lastRound = now;
+				ArrayList<TagRead> reads = poll(now);
+				rounds++;
+				for (TagSubscription s : subs)
+					s.buffer.addAll(reads);
+				idleSince = System.currentTimeMillis();
+			}
+		} catch (RFReaderException e) {
+			error = e;
+		} finally {
+			synchronized (this) {
+				running = false;
+				closed = true;
+			}
+		}
+
+		TagSubscription[] subs;
+		synchronized (this) {
+			subs = subscriptions;
+			subscriptions = new TagSubscription[0];
+		}
+		for (TagSubscription s : subs) {
+			if (s.cancelled)
+				continue;
+			try {
+				if (error != null)
+					s.subscriber.onError(error);
+				else
+					s.subscriber.onComplete();
+			} catch (RuntimeException e) {
+			}
+		}
+	}
+
+	/**
+	 * Delivers waiting reads to the subscribers with demand and removes the
+	 * cancelled subscriptions.
+	 *
+	 * @return The active subscriptions.
+	 */
+	private TagSubscription[] deliver() {
+		TagSubscription[] subs = subscriptions;
+		boolean removed = false;
+		for (TagSubscription s : subs) {
+			if (s.badRequest && !s.cancelled) {
+				s.cancelled = true;
+				try {
+					s.subscriber.onError(new IllegalArgumentException("Request must be positive"));
+				} catch (RuntimeException e) {
+				}
+			}
+			while (!s.cancelled && !s.buffer.isEmpty() && s.demand.get() > 0) {
+				if (s.demand.get() != Long.MAX_VALUE)
+					s.demand.decrementAndGet();
+				try {
+					s.subscriber.onNext(s.buffer.poll());
+				} catch (RuntimeException e) {
+					// il subscriber ha violato il contratto: lo rimuovo
+					s.cancelled = true;
+					try {
+						s.subscriber.onError(e);
+					} catch (RuntimeException e2) {
+					}
+				}
+			}
+			if (s.cancelled)
+				removed = true;
+		}
+		if (!removed)
+			return subs;
+
+		synchronized (this) {
+			ArrayList<TagSubscription> active = new ArrayList<TagSubscription>();
+			for (TagSubscription s : subscriptions) {
+				if (!s.cancelled)
+					active.add(s);
+			}
+			subscriptions = active.toArray(new TagSubscription[active.size()]);
+			return subscriptions;
+		}
+	}
+
+	/**
+	 * Performs a round on the selected protocols.
+	 */
+	private ArrayList<TagRead> poll(long time) throws RFReaderException {
+		ArrayList<TagRead> reads = new ArrayList<TagRead>();
+		if ((protocols & LabIdReader.RF_ISOProtocol_ISO15693) != 0) {
+			byte[][] uids = icReader.inventory();
+			if (uids != null) {
+				for (byte[] uid : uids)
+					reads.add(new TagRead(LabIdReader.RF_ISOProtocol_ISO15693, uid, time));
+			}
+		}
+		if ((protocols & LabIdReader.RF_ISOProtocol_ISO14443A) != 0) {
+			byte[][] uids = aReader.ShowCards();
+			if (uids != null) {
+				for (byte[] uid : uids)
+					reads.add(new TagRead(LabIdReader.RF_ISOProtocol_ISO14443A, uid, time));
+			}
+		}
+		if ((protocols & LabIdReader.RF_ISOProtocol_ISO14443B) != 0 && stReader.Select()) {
+			byte[] uid = stReader.ReadUID();
+			if (uid != null)
+				reads.add(new TagRead(LabIdReader.RF_ISOProtocol_ISO14443B, uid, time));
+		}
+		return reads;
+	}
+
+	private void wake() {
+		synchronized (lock) {
+			signalled = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits for a request, a cancellation or the timeout (0 = no timeout).
+	 */
+	private void await(long millis) {
+		synchronized (lock) {
+			try {
+				if (!signalled && running)
+					lock.wait(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				running = false;
+			}
+			signalled = false;
+		}
+	}
+}
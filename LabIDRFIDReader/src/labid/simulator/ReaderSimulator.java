@@ -0,0 +1,1253 @@
+package labid.simulator;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import labid.comm.BaudRateControl;
+import labid.comm.DeadlineStream;
+import labid.comm.FrameDecoder;
+import labid.comm.FrameResponder;
+import labid.reader.LabIdReader;
+
+/**
+ * In-process emulation of a LAB ID multi standard reader. The simulator is a
+ * {@link labid.comm.CableStream}: readers built on it send frames with Write and receive the
+ * replies with Read, exactly as with a serial port, so they can be exercised
+ * without hardware:
+ * <pre>
+ * ReaderSimulator sim = new ReaderSimulator();
+ * sim.addTag(SimulatedTag.iso15693(0xE004010012345678L, 28, 4));
+ * ISO15693Reader reader = new ISO15693Reader(sim);
+ * byte[][] uids = reader.inventory();
+ * </pre>
+ * Emulated commands:
+ * <ul>
+ * <li>reader (0x00): UID 0x01, version 0x65, RF reset 0x69, RF on/off 0x6A,
+ * configuration 0x80/0x81/0x83, beep 0xBE, I/O pins 0x50/0x51/0x53, tag events 0xE0;</li>
+ * <li>ISO15693 (0xB0): inventory, stay quiet, select, reset to ready, read, write,
+ * lock blocks, AFI and DSFID, system information, block security status;
+ * custom commands (0xB1): EAS set/reset/lock/alarm;</li>
+ * <li>ISO14443A (0xA0): REQA/WUPA, anticollision, ActivateIdleA 0x90,
+ * ActivateWakeupA 0x91, ShowCards 0xD0, HaltA, authentication (any key is
+ * accepted), Read16/Write16/Write4, value operations, exchange and RATS;</li>
+ * <li>Mifare macros (0x04): Ultralight/Ultralight C read and write, sector
+ * read/write and sector trailers initialization;</li>
+ * <li>ST ISO14443B (0xC1): select, UID, read, write, completion, protection.</li>
+ * </ul>
+ * Unknown commands are answered with a format error. <br/>
+ * Replies are delivered with a programmable latency (per command, plus a time
+ * per tag found by inventories and per block read or written) and with the
+ * timing of a serial line at the configured baud rate (10 bits per byte). With
+ * baud rate 0 and no latency the replies are available immediately. <br/>
+ * Replies can be lost or corrupted on purpose (see {@link #loseReplies(int, int)}
+ * and {@link #corruptReplies(int, int)}) to exercise the recovery of the readers. <br/>
+ * The simulator can also be used as the {@link FrameResponder} of a
+ * {@link labid.comm.ReaderServer}; in that case timing and tag events are not
+ * emulated.
+ */
+public class ReaderSimulator implements DeadlineStream, BaudRateControl, FrameResponder {
+
+	public static final byte STATUS_OK = 0x00;
+	public static final byte STATUS_NO_TRANSPONDER = 0x01;
+	public static final byte STATUS_WRITE = 0x03;
+	public static final byte STATUS_FORMAT = 0x04;
+	public static final byte STATUS_COLLISION = 0x0B;
+	public static final byte STATUS_ISO = (byte) 0x95;
+
+	/** Maximum number of UIDs in an inventory reply (the frame is limited to 511 bytes) */
+	public static final int MAX_INVENTORY_TAGS = 50;
+
+	private static final int N_REGISTERS = 9;
+
+	/**
+	 * A reply frame waiting to be read.
+	 */
+	private static class Pending {
+		final byte[] data;
+		final long start;
+		int pos = 0;
+
+		Pending(byte[] data, long start) {
+			this.data = data;
+			this.start = start;
+		}
+	}
+
+	private final List<SimulatedTag> field = new ArrayList<SimulatedTag>();
+
+	private final byte[] readerUid = { 0x4C, 0x41, 0x42, 0x01 };
+	private final byte[] version = { 0x02, 0x03, 0x10, 0x01, 0x01 };
+	private final byte[] registers = new byte[N_REGISTERS];
+	private byte outputPins = 0;
+	private byte inputPins = 0;
+	private boolean rfOn = true;
+
+	/** protocolli per cui e' attiva la notifica (0 = nessuno) */
+	private int eventMask = 0;
+	/** il campo e' stato vuoto dopo l'attivazione della notifica */
+	private boolean eventFieldEmpty = false;
+
+	private int baudrate;
+	private long byteNanos;
+	private long defaultLatencyNanos = 0;
+	private long inventoryNanosPerTag = 0;
+	private long blockNanos = 0;
+	private final HashMap<Integer, Long> latencies = new HashMap<Integer, Long>();
+	private long extraNanos;
+
+	private final FrameDecoder decoder = new FrameDecoder();
+	private final byte[] request = new byte[FrameDecoder.MAX_FRAME_LENGTH + 1];
+	private final byte[] reply = new byte[FrameDecoder.MAX_FRAME_LENGTH + 1];
+	private final byte[] frame = new byte[FrameDecoder.MAX_FRAME_LENGTH + 1];
+	private final ArrayDeque<Pending> output = new ArrayDeque<Pending>();
+	private long lineFreeAt = 0;
+
+	private int timeout = 2000;
+	private boolean closed = false;
+	private long commands = 0;
+
+	/** risposte da inviare regolarmente prima dei guasti */
+	private int faultSkip = 0;
+	/** risposte ancora da perdere o alterare */
+	private int faultCount = 0;
+	private boolean faultCorrupt;
+
+	/**
+	 * Creates a simulator at 115200 baud, with no latency and no tags.
+	 */
+	public ReaderSimulator() {
+		setBaudRate(115200);
+		setDefaultConfiguration();
+	}
+
+	/*--------------------------------------------------------------------------
+	 * Configuration
+	 *------------------------------------------------------------------------*/
+
+	/**
+	 * Sets the speed of the emulated serial line.
+	 *
+	 * @param baudrate Bits per second, 0 to deliver replies with no transmission time.
+	 */
+	public synchronized void setBaudRate(int baudrate) {
+		this.baudrate = baudrate;
+		this.byteNanos = (baudrate > 0) ? 10000000000L / baudrate : 0;
+	}
+
+	public synchronized int getBaudRate() {
+		return baudrate;
+	}
+
+	/**
+	 * Sets the processing time of the commands which do not have a specific latency.
+	 */
+	public synchronized void setDefaultLatency(int micros) {
+		this.defaultLatencyNanos = micros * 1000L;
+	}
+
+	/**
+	 * Sets the processing time of a command.
+	 *
+	 * @param control Control byte (ex. 0xB0 for ISO15693 commands).
+	 * @param command Command code (ex. 0x23 for ISO15693 read). For custom ISO15693
+	 * (0xB1) and ST (0xC1) commands it is the code of the custom command.
+	 */
+	public synchronized void setCommandLatency(int control, int command, int micros) {
+		latencies.put(((control & 0xFF) << 8) | (command & 0xFF), micros * 1000L);
+	}
+
+	/**
+	 * Sets the additional time of an inventory for each tag found.
+	 */
+	public synchronized void setInventoryTimePerTag(int micros) {
+		this.inventoryNanosPerTag = micros * 1000L;
+	}
+
+	/**
+	 * Sets the additional time of ISO15693 reads and writes of multiple blocks
+	 * for each block transferred.
+	 */
+	public synchronized void setBlockTime(int micros) {
+		this.blockNanos = micros * 1000L;
+	}
+
+	/**
+	 * Sets the maximum time Read waits for a reply.
+	 *
+	 * @param ReceiveTimeout Timeout in ms, 0 for no time limit.
+	 */
+	public synchronized void SetTimeout(int ReceiveTimeout) {
+		this.timeout = ReceiveTimeout;
+	}
+
+	/**
+	 * Number of valid command frames received.
+	 */
+	public synchronized long getCommandCount() {
+		return commands;
+	}
+
+	/**
+	 * Loses replies, as if their frames were lost on the line: the replies of
+	 * the next skip commands are sent, then those of the following count
+	 * commands are not. The commands are executed anyway. Replaces the faults
+	 * still pending.
+	 */
+	public synchronized void loseReplies(int skip, int count) {
+		faultSkip = skip;
+		faultCount = count;
+		faultCorrupt = false;
+	}
+
+	/**
+	 * Alters replies, as if a bit were flipped on the line so that their CRC
+	 * does not match: the replies of the next skip commands are sent
+	 * correctly, then those of the following count commands are corrupted.
+	 * Replaces the faults still pending.
+	 */
+	public synchronized void corruptReplies(int skip, int count) {
+		faultSkip = skip;
+		faultCount = count;
+		faultCorrupt = true;
+	}
+
+	/*--------------------------------------------------------------------------
+	 * Tag population
+	 *------------------------------------------------------------------------*/
+
+	/**
+	 * Puts a tag in the RF field. If the tag event notification is active, the
+	 * tag can generate an event.
+	 */
+	public synchronized void addTag(SimulatedTag tag) {
+		tag.state = SimulatedTag.STATE_READY;
+		field.add(tag);
+		if (eventMask != 0 && eventFieldEmpty && (tag.protocol & eventMask) != 0 && rfOn)
+			sendEvent(tag.protocol);
+	}
+
+	/**
+	 * Removes a tag from the RF field.
+	 */
+	public synchronized void removeTag(SimulatedTag tag) {
+		field.remove(tag);
+		if (eventMask != 0 && !hasTags(eventMask))
+			eventFieldEmpty = true;
+	}
+
+	/**
+	 * Removes all tags from the RF field.
+	 */
+	public synchronized void clearTags() {
+		field.clear();
+		if (eventMask != 0)
+			eventFieldEmpty = true;
+	}
+
+	/**
+	 * A copy of the list of tags in the RF field.
+	 */
+	public synchronized List<SimulatedTag> getTags() {
+		return new ArrayList<SimulatedTag>(field);
+	}
+
+	/*--------------------------------------------------------------------------
+	 * CableStream
+	 *------------------------------------------------------------------------*/
+
+	public synchronized void Close() throws IOException {
+		closed = true;
+		output.clear();
+		notifyAll();
+	}
+
+	public synchronized void Write(byte[] buffer, int offset, int count) throws IOException {
+		if (closed)
+			throw new IOException("Simulator closed");
+		long now = System.nanoTime();
+		while (count > 0) {
+			int n = decoder.put(buffer, offset, count);
+			offset += n;
+			count -= n;
+			int len;
+			while ((len = decoder.poll(request, 0)) > 0) {
+				// la risposta inizia dopo la ricezione del comando e l'elaborazione
+				long received = now + (long) len * byteNanos;
+				extraNanos = 0;
+				int replyLen = respond(request, 2, len - 4, reply);
+				if (replyLen == 0)
+					continue;
+				boolean fault = fault();
+				if (fault && !faultCorrupt)
+					continue; // risposta persa
+				schedule(reply, replyLen, received + latencyOf(request, 2) + extraNanos);
+				if (fault)
+					output.peekLast().data[4] ^= 0x01; // il CRC non corrisponde piu'
+			}
+		}
+	}
+
+	public void Write(byte[] buffer) throws IOException {
+		Write(buffer, 0, buffer.length);
+	}
+
+	/**
+	 * Reads the reply bytes which have already been "transmitted" by the simulator.
+	 *
+	 * @return Number of read bytes, 0 if the timeout has expired, -1 if the
+	 * simulator has been closed.
+	 */
+	public synchronized int Read(byte[] buffer, int offset, int count) throws IOException {
+		return read(buffer, offset, count, System.nanoTime() + timeout * 1000000L, timeout == 0);
+	}
+
+	/**
+	 * Reads the reply bytes which have already been "transmitted" by the
+	 * simulator, waiting at most until the deadline.
+	 *
+	 * @return Number of read bytes, 0 if the deadline has passed, -1 if the
+	 * simulator has been closed.
+	 */
+	public synchronized int Read(byte[] buffer, int offset, int count, long deadline) throws IOException {
+		return read(buffer, offset, count, deadline, false);
+	}
+
+	private int read(byte[] buffer, int offset, int count, long deadline, boolean forever) throws IOException {
+		while (true) {
+			if (closed)
+				return -1;
+			long now = System.nanoTime();
+			int done = 0;
+			long next = Long.MAX_VALUE;
+			while (done < count && !output.isEmpty()) {
+				Pending p = output.peek();
+				// la latenza vale anche senza tempo di trasmissione (baud rate 0)
+				int arrived = (now < p.start) ? 0
+						: (byteNanos == 0 || now >= p.start + p.data.length * byteNanos) ? p.data.length
+						: (int) ((now - p.start) / byteNanos) + 1;
+				int n = Math.min(arrived - p.pos, count - done);
+				if (n > 0) {
+					System.arraycopy(p.data, p.pos, buffer, offset + done, n);
+					p.pos += n;
+					done += n;
+				}
+				if (p.pos < p.data.length) {
+					next = p.start + p.pos * byteNanos;
+					break;
+				}
+				output.poll();
+			}
+			if (done > 0)
+				return done;
+
+			long wait = (forever ? next : Math.min(next, deadline)) - now;
+			if (forever && next == Long.MAX_VALUE)
+				wait = Long.MAX_VALUE;
+			else if (wait <= 0) {
+				if (now >= deadline && !forever)
+					return 0;
+				continue;
+			}
+			try {
+				if (wait == Long.MAX_VALUE)
+					wait();
+				else
+					wait(wait / 1000000L, (int) (wait % 1000000L));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the simulator");
+			}
+		}
+	}
+
+	public int Read(byte[] buffer) throws IOException {
+		return Read(buffer, 0, buffer.length);
+	}
+
+	private long latencyOf(byte[] r, int o) {
+		int ctrl = r[o] & 0xFF;
+		int cmd = ((ctrl == 0xB1 || ctrl == 0xC1) ? r[o + 2] : r[o + 1]) & 0xFF;
+		Long l = latencies.get((ctrl << 8) | cmd);
+		return (l != null) ? l.longValue() : defaultLatencyNanos;
+	}
+
+	/**
+	 * Tells if the reply about to be sent must be lost or corrupted.
+	 */
+	private boolean fault() {
+		if (faultCount == 0)
+			return false;
+		if (faultSkip > 0) {
+			faultSkip--;
+			return false;
+		}
+		faultCount--;
+		return true;
+	}
+
+	private void schedule(byte[] content, int len, long readyAt) {
+		int frameLen = FrameDecoder.encode(content, 0, len, frame, 0);
+		byte[] data = new byte[frameLen];
+		System.arraycopy(frame, 0, data, 0, frameLen);
+		long start = Math.max(readyAt, lineFreeAt);
+		lineFreeAt = start + frameLen * byteNanos;
+		output.add(new Pending(data, start));
+		notifyAll();
+	}
+
+	private void sendEvent(int protocol) {
+		byte ctrl;
+		switch (protocol) {
+			case LabIdReader.RF_ISOProtocol_ISO14443A:
+				ctrl = (byte) 0xA0;
+				break;
+			case LabIdReader.RF_ISOProtocol_ISO14443B:
+				ctrl = (byte) 0xC0;
+				break;
+			case LabIdReader.RF_ISOProtocol_EPC:
+				ctrl = (byte) 0xD0;
+				break;
+			default:
+				ctrl = (byte) 0xB0;
+				break;
+		}
+		byte[] event = { 0x00, (byte) 0xE0, STATUS_OK, ctrl };
+		eventMask = 0;
+		schedule(event, event.length, System.nanoTime() + defaultLatencyNanos);
+	}
+
+	/*--------------------------------------------------------------------------
+	 * Firmware
+	 *------------------------------------------------------------------------*/
+
+	/**
+	 * Executes a command and builds its reply.
+	 */
+	public synchronized int respond(byte[] r, int o, int len, byte[] out) {
+		commands++;
+		if (len < 2)
+			return status(out, r[o], (byte) 0, STATUS_FORMAT);
+		out[0] = r[o];
+		out[1] = r[o + 1];
+		try {
+			switch (r[o] & 0xFF) {
+				case 0x00:
+					return readerCommand(r, o, len, out);
+				case 0xB0:
+					return iso15693Command(r, o, len, out);
+				case 0xB1:
+					return iso15693Custom(r, o, len, out);
+				case 0xA0:
+					return iso14443Command(r, o, len, out);
+				case 0x04:
+					return mifareMacro(r, o, len, out);
+				case 0xC1:
+					return stCommand(r, o, len, out);
+				default:
+					return status(out, STATUS_FORMAT);
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			// comando troppo corto per i suoi parametri
+			return status(out, r[o], r[o + 1], STATUS_FORMAT);
+		}
+	}
+
+	private static int status(byte[] out, byte status) {
+		out[2] = status;
+		return 3;
+	}
+
+	private static int status(byte[] out, byte ctrl, byte cmd, byte status) {
+		out[0] = ctrl;
+		out[1] = cmd;
+		out[2] = status;
+		return 3;
+	}
+
+	private static void checkLength(int len, int min) {
+		if (len < min)
+			throw new ArrayIndexOutOfBoundsException();
+	}
+
+	private void setDefaultConfiguration() {
+		for (int i = 0; i < N_REGISTERS; i++)
+			registers[i] = 0;
+		registers[0] = 0x02; // high data rate
+		registers[3] = (byte) 0xA0; // protocollo di default
+		registers[5] = 115; // 115200 baud
+	}
+
+	private void resetField() {
+		for (SimulatedTag tag : field)
+			tag.state = SimulatedTag.STATE_READY;
+	}
+
+	private boolean hasTags(int protocolMask) {
+		for (SimulatedTag tag : field) {
+			if ((tag.protocol & protocolMask) != 0)
+				return true;
+		}
+		return false;
+	}
+
+	private int readerCommand(byte[] r, int o, int len, byte[] out) {
+		switch (r[o + 1] & 0xFF) {
+			case 0x01: // reader uid
+				System.arraycopy(readerUid, 0, out, 3, 4);
+				out[2] = STATUS_OK;
+				return 7;
+			case 0x65: // software version
+				System.arraycopy(version, 0, out, 3, 5);
+				out[2] = STATUS_OK;
+				return 8;
+			case 0x69: // rf reset
+				resetField();
+				rfOn = true;
+				return status(out, STATUS_OK);
+			case 0x6A: // rf on/off
+				checkLength(len, 3);
+				rfOn = (r[o + 2] != 0);
+				if (!rfOn)
+					resetField(); // i tag non alimentati perdono lo stato
+				return status(out, STATUS_OK);
+			case 0x80: // read configuration
+				System.arraycopy(registers, 0, out, 3, N_REGISTERS);
+				out[2] = STATUS_OK;
+				return 3 + N_REGISTERS;
+			case 0x81: // write configuration
+				checkLength(len, 5);
+				if ((r[o + 3] & 0xFF) >= N_REGISTERS)
+					return status(out, STATUS_FORMAT);
+				registers[r[o + 3] & 0xFF] = r[o + 4];
+				return status(out, STATUS_OK);
+			case 0x83: // default configuration
+				setDefaultConfiguration();
+				return status(out, STATUS_OK);
+			case 0xBE: // beep
+				return status(out, STATUS_OK);
+			case 0x53: // input pins
+				out[2] = STATUS_OK;
+				out[3] = inputPins;
+				return 4;
+			case 0x51: // set output pins
+				checkLength(len, 3);
+				outputPins |= r[o + 2];
+				return status(out, STATUS_OK);
+			case 0x50: // clear output pins
+				checkLength(len, 3);
+				outputPins &= ~r[o + 2];
+				return status(out, STATUS_OK);
+			case 0xE0: // tag events
+				checkLength(len, 3);
+				eventMask = r[o + 2] & 0x0F;
+				if (eventMask == 0)
+					return status(out, STATUS_OK); // conferma dello stop
+				// l'evento arriva solo dopo che il campo e' stato vuoto
+				eventFieldEmpty = !hasTags(eventMask);
+				return 0;
+			default:
+				return status(out, STATUS_FORMAT);
+		}
+	}
+
+	/*--------------------------------------------------------------------------
+	 * ISO15693
+	 *------------------------------------------------------------------------*/
+
+	private SimulatedTag find(int protocol, byte[] r, int offset, int len) {
+		for (SimulatedTag tag : field) {
+			if (tag.protocol == protocol && tag.matches(r, offset, len))
+				return tag;
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the tag which answers an ISO15693 command according to its flags.
+	 * Returns null and sets the status in out if no tag (or more than one) answers.
+	 */
+	private SimulatedTag iso15693Target(int flags, byte[] r, int uidOffset, byte[] out) {
+		if (!rfOn) {
+			status(out, STATUS_NO_TRANSPONDER);
+			return null;
+		}
+		SimulatedTag target = null;
+		if ((flags & 0x20) != 0) {
+			target = find(LabIdReader.RF_ISOProtocol_ISO15693, r, uidOffset, 8);
+		} else if ((flags & 0x10) != 0) {
+			for (SimulatedTag tag : field) {
+				if (tag.protocol == LabIdReader.RF_ISOProtocol_ISO15693 && tag.state == SimulatedTag.STATE_SELECTED)
+					target = tag;
+			}
+		} else {
+			for (SimulatedTag tag : field) {
+				if (tag.protocol == LabIdReader.RF_ISOProtocol_ISO15693 && tag.state != SimulatedTag.STATE_QUIET) {
+					if (target != null) {
+						status(out, STATUS_COLLISION);
+						return null;
+					}
+					target = tag;
+				}
+			}
+		}
+		if (target == null)
+			status(out, STATUS_NO_TRANSPONDER);
+		return target;
+	}
+
+	private int isoError(byte[] out, int code) {
+		out[2] = STATUS_ISO;
+		out[3] = (byte) code;
+		return 4;
+	}
+
+	private int iso15693Command(byte[] r, int o, int len, byte[] out) {
+		checkLength(len, 3);
+		int cmd = r[o + 1] & 0xFF;
+		int flags = r[o + 2] & 0xFF;
+
+		if (cmd == 0x01)
+			return inventory(r, o, len, flags, out);
+
+		boolean addressed = (flags & 0x20) != 0;
+		int p = o + 3;
+		if (addressed)
+			checkLength(len, 11);
+		SimulatedTag tag = iso15693Target(flags, r, p, out);
+		if (tag == null)
+			return 3;
+		if (addressed)
+			p += 8;
+		int end = o + len;
+
+		switch (cmd) {
+			case 0x02: // stay quiet
+				tag.state = SimulatedTag.STATE_QUIET;
+				return status(out, STATUS_OK);
+
+			case 0x25: // select
+				for (SimulatedTag t : field) {
+					if (t.state == SimulatedTag.STATE_SELECTED && t.protocol == LabIdReader.RF_ISOProtocol_ISO15693)
+						t.state = SimulatedTag.STATE_READY;
+				}
+				tag.state = SimulatedTag.STATE_SELECTED;
+				return status(out, STATUS_OK);
+
+			case 0x26: // reset to ready
+				tag.state = SimulatedTag.STATE_READY;
+				return status(out, STATUS_OK);
+
+			case 0x23: { // read multiple blocks
+				checkLength(end - p, 2);
+				int first = r[p] & 0xFF;
+				int n = r[p + 1] & 0xFF;
+				if (n == 0 || first + n > tag.getBlockCount())
+					return isoError(out, 0x10);
+				extraNanos = n * blockNanos;
+				boolean security = (flags & 0x40) != 0;
+				int bs = tag.blockSize;
+				if (3 + 2 + n * (bs + (security ? 1 : 0)) > out.length - 6)
+					return status(out, STATUS_FORMAT);
+				out[2] = STATUS_OK;
+				out[3] = (byte) n;
+				out[4] = (byte) bs;
+				int q = 5;
+				for (int b = first; b < first + n; b++) {
+					if (security)
+						out[q++] = tag.blockStatus[b];
+					System.arraycopy(tag.memory, b * bs, out, q, bs);
+					q += bs;
+				}
+				return q;
+			}
+
+			case 0x24: { // write multiple blocks
+				checkLength(end - p, 3);
+				int first = r[p] & 0xFF;
+				int n = r[p + 1] & 0xFF;
+				int bs = r[p + 2] & 0xFF;
+				if (bs != tag.blockSize || first + n > tag.getBlockCount())
+					return isoError(out, 0x10);
+				extraNanos = n * blockNanos;
+				checkLength(end - p, 3 + n * bs);
+				for (int i = 0; i < n; i++) {
+					if (tag.blockStatus[first + i] != 0) {
+						out[2] = STATUS_WRITE;
+						out[3] = (byte) (first + i);
+						return 4;
+					}
+					System.arraycopy(r, p + 3 + i * bs, tag.memory, (first + i) * bs, bs);
+				}
+				return status(out, STATUS_OK);
+			}
+
+			case 0x22: { // lock blocks
+				checkLength(end - p, 2);
+				int first = r[p] & 0xFF;
+				int n = r[p + 1] & 0xFF;
+				if (first + n > tag.getBlockCount())
+					return isoError(out, 0x10);
+				for (int i = first; i < first + n; i++) {
+					if (tag.blockStatus[i] == 0)
+						tag.blockStatus[i] = 1;
+				}
+				return status(out, STATUS_OK);
+			}
+
+			case 0x27: // write AFI
+				checkLength(end - p, 1);
+				if (tag.afiLocked)
+					return isoError(out, 0x12);
+				tag.afi = r[p];
+				return status(out, STATUS_OK);
+
+			case 0x28: // lock AFI
+				tag.afiLocked = true;
+				return status(out, STATUS_OK);
+
+			case 0x29: // write DSFID
+				checkLength(end - p, 1);
+				if (tag.dsfidLocked)
+					return isoError(out, 0x12);
+				tag.dsfid = r[p];
+				return status(out, STATUS_OK);
+
+			case 0x2A: // lock DSFID
+				tag.dsfidLocked = true;
+				return status(out, STATUS_OK);
+
+			case 0x2B: // system information
+				out[2] = STATUS_OK;
+				out[3] = 0x0F; // dsfid, afi, memoria e ic reference presenti
+				System.arraycopy(tag.uid, 0, out, 4, 8);
+				out[12] = tag.dsfid;
+				out[13] = tag.afi;
+				out[14] = (byte) (tag.getBlockCount() - 1);
+				out[15] = (byte) ((tag.blockSize - 1) & 0x1F);
+				out[16] = tag.icReference;
+				return 17;
+
+			case 0x2C: { // block security status
+				checkLength(end - p, 2);
+				int first = r[p] & 0xFF;
+				int n = r[p + 1] & 0xFF;
+				if (first + n > tag.getBlockCount())
+					return isoError(out, 0x10);
+				out[2] = STATUS_OK;
+				out[3] = (byte) n;
+				System.arraycopy(tag.blockStatus, first, out, 4, n);
+				return 4 + n;
+			}
+
+			default:
+				return status(out, STATUS_FORMAT);
+		}
+	}
+
+	private int inventory(byte[] r, int o, int len, int flags, byte[] out) {
+		rfOn = true; // l'inventory accende il campo
+		boolean useOptions = (flags & 0x80) != 0;
+		boolean afiEnabled = useOptions ? (flags & 0x02) != 0 : (registers[1] & 0x10) != 0;
+		int afi = (afiEnabled && useOptions && len > 3) ? r[o + 3] : 0;
+		boolean stayQuiet = (flags & 0x01) != 0;
+
+		int n = 0;
+		int q = 6;
+		for (SimulatedTag tag : field) {
+			if (n == MAX_INVENTORY_TAGS)
+				break;
+			if (tag.protocol != LabIdReader.RF_ISOProtocol_ISO15693 || tag.state == SimulatedTag.STATE_QUIET)
+				continue;
+			if (afiEnabled && !tag.matchesAfi(afi))
+				continue;
+			out[q - 2] = 0x00; // flag della risposta
+			out[q - 1] = tag.dsfid;
+			System.arraycopy(tag.uid, 0, out, q, 8);
+			q += 10;
+			n++;
+			if (stayQuiet)
+				tag.state = SimulatedTag.STATE_QUIET;
+		}
+		extraNanos = n * inventoryNanosPerTag;
+		if (n == 0)
+			return status(out, STATUS_NO_TRANSPONDER);
+		out[2] = STATUS_OK;
+		out[3] = (byte) n;
+		return q - 2;
+	}
+
+	private int iso15693Custom(byte[] r, int o, int len, byte[] out) {
+		checkLength(len, 4);
+		int flags = r[o + 1] & 0xFF;
+		int cmd = r[o + 2] & 0xFF;
+		out[1] = (byte) cmd;
+		if ((flags & 0x20) != 0)
+			checkLength(len, 12);
+		SimulatedTag tag;
+
+		if (cmd == 0xA5 && (flags & 0x30) == 0) {
+			// EAS alarm non indirizzato: risponde qualunque tag con EAS attivo
+			tag = null;
+			for (SimulatedTag t : field) {
+				if (t.protocol == LabIdReader.RF_ISOProtocol_ISO15693 && t.state != SimulatedTag.STATE_QUIET && t.eas)
+					tag = t;
+			}
+			if (tag == null || !rfOn)
+				return status(out, STATUS_NO_TRANSPONDER);
+		} else {
+			tag = iso15693Target(flags, r, o + 4, out);
+			if (tag == null)
+				return 3;
+		}
+
+		switch (cmd) {
+			case 0xA2: // EAS set
+			case 0xA3: // EAS reset
+				if (tag.easLocked)
+					return isoError(out, 0x12);
+				tag.eas = (cmd == 0xA2);
+				return status(out, STATUS_OK);
+			case 0xA4: // EAS lock
+				tag.easLocked = true;
+				return status(out, STATUS_OK);
+			case 0xA5: // EAS alarm
+				if (!tag.eas)
+					return status(out, STATUS_NO_TRANSPONDER);
+				out[2] = STATUS_OK;
+				out[3] = 0x00;
+				for (int i = 0; i < 32; i++)
+					out[4 + i] = (byte) ((i & 1) == 0 ? 0xAA : 0x55);
+				return 36;
+			default:
+				return status(out, STATUS_FORMAT);
+		}
+	}
+
+	/*--------------------------------------------------------------------------
+	 * ISO14443A and Mifare
+	 *------------------------------------------------------------------------*/
+
+	private SimulatedTag activeA() {
+		for (SimulatedTag tag : field) {
+			if (tag.protocol == LabIdReader.RF_ISOProtocol_ISO14443A && tag.state == SimulatedTag.STATE_SELECTED)
+				return tag;
+		}
+		return null;
+	}
+
+	/**
+	 * Activates the first tag in idle state (or also halted, if wakeUp).
+	 */
+	private SimulatedTag activateA(boolean wakeUp) {
+		if (!rfOn)
+			return null;
+		SimulatedTag active = activeA();
+		if (active != null)
+			active.state = SimulatedTag.STATE_READY;
+		for (SimulatedTag tag : field) {
+			if (tag.protocol != LabIdReader.RF_ISOProtocol_ISO14443A)
+				continue;
+			if (tag.state == SimulatedTag.STATE_READY || (wakeUp && tag.state == SimulatedTag.STATE_HALT)) {
+				tag.state = SimulatedTag.STATE_SELECTED;
+				return tag;
+			}
+		}
+		return null;
+	}
+
+	private int cardInfo(SimulatedTag tag, byte[] out) {
+		out[2] = STATUS_OK;
+		System.arraycopy(tag.uid, 0, out, 3, tag.uid.length);
+		int q = 3 + tag.uid.length;
+		out[q++] = tag.atqa[0];
+		out[q++] = tag.atqa[1];
+		out[q++] = tag.sak;
+		return q;
+	}
+
+	private int uidReply(SimulatedTag tag, byte[] out) {
+		out[2] = STATUS_OK;
+		out[3] = (byte) tag.uid.length;
+		System.arraycopy(tag.uid, 0, out, 4, tag.uid.length);
+		return 4 + tag.uid.length;
+	}
+
+	private int iso14443Command(byte[] r, int o, int len, byte[] out) {
+		int cmd = r[o + 1] & 0xFF;
+		SimulatedTag tag;
+
+		switch (cmd) {
+			case 0x90: // activate idle
+				tag = activateA(false);
+				return (tag == null) ? status(out, STATUS_NO_TRANSPONDER) : cardInfo(tag, out);
+
+			case 0x91: { // activate wake up
+				tag = find(LabIdReader.RF_ISOProtocol_ISO14443A, r, o + 2, len - 2);
+				if (tag == null || !rfOn)
+					return status(out, STATUS_NO_TRANSPONDER);
+				SimulatedTag active = activeA();
+				if (active != null)
+					active.state = SimulatedTag.STATE_READY;
+				tag.state = SimulatedTag.STATE_SELECTED;
+				return cardInfo(tag, out);
+			}
+
+			case 0xD0: { // show cards
+				int n = 0;
+				int q = 4;
+				for (SimulatedTag t : field) {
+					if (t.protocol != LabIdReader.RF_ISOProtocol_ISO14443A || t.state == SimulatedTag.STATE_HALT)
+						continue;
+					if (q + 1 + t.uid.length > out.length - 6)
+						break;
+					out[q++] = (byte) t.uid.length;
+					System.arraycopy(t.uid, 0, out, q, t.uid.length);
+					q += t.uid.length;
+					n++;
+				}
+				if (n == 0 || !rfOn)
+					return status(out, STATUS_NO_TRANSPONDER);
+				out[2] = STATUS_OK;
+				out[3] = (byte) n;
+				return q;
+			}
+
+			case 0x26: // REQA
+			case 0x52: // WUPA
+				for (SimulatedTag t : field) {
+					if (t.protocol == LabIdReader.RF_ISOProtocol_ISO14443A && rfOn
+							&& (t.state == SimulatedTag.STATE_READY || (cmd == 0x52 && t.state == SimulatedTag.STATE_HALT))) {
+						out[2] = STATUS_OK;
+						out[3] = t.atqa[0];
+						out[4] = t.atqa[1];
+						return 5;
+					}
+				}
+				return status(out, STATUS_NO_TRANSPONDER);
+
+			case 0x93: // anticollision / select cascade level 1
+				checkLength(len, 3);
+				tag = (r[o + 2] == 0x70) ? find(LabIdReader.RF_ISOProtocol_ISO14443A, r, o + 3, 4) : activateA(false);
+				if (tag == null)
+					return status(out, STATUS_NO_TRANSPONDER);
+				out[2] = STATUS_OK;
+				if (r[o + 2] == 0x70) {
+					out[3] = tag.sak;
+					return 4;
+				}
+				if (tag.uid.length == 4)
+					System.arraycopy(tag.uid, 0, out, 3, 4);
+				else {
+					out[3] = (byte) 0x88; // cascade tag
+					System.arraycopy(tag.uid, 0, out, 4, 3);
+				}
+				return 7;
+		}
+
+		tag = activeA();
+		if (tag == null)
+			return status(out, STATUS_NO_TRANSPONDER);
+
+		switch (cmd) {
+			case 0x50: // halt
+				tag.state = SimulatedTag.STATE_HALT;
+				return status(out, STATUS_OK);
+
+			case 0x60: // authentication key A
+			case 0x61: // authentication key B
+			case 0x0B: // load key
+			case 0x0C: // store key
+			case 0x19:
+				return status(out, STATUS_OK);
+
+			case 0x30: { // read 16 bytes
+				checkLength(len, 3);
+				int page = r[o + 2] & 0xFF;
+				if (page >= tag.getBlockCount())
+					return status(out, STATUS_FORMAT);
+				out[2] = STATUS_OK;
+				int start = page * tag.blockSize;
+				for (int i = 0; i < 16; i++)
+					out[3 + i] = tag.memory[(start + i) % tag.memory.length]; // gli Ultralight ricominciano da 0
+				return 19;
+			}
+
+			case 0xA0: // write 16 bytes
+			case 0xA2: { // write 4 bytes
+				int size = (cmd == 0xA0) ? 16 : 4;
+				checkLength(len, 3 + size);
+				int block = r[o + 2] & 0xFF;
+				int start = block * tag.blockSize;
+				if (block >= tag.getBlockCount() || start + Math.min(size, tag.blockSize) > tag.memory.length)
+					return status(out, STATUS_WRITE);
+				System.arraycopy(r, o + 3, tag.memory, start, Math.min(size, tag.blockSize));
+				return status(out, STATUS_OK);
+			}
+
+			case 0xC0: // decrement
+			case 0xC1: { // increment
+				checkLength(len, 8);
+				int block = r[o + 3] & 0xFF;
+				if (block >= tag.getBlockCount() || tag.blockSize != 16)
+					return status(out, STATUS_WRITE);
+				int amount = (r[o + 4] & 0xFF) | ((r[o + 5] & 0xFF) << 8) | ((r[o + 6] & 0xFF) << 16) | ((r[o + 7] & 0xFF) << 24);
+				int at = block * 16;
+				int value = (tag.memory[at] & 0xFF) | ((tag.memory[at + 1] & 0xFF) << 8)
+						| ((tag.memory[at + 2] & 0xFF) << 16) | ((tag.memory[at + 3] & 0xFF) << 24);
+				value = (cmd == 0xC1) ? value + amount : value - amount;
+				for (int i = 0; i < 4; i++)
+					tag.memory[at + i] = (byte) (value >> (8 * i));
+				return status(out, STATUS_OK);
+			}
+
+			case 0xB0: // transfer
+				return status(out, STATUS_OK);
+
+			case 0xD1: // exchange ISO14443-3
+			case 0xD2: { // exchange ISO14443-4
+				checkLength(len, 3);
+				int n = Math.min(r[o + 2] & 0xFF, len - 3);
+				out[2] = STATUS_OK;
+				out[3] = (byte) n;
+				System.arraycopy(r, o + 3, out, 4, n); // eco dei dati
+				return 4 + n;
+			}
+
+			case 0xE0: { // RATS
+				byte[] ats = { 0x05, 0x78, (byte) 0x80, 0x70, 0x02 };
+				out[2] = STATUS_OK;
+				System.arraycopy(ats, 0, out, 3, ats.length);
+				return 3 + ats.length;
+			}
+
+			default:
+				return status(out, STATUS_FORMAT);
+		}
+	}
+
+	private int mifareMacro(byte[] r, int o, int len, byte[] out) {
+		int cmd = r[o + 1] & 0xFF;
+		SimulatedTag tag;
+
+		if (cmd == 0x23 || cmd == 0x24) {
+			checkLength(len, 5);
+			int options = r[o + 2];
+			if ((options & 0x02) != 0)
+				resetField();
+			tag = ((options & 0x01) != 0) ? activeA() : activateA(false);
+		} else
+			tag = activateA(false);
+		if (tag == null)
+			return status(out, STATUS_NO_TRANSPONDER);
+
+		switch (cmd) {
+			case 0x22: // read ultralight
+				if (tag.mifareType != SimulatedTag.MIFARE_ULTRALIGHT && tag.mifareType != SimulatedTag.MIFARE_ULTRALIGHT_C)
+					return status(out, STATUS_FORMAT);
+				out[2] = STATUS_OK;
+				System.arraycopy(tag.memory, 0, out, 3, 64);
+				return 67;
+
+			case 0x24: { // read ultralight C
+				int first = r[o + 3] & 0xFF;
+				int n = r[o + 4] & 0xFF;
+				if (tag.blockSize != 4 || first + n > tag.getBlockCount())
+					return status(out, STATUS_FORMAT);
+				out[2] = STATUS_OK;
+				System.arraycopy(tag.memory, first * 4, out, 3, n * 4);
+				return 3 + n * 4;
+			}
+
+			case 0x21: { // write ultralight
+				checkLength(len, 4);
+				int mask = (r[o + 2] & 0xFF) | ((r[o + 3] & 0xFF) << 8);
+				int p = o + 4;
+				for (int page = 0; page < 16; page++) {
+					if ((mask & (1 << page)) == 0)
+						continue;
+					checkLength(o + len - p, 4);
+					if (page < 2 || page >= tag.getBlockCount())
+						return status(out, STATUS_WRITE);
+					System.arraycopy(r, p, tag.memory, page * 4, 4);
+					p += 4;
+				}
+				return uidReply(tag, out);
+			}
+
+			case 0x23: { // write ultralight C
+				int first = r[o + 3] & 0xFF;
+				int n = r[o + 4] & 0xFF;
+				checkLength(len, 5 + n * 4);
+				if (tag.blockSize != 4 || first < 2 || first + n > tag.getBlockCount())
+					return status(out, STATUS_WRITE);
+				System.arraycopy(r, o + 5, tag.memory, first * 4, n * 4);
+				return uidReply(tag, out);
+			}
+
+			case 0x41: // write sector
+			case 0x42: { // read sector
+				checkLength(len, 6);
+				int sector = r[o + 2] & 0xFF;
+				int keyFlags = r[o + 3] & 0xFF;
+				int mask = (r[o + 4] & 0xFF) | ((r[o + 5] & 0xFF) << 8);
+				int p = o + 6;
+				if ((keyFlags & 0x80) != 0)
+					p += ((keyFlags & 0x10) != 0) ? 1 : 6; // chiave interna o esplicita
+				int maxSector = (tag.mifareType == SimulatedTag.MIFARE_4K) ? 40 : (tag.mifareType == SimulatedTag.MIFARE_1K) ? 16 : 0;
+				if (sector >= maxSector)
+					return status(out, STATUS_FORMAT);
+				int firstBlock = tag.sectorFirstBlock(sector);
+				int nBlocks = tag.sectorBlocks(sector);
+
+				if (cmd == 0x42) {
+					int q = 4;
+					for (int b = 0; b < nBlocks; b++) {
+						if ((mask & (1 << b)) == 0)
+							continue;
+						System.arraycopy(tag.memory, (firstBlock + b) * 16, out, q, 16);
+						q += 16;
+					}
+					out[2] = STATUS_OK;
+					out[3] = (byte) (q - 4);
+					return q;
+				}
+
+				for (int b = 0; b < nBlocks; b++) {
+					if ((mask & (1 << b)) == 0)
+						continue;
+					checkLength(o + len - p, 16);
+					if (sector == 0 && b == 0)
+						return status(out, STATUS_WRITE); // blocco del costruttore
+					System.arraycopy(r, p, tag.memory, (firstBlock + b) * 16, 16);
+					p += 16;
+				}
+				return uidReply(tag, out);
+			}
+
+			case 0x43: { // initialize sector trailers
+				checkLength(len, 7);
+				long mask = 0;
+				for (int i = 0; i < 5; i++)
+					mask |= (long) (r[o + 2 + i] & 0xFF) << (8 * i);
+				int maxSector = (tag.mifareType == SimulatedTag.MIFARE_4K) ? 40 : (tag.mifareType == SimulatedTag.MIFARE_1K) ? 16 : 0;
+				int p = o + 7;
+				for (int sector = 0; sector < 40; sector++) {
+					if ((mask & (1L << sector)) == 0)
+						continue;
+					if (sector >= maxSector)
+						return status(out, STATUS_FORMAT);
+					checkLength(o + len - p, 16);
+					int trailer = tag.sectorFirstBlock(sector) + tag.sectorBlocks(sector) - 1;
+					System.arraycopy(r, p, tag.memory, trailer * 16, 16);
+					p += 16;
+				}
+				return uidReply(tag, out);
+			}
+
+			default:
+				return status(out, STATUS_FORMAT);
+		}
+	}
+
+	/*--------------------------------------------------------------------------
+	 * ST ISO14443B
+	 *------------------------------------------------------------------------*/
+
+	private int stCommand(byte[] r, int o, int len, byte[] out) {
+		checkLength(len, 3);
+		int cmd = r[o + 2] & 0xFF;
+		out[1] = (byte) cmd;
+		if (r[o + 1] != 0x02)
+			return status(out, STATUS_FORMAT);
+		if (!rfOn)
+			return status(out, STATUS_NO_TRANSPONDER);
+
+		SimulatedTag tag = null;
+		for (SimulatedTag t : field) {
+			if (t.protocol == LabIdReader.RF_ISOProtocol_ISO14443B && t.state == SimulatedTag.STATE_SELECTED)
+				tag = t;
+		}
+
+		if (cmd == 0x0E) { // select
+			if (tag == null) {
+				for (SimulatedTag t : field) {
+					if (t.protocol == LabIdReader.RF_ISOProtocol_ISO14443B && t.state == SimulatedTag.STATE_READY) {
+						tag = t;
+						break;
+					}
+				}
+			}
+			if (tag == null)
+				return status(out, STATUS_NO_TRANSPONDER);
+			tag.state = SimulatedTag.STATE_SELECTED;
+			out[2] = STATUS_OK;
+			out[3] = tag.chipId;
+			return 4;
+		}
+
+		if (tag == null)
+			return status(out, STATUS_NO_TRANSPONDER);
+
+		switch (cmd) {
+			case 0x0B: // get uid
+				return uidReply(tag, out);
+
+			case 0x88: { // read blocks
+				checkLength(len, 5);
+				int first = r[o + 3] & 0xFF;
+				int n = r[o + 4] & 0xFF;
+				if (first + n > tag.getBlockCount())
+					return status(out, STATUS_FORMAT);
+				out[2] = STATUS_OK;
+				out[3] = (byte) tag.blockSize;
+				System.arraycopy(tag.memory, first * tag.blockSize, out, 4, n * tag.blockSize);
+				return 4 + n * tag.blockSize;
+			}
+
+			case 0x89: { // write blocks
+				checkLength(len, 6);
+				int first = r[o + 3] & 0xFF;
+				int n = r[o + 4] & 0xFF;
+				int bs = r[o + 5] & 0xFF;
+				if (bs != tag.blockSize || first + n > tag.getBlockCount()) {
+					out[2] = STATUS_FORMAT;
+					out[3] = (byte) first;
+					return 4;
+				}
+				checkLength(len, 6 + n * bs);
+				for (int i = 0; i < n; i++) {
+					int b = first + i;
+					if (b < 16 && (tag.stLockRegister & (1 << (b / 2))) != 0) {
+						out[2] = STATUS_WRITE;
+						out[3] = (byte) b;
+						return 4;
+					}
+					System.arraycopy(r, o + 6 + i * bs, tag.memory, b * bs, bs);
+				}
+				return status(out, STATUS_OK);
+			}
+
+			case 0x0F: // completion
+				tag.state = SimulatedTag.STATE_HALT;
+				return status(out, STATUS_OK);
+
+			case 0x19: // protect
+				checkLength(len, 5);
+				tag.stLockRegister |= r[o + 4];
+				return status(out, STATUS_OK);
+
+			case 0x18: // get protection
+				out[2] = STATUS_OK;
+				out[3] = 1;
+				out[4] = tag.stLockRegister;
+				return 5;
+
+			default:
+				return status(out, STATUS_FORMAT);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package labid.simulator;
+
+import labid.reader.LabIdReader;
+
+/**
+ * A transponder in the RF field of a {@link ReaderSimulator}. The tag keeps its
+ * memory, the security status of each block and the state used by anticollision
+ * and addressing (ready, quiet, selected for ISO15693; idle, active, halted for
+ * ISO14443). <br/>
+ * UIDs are stored in the order they are transmitted by the reader: ISO15693 UIDs
+ * are LSB first, as returned by {@link labid.iso15693.ISO15693Reader#inventory()}.
+ */
+public class SimulatedTag {
+
+	/** ISO15693: answers inventories. ISO14443: can be activated. */
+	public static final int STATE_READY = 0;
+	/** ISO15693: does not answer inventories and non addressed commands. */
+	public static final int STATE_QUIET = 1;
+	/** ISO15693: answers commands in selected mode. ISO14443: active. */
+	public static final int STATE_SELECTED = 2;
+	/** ISO14443: halted, it can be activated only with a wake up. */
+	public static final int STATE_HALT = 3;
+
+	/** Kinds of ISO14443A memory layouts */
+	public static final int MIFARE_NONE = 0;
+	public static final int MIFARE_ULTRALIGHT = 1;
+	public static final int MIFARE_ULTRALIGHT_C = 2;
+	public static final int MIFARE_1K = 3;
+	public static final int MIFARE_4K = 4;
+
+	/** One of the LabIdReader.RF_ISOProtocol_* values */
+	public final int protocol;
+	public final byte[] uid;
+	public final int blockSize;
+	public final byte[] memory;
+	/** Security status of each block: 0 unlocked, 1 user locked, 2 factory locked */
+	public final byte[] blockStatus;
+
+	public byte afi = 0x00;
+	public boolean afiLocked = false;
+	public byte dsfid = 0x00;
+	public boolean dsfidLocked = false;
+	public byte icReference = 0x01;
+	public boolean eas = false;
+	public boolean easLocked = false;
+
+	/** ISO14443A answer to request and select acknowledge */
+	public byte[] atqa = { 0x44, 0x00 };
+	public byte sak = 0x00;
+	public int mifareType = MIFARE_NONE;
+
+	/** ST chip ID and lock register */
+	public byte chipId = 0x00;
+	public byte stLockRegister = 0x00;
+
+	int state = STATE_READY;
+
+	/**
+	 * Creates a tag with blank memory.
+	 *
+	 * @param protocol One of the LabIdReader.RF_ISOProtocol_* values.
+	 * @param uid Serial number.
+	 * @param nBlocks Number of memory blocks.
+	 * @param blockSize Number of bytes in each block.
+	 */
+	public SimulatedTag(int protocol, byte[] uid, int nBlocks, int blockSize) {
+		this.protocol = protocol;
+		this.uid = uid.clone();
+		this.blockSize = blockSize;
+		this.memory = new byte[nBlocks * blockSize];
+		this.blockStatus = new byte[nBlocks];
+	}
+
+	/**
+	 * An ISO15693 tag (for example an I-Code SLI with 28 blocks of 4 bytes).
+	 *
+	 * @param uid Serial number, LSB first.
+	 */
+	public static SimulatedTag iso15693(byte[] uid, int nBlocks, int blockSize) {
+		if (uid.length != 8)
+			throw new IllegalArgumentException("ISO15693 UIDs are 8 bytes long");
+		return new SimulatedTag(LabIdReader.RF_ISOProtocol_ISO15693, uid, nBlocks, blockSize);
+	}
+
+	/**
+	 * An ISO15693 tag whose UID is the little endian encoding of a long value:
+	 * convenient to build large populations.
+	 */
+	public static SimulatedTag iso15693(long uid, int nBlocks, int blockSize) {
+		byte[] b = new byte[8];
+		for (int i = 0; i < 8; i++)
+			b[i] = (byte) (uid >>> (8 * i));
+		return iso15693(b, nBlocks, blockSize);
+	}
+
+	/**
+	 * A Mifare Ultralight (16 pages of 4 bytes, 7 bytes UID).
+	 */
+	public static SimulatedTag mifareUltralight(byte[] uid) {
+		SimulatedTag tag = new SimulatedTag(LabIdReader.RF_ISOProtocol_ISO14443A, uid, 16, 4);
+		tag.mifareType = MIFARE_ULTRALIGHT;
+		return tag;
+	}
+
+	/**
+	 * A Mifare Ultralight C (48 pages of 4 bytes, 7 bytes UID).
+	 */
+	public static SimulatedTag mifareUltralightC(byte[] uid) {
+		SimulatedTag tag = new SimulatedTag(LabIdReader.RF_ISOProtocol_ISO14443A, uid, 48, 4);
+		tag.mifareType = MIFARE_ULTRALIGHT_C;
+		return tag;
+	}
+
+	/**
+	 * A Mifare Classic 1K (16 sectors of 4 blocks of 16 bytes, 4 bytes UID).
+	 */
+	public static SimulatedTag mifare1K(byte[] uid) {
+		SimulatedTag tag = new SimulatedTag(LabIdReader.RF_ISOProtocol_ISO14443A, uid, 64, 16);
+		tag.mifareType = MIFARE_1K;
+		tag.atqa = new byte[] { 0x04, 0x00 };
+		tag.sak = 0x08;
+		return tag;
+	}
+
+	/**
+	 * A Mifare Classic 4K (32 sectors of 4 blocks and 8 sectors of 16 blocks).
+	 */
+	public static SimulatedTag mifare4K(byte[] uid) {
+		SimulatedTag tag = new SimulatedTag(LabIdReader.RF_ISOProtocol_ISO14443A, uid, 256, 16);
+		tag.mifareType = MIFARE_4K;
+		tag.atqa = new byte[] { 0x02, 0x00 };
+		tag.sak = 0x18;
+		return tag;
+	}
+
+	/**
+	 * An ST SRIX4K (128 blocks of 4 bytes).
+	 */
+	public static SimulatedTag stSRIX4K(byte[] uid, byte chipId) {
+		SimulatedTag tag = new SimulatedTag(LabIdReader.RF_ISOProtocol_ISO14443B, uid, 128, 4);
+		tag.chipId = chipId;
+		return tag;
+	}
+
+	/**
+	 * Number of memory blocks.
+	 */
+	public int getBlockCount() {
+		return blockStatus.length;
+	}
+
+	/**
+	 * Current anticollision state (see the STATE_* constants).
+	 */
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * Tells if uid (len bytes from offset) is the serial number of this tag.
+	 */
+	boolean matches(byte[] data, int offset, int len) {
+		if (len != uid.length || offset + len > data.length)
+			return false;
+		for (int i = 0; i < len; i++) {
+			if (data[offset + i] != uid[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * ISO15693 AFI matching: 0 selects all tags, a family (high nibble) or
+	 * subfamily (low nibble) equal to 0 selects all families or subfamilies.
+	 */
+	boolean matchesAfi(int requested) {
+		requested &= 0xFF;
+		if (requested == 0)
+			return true;
+		int family = requested >> 4;
+		int subfamily = requested & 0x0F;
+		int tagFamily = (afi & 0xFF) >> 4;
+		int tagSubfamily = afi & 0x0F;
+		if (family != 0 && family != tagFamily)
+			return false;
+		if (subfamily != 0 && subfamily != tagSubfamily)
+			return false;
+		return true;
+	}
+
+	/**
+	 * First block and number of blocks of a Mifare Classic sector.
+	 */
+	int sectorFirstBlock(int sector) {
+		return (sector < 32) ? sector * 4 : 128 + (sector - 32) * 16;
+	}
+
+	int sectorBlocks(int sector) {
+		return (sector < 32) ? 4 : 16;
+	}
+}
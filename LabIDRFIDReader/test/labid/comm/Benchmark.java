@@ -0,0 +1,89 @@
+package labid.comm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Minimal micro benchmark harness, for the benchmarks of this folder: the
+ * project has no dependency manager to host JMH. <br/>
+ * Each case is run for some warmup rounds, so that the JIT compiles it, then
+ * for the measured rounds; the result is the best time per operation and the
+ * bytes allocated per operation (when the JVM can measure them). The values
+ * returned by the operations are accumulated and printed, so that the JIT
+ * cannot remove the work.
+ */
+abstract class Benchmark {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 10;
+	/** durata minima di un round */
+	private static final long ROUND_NANOS = 100000000L;
+
+	private static long sink;
+
+	/**
+	 * Runs the operation once.
+	 *
+	 * @return Any value computed by the operation.
+	 */
+	protected abstract int run();
+
+	/**
+	 * Measures the operation and prints a line with its name.
+	 */
+	public static void measure(String name, Benchmark b) {
+		int ops = 1;
+		// calibrazione: operazioni per round
+		while (true) {
+			long t = System.nanoTime();
+			loop(b, ops);
+			if (System.nanoTime() - t >= ROUND_NANOS / 10)
+				break;
+			ops <<= 1;
+		}
+		ops *= 10;
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+			loop(b, ops);
+
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			long t = System.nanoTime();
+			loop(b, ops);
+			double ns = (double) (System.nanoTime() - t) / ops;
+			if (ns < best)
+				best = ns;
+		}
+
+		long before = allocatedBytes();
+		loop(b, ops);
+		long after = allocatedBytes();
+		String alloc = (before < 0 || after < 0) ? "n/a" : String.format("%.1f", (double) (after - before) / ops);
+
+		System.out.println(String.format("%-40s %12.1f ns/op %10s B/op", name, best, alloc));
+	}
+
+	/**
+	 * Prints the accumulated results: call it at the end of the benchmark.
+	 */
+	public static void done() {
+		System.out.println("(checksum " + sink + ")");
+	}
+
+	private static void loop(Benchmark b, int ops) {
+		long s = 0;
+		for (int i = 0; i < ops; i++)
+			s += b.run();
+		sink += s;
+	}
+
+	/**
+	 * Bytes allocated by the current thread, -1 if not supported.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (!(mx instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,52 @@
+package labid.comm;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Checks {@link ByteRingBuffer}: bytes read in order across the end of the
+ * ring, -1 after close once the stored bytes are read, and a closed buffer
+ * reused after reset, as {@link SerialStream} does when a port is opened again.
+ * Exits with status 1 on the first failure.
+ * <pre>
+ * java -cp bin labid.comm.ByteRingBufferCheck
+ * </pre>
+ */
+public class ByteRingBufferCheck {
+
+	public static void main(String[] args) throws InterruptedIOException {
+		ByteRingBuffer b = new ByteRingBuffer(16);
+		byte[] data = new byte[10];
+		byte[] dest = new byte[16];
+		for (int i = 0; i < 100; i++) {
+			for (int j = 0; j < data.length; j++)
+				data[j] = (byte) (i + j);
+			check("put " + i, data.length, b.put(data, 0, data.length));
+			check("read " + i, data.length, b.read(dest, 0, dest.length, 100));
+			for (int j = 0; j < data.length; j++)
+				check("byte " + i + "/" + j, data[j], dest[j]);
+		}
+		check("full", 16, b.put(new byte[20], 0, 20));
+		check("free", 0, b.free());
+
+		b.close();
+		check("closed: stored bytes", 16, b.read(dest, 0, dest.length, 100));
+		check("closed: end", -1, b.read(dest, 0, dest.length, 100));
+		check("closed: end with deadline", -1, b.readUntil(dest, 0, dest.length, System.nanoTime() + 100000000L));
+
+		b.put(data, 0, 4);
+		b.reset();
+		check("reset: open", 0, b.isClosed() ? 1 : 0);
+		check("reset: empty", 0, b.available());
+		check("reset: timeout", 0, b.read(dest, 0, dest.length, 10));
+		check("reset: put", 3, b.put(data, 0, 3));
+		check("reset: read", 3, b.read(dest, 0, dest.length, 100));
+		System.out.println("ByteRingBufferCheck: OK");
+	}
+
+	private static void check(String test, int expected, int actual) {
+		if (expected != actual) {
+			System.out.println("ByteRingBufferCheck: " + test + ": expected " + expected + ", got " + actual);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package labid.comm;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares the CRC16 variants over frames from 8 to 512 bytes (the range of
+ * the receive buffer of the readers). "legacy" is the method used by
+ * LabIdReader before {@link Crc16}: bit by bit, after copying the frame in an
+ * int array.
+ * <pre>
+ * java -cp bin labid.comm.Crc16Benchmark
+ * </pre>
+ */
+public class Crc16Benchmark {
+
+	private static final int[] SIZES = { 8, 16, 32, 64, 128, 256, 512 };
+
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		for (final int size : SIZES) {
+			final byte[] data = new byte[size];
+			random.nextBytes(data);
+			final ByteBuffer direct = ByteBuffer.allocateDirect(size);
+			direct.put(data);
+
+			System.out.println(size + " bytes");
+			Benchmark.measure("legacy", new Benchmark() {
+				protected int run() {
+					return legacy(data, size);
+				}
+			});
+			Benchmark.measure("updateBitwise", new Benchmark() {
+				protected int run() {
+					return Crc16.updateBitwise(Crc16.PRESET, data, 0, size);
+				}
+			});
+			Benchmark.measure("updateTable", new Benchmark() {
+				protected int run() {
+					return Crc16.updateTable(Crc16.PRESET, data, 0, size);
+				}
+			});
+			Benchmark.measure("updateSlicing8", new Benchmark() {
+				protected int run() {
+					return Crc16.updateSlicing8(Crc16.PRESET, data, 0, size);
+				}
+			});
+			Benchmark.measure("compute", new Benchmark() {
+				protected int run() {
+					return Crc16.compute(data, 0, size);
+				}
+			});
+			Benchmark.measure("update(ByteBuffer) direct", new Benchmark() {
+				protected int run() {
+					direct.clear();
+					return Crc16.update(Crc16.PRESET, direct);
+				}
+			});
+		}
+		Benchmark.done();
+	}
+
+	/**
+	 * LabIdReader.crc16 before {@link Crc16}.
+	 */
+	static int legacy(byte[] data, int len) {
+		int crc = Crc16.PRESET;
+
+		int[] intdata = new int[len];
+		for (int i = 0; i < len; i++)
+			intdata[i] = (int) data[i] & 0xFF;
+
+		for (int i = 0; i < len; i++) {
+			crc ^= intdata[i];
+			for (int j = 0; j < 8; j++) {
+				if ((crc & 0x01) == 1)
+					crc = (crc >> 1) ^ Crc16.POLYNOMIAL;
+				else
+					crc = (crc >> 1);
+			}
+		}
+		return crc;
+	}
+}
@@ -0,0 +1,86 @@
+package labid.comm;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Checks that all the CRC16 variants return the same value as the bit by bit
+ * algorithm, over random frames from 0 to 600 bytes at random offsets, also
+ * when the data is split in several updates. Exits with status 1 on the first
+ * mismatch.
+ * <pre>
+ * java -cp bin labid.comm.Crc16Check
+ * </pre>
+ */
+public class Crc16Check {
+
+	private static final int FRAMES = 20000;
+	private static final int MAX_LENGTH = 600;
+
+	public static void main(String[] args) {
+		Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 1);
+		byte[] data = new byte[MAX_LENGTH + 16];
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+
+		for (int n = 0; n < FRAMES; n++) {
+			random.nextBytes(data);
+			int len = random.nextInt(MAX_LENGTH + 1);
+			int off = random.nextInt(16);
+			int crc = (n % 2 == 0) ? Crc16.PRESET : random.nextInt(0x10000);
+			int expected = Crc16.updateBitwise(crc, data, off, len);
+
+			check("updateTable", len, expected, Crc16.updateTable(crc, data, off, len));
+			check("updateSlicing8", len, expected, Crc16.updateSlicing8(crc, data, off, len));
+			check("update", len, expected, Crc16.update(crc, data, off, len));
+			if (crc == Crc16.PRESET)
+				check("compute", len, expected, Crc16.compute(data, off, len));
+
+			// heap buffer con offset dell'array
+			ByteBuffer heap = ByteBuffer.wrap(data, off, len).slice();
+			check("update(ByteBuffer) heap", len, expected, Crc16.update(crc, heap));
+			if (heap.hasRemaining())
+				fail("update(ByteBuffer) heap", len, "position not moved to the limit");
+
+			direct.clear();
+			direct.put(data);
+			direct.limit(off + len).position(off);
+			check("update(ByteBuffer) direct", len, expected, Crc16.update(crc, direct));
+			if (direct.hasRemaining())
+				fail("update(ByteBuffer) direct", len, "position not moved to the limit");
+
+			// aggiornamento incrementale in pezzi casuali
+			Crc16 c = new Crc16();
+			int i = 0;
+			while (i < len) {
+				int k = 1 + random.nextInt(len - i);
+				if (k == 1)
+					c.update(data[off + i]);
+				else
+					c.update(data, off + i, k);
+				i += k;
+			}
+			if (crc == Crc16.PRESET)
+				check("Crc16 incremental", len, expected, c.getValue());
+		}
+
+		// un frame seguito dal suo crc da' 0
+		for (int len = 0; len <= MAX_LENGTH; len++) {
+			random.nextBytes(data);
+			int crc = Crc16.compute(data, 0, len);
+			data[len] = (byte) crc;
+			data[len + 1] = (byte) (crc >> 8);
+			check("frame with CRC", len, 0, Crc16.compute(data, 0, len + 2));
+		}
+		System.out.println("Crc16Check: " + FRAMES + " frames OK");
+	}
+
+	private static void check(String variant, int len, int expected, int actual) {
+		if (expected != actual)
+			fail(variant, len, String.format("expected %04X, got %04X", expected, actual));
+	}
+
+	private static void fail(String variant, int len, String message) {
+		System.out.println("Crc16Check: " + variant + ", " + len + " bytes: " + message);
+		System.exit(1);
+	}
+}
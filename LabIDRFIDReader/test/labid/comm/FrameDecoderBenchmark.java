@@ -0,0 +1,64 @@
+package labid.comm;
+
+import java.util.Random;
+
+/**
+ * Measures the reception of a reply frame, from the bytes read from the
+ * stream to the checked frame in the receive buffer, with frames from 8 to
+ * 511 bytes. "legacy" is LabIdReader.receive() before {@link FrameDecoder}:
+ * header and body read in the receive buffer, then the CRC of the whole frame
+ * bit by bit, after copying it in an int array. "decoder" reads as
+ * LabIdReader.receive() does now, asking for the bytes still missing. The
+ * stream is simulated with a copy from an array.
+ * <pre>
+ * java -cp bin labid.comm.FrameDecoderBenchmark
+ * </pre>
+ */
+public class FrameDecoderBenchmark {
+
+	private static final int[] SIZES = { 8, 16, 64, 256, FrameDecoder.MAX_FRAME_LENGTH };
+
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		final byte[] recv = new byte[FrameDecoder.MAX_FRAME_LENGTH + 1];
+		final FrameDecoder decoder = new FrameDecoder(recv.length);
+
+		for (int size : SIZES) {
+			final byte[] frame = new byte[size];
+			random.nextBytes(frame);
+			frame[0] = (byte) size;
+			frame[1] = (byte) ((size >> 8) & 0x01);
+			int crc = Crc16Benchmark.legacy(frame, size - 2);
+			frame[size - 2] = (byte) crc;
+			frame[size - 1] = (byte) (crc >> 8);
+
+			System.out.println(size + " bytes");
+			Benchmark.measure("legacy", new Benchmark() {
+				protected int run() {
+					System.arraycopy(frame, 0, recv, 0, 2);
+					int len = (recv[0] & 0xFF) + ((recv[1] & 0x01) << 8);
+					System.arraycopy(frame, 2, recv, 2, len - 2);
+					if (Crc16Benchmark.legacy(recv, len) != 0)
+						throw new IllegalStateException("CRC error");
+					return len;
+				}
+			});
+			Benchmark.measure("decoder", new Benchmark() {
+				protected int run() {
+					int pos = 0;
+					int len;
+					while ((len = decoder.poll(recv, 0)) == 0) {
+						int n = Math.min(decoder.needed(), decoder.writeSpace());
+						System.arraycopy(frame, pos, decoder.buffer(), decoder.writeOffset(), n);
+						decoder.commit(n);
+						pos += n;
+					}
+					return len;
+				}
+			});
+		}
+		if (decoder.getDiscardedBytes() != 0)
+			throw new IllegalStateException("Bytes discarded");
+		Benchmark.done();
+	}
+}
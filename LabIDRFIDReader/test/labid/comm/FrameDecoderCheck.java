@@ -0,0 +1,308 @@
+package labid.comm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks {@link FrameDecoder}: frames split in any way, garbage before a
+ * header, a frame with a bad CRC followed by a valid one, 9 bits lengths and
+ * the wrap around of the ring buffer. Streams with random garbage are compared
+ * with a plain scan of all the offsets: a 16 bits CRC can match by chance on
+ * random bytes, so the frames returned are not always those which were sent.
+ * Exits with status 1 on the first failure.
+ * <pre>
+ * java -cp bin labid.comm.FrameDecoderCheck
+ * </pre>
+ */
+public class FrameDecoderCheck {
+
+	private static final Random random = new Random(1);
+	private static final byte[] dest = new byte[FrameDecoder.MAX_FRAME_LENGTH];
+
+	public static void main(String[] args) {
+		splitFrames();
+		randomChunks();
+		directWrite();
+		garbageBeforeHeader();
+		badCrcThenValidFrame();
+		longLengths();
+		tooLongForDestination();
+		System.out.println("FrameDecoderCheck: OK");
+	}
+
+	/**
+	 * A frame received one byte at a time is returned only with its last byte.
+	 */
+	private static void splitFrames() {
+		FrameDecoder d = new FrameDecoder();
+		byte[] f = frame(40);
+		for (int i = 0; i < f.length; i++) {
+			check("split: needed", (i < 2) ? 2 - i : f.length - i, d.needed());
+			check("split: early frame", 0, d.poll(dest, 0));
+			check("split: put", 1, d.put(f, i, 1));
+		}
+		check("split: needed", 0, d.needed());
+		expect("split", d, f);
+		check("split: available", 0, d.available());
+	}
+
+	/**
+	 * Many frames of random length, in random chunks: the ring buffer wraps
+	 * around many times.
+	 */
+	private static void randomChunks() {
+		FrameDecoder d = new FrameDecoder();
+		byte[][] frames = new byte[2000][];
+		int total = 0;
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = frame(FrameDecoder.MIN_FRAME_LENGTH + random.nextInt(FrameDecoder.MAX_FRAME_LENGTH - 5));
+			total += frames[i].length;
+		}
+		byte[] stream = concat(frames);
+
+		int next = 0;
+		int pos = 0;
+		while (pos < total) {
+			int n = d.put(stream, pos, Math.min(1 + random.nextInt(700), total - pos));
+			pos += n;
+			int len;
+			while ((len = d.poll(dest, 0)) > 0)
+				same("chunks: frame " + next, frames[next++], dest, len);
+		}
+		check("chunks: frames", frames.length, next);
+		check("chunks: discarded", 0, (int) d.getDiscardedBytes());
+	}
+
+	/**
+	 * Bytes written directly in the ring buffer, as LabIdReader.receive() does.
+	 */
+	private static void directWrite() {
+		FrameDecoder d = new FrameDecoder();
+		for (int i = 0; i < 500; i++) {
+			byte[] f = frame(FrameDecoder.MIN_FRAME_LENGTH + random.nextInt(300));
+			int pos = 0;
+			while (d.poll(dest, 0) == 0) {
+				int n = Math.min(d.needed(), d.writeSpace());
+				if (n > f.length - pos)
+					fail("direct: needed " + n + " bytes, " + (f.length - pos) + " left");
+				n = 1 + random.nextInt(n);
+				System.arraycopy(f, pos, d.buffer(), d.writeOffset(), n);
+				d.commit(n);
+				pos += n;
+			}
+			check("direct: bytes read", f.length, pos);
+			same("direct: frame " + i, f, dest, f.length);
+		}
+	}
+
+	/**
+	 * Garbage before a frame is discarded. Bytes whose length field is not
+	 * valid are dropped at once; a garbage header with a valid length is
+	 * dropped when the bytes it claims have arrived and the CRC does not match.
+	 */
+	private static void garbageBeforeHeader() {
+		FrameDecoder d = new FrameDecoder();
+		byte[] f = frame(20);
+		byte[] garbage = new byte[7]; // lunghezza 0: non valida
+		d.put(garbage, 0, garbage.length);
+		d.put(f, 0, f.length);
+		expect("garbage", d, f);
+		check("garbage: discarded", garbage.length, (int) d.getDiscardedBytes());
+
+		// header falso (lunghezza 40): scartato quando arriva il frame successivo
+		d = new FrameDecoder();
+		garbage = new byte[] { 40, 0, 0 };
+		byte[] a = frame(20);
+		byte[] b = frame(30);
+		byte[] stream = concat(garbage, a, b);
+		d.put(stream, 0, garbage.length + a.length);
+		check("false header: early frame", 0, d.poll(dest, 0));
+		d.put(stream, garbage.length + a.length, b.length);
+		expect("false header: first", d, a);
+		expect("false header: second", d, b);
+		check("false header: discarded", garbage.length, (int) d.getDiscardedBytes());
+
+		for (int i = 0; i < 2000; i++) {
+			garbage = new byte[1 + random.nextInt(30)];
+			random.nextBytes(garbage);
+			// il frame lungo completa le lunghezze false lette nella spazzatura
+			stream = concat(garbage, frame(FrameDecoder.MIN_FRAME_LENGTH + random.nextInt(60)),
+					frame(FrameDecoder.MIN_FRAME_LENGTH + random.nextInt(60)), frame(FrameDecoder.MAX_FRAME_LENGTH));
+			compare("garbage " + i, stream);
+		}
+	}
+
+	/**
+	 * A frame with a bad CRC is discarded and the next one is returned.
+	 */
+	private static void badCrcThenValidFrame() {
+		FrameDecoder d = new FrameDecoder();
+		byte[] a = frame(8);
+		byte[] b = frame(12);
+		// i byte di a possono sembrare un header: il frame lungo lo completa
+		byte[] c = frame(FrameDecoder.MAX_FRAME_LENGTH);
+		a[4] ^= 0x01;
+		byte[] stream = concat(a, b, c);
+		d.put(stream, 0, stream.length);
+		expect("bad crc", d, b);
+		expect("bad crc: next", d, c);
+		check("bad crc: discarded", a.length, (int) d.getDiscardedBytes());
+		check("bad crc: frames", 2, (int) d.getFrameCount());
+
+		for (int i = 0; i < 2000; i++) {
+			a = frame(FrameDecoder.MIN_FRAME_LENGTH + random.nextInt(100));
+			a[2 + random.nextInt(a.length - 2)] ^= 1 << random.nextInt(8);
+			stream = concat(a, frame(FrameDecoder.MIN_FRAME_LENGTH + random.nextInt(100)),
+					frame(FrameDecoder.MAX_FRAME_LENGTH));
+			compare("bad crc " + i, stream);
+		}
+	}
+
+	/**
+	 * Frames longer than 255 bytes use bit 0 of the address as the length MSB.
+	 */
+	private static void longLengths() {
+		FrameDecoder d = new FrameDecoder();
+		int[] lengths = { 255, 256, 257, 300, 510, FrameDecoder.MAX_FRAME_LENGTH };
+		for (int len : lengths) {
+			byte[] f = frame(len);
+			check("9 bits " + len + ": address", len >> 8, f[1]);
+			int pos = 0;
+			while (pos < f.length) {
+				int n = Math.min(1 + random.nextInt(100), f.length - pos);
+				d.put(f, pos, n);
+				pos += n;
+				if (pos < f.length)
+					check("9 bits " + len + ": early frame", 0, d.poll(dest, 0));
+			}
+			expect("9 bits " + len, d, f);
+		}
+		check("9 bits: discarded", 0, (int) d.getDiscardedBytes());
+	}
+
+	/**
+	 * A frame longer than the accepted length is discarded.
+	 */
+	private static void tooLongForDestination() {
+		FrameDecoder d = new FrameDecoder(256);
+		byte[] a = frame(300);
+		byte[] b = frame(30);
+		byte[] filler = frame(FrameDecoder.MAX_FRAME_LENGTH - 200);
+		byte[] stream = concat(a, b, filler);
+		d.put(stream, 0, stream.length);
+		expect("too long", d, b);
+		check("too long: discarded", a.length, (int) d.getDiscardedBytes());
+	}
+
+	/**
+	 * Passes a stream to a decoder in random chunks and compares the frames
+	 * returned with those found by {@link #scan(byte[])}.
+	 */
+	private static void compare(String test, byte[] stream) {
+		List<byte[]> expected = scan(stream);
+		FrameDecoder d = new FrameDecoder();
+		int next = 0;
+		int pos = 0;
+		while (pos < stream.length) {
+			pos += d.put(stream, pos, Math.min(1 + random.nextInt(50), stream.length - pos));
+			int len;
+			while ((len = d.poll(dest, 0)) > 0) {
+				if (next == expected.size())
+					fail(test + ": unexpected frame");
+				same(test + ": frame " + next, expected.get(next++), dest, len);
+			}
+		}
+		check(test + ": frames", expected.size(), next);
+	}
+
+	/**
+	 * Reference decoder: tries every offset, from the first byte, as the start
+	 * of a frame and takes the first one with a valid length and CRC.
+	 */
+	private static List<byte[]> scan(byte[] stream) {
+		List<byte[]> frames = new ArrayList<byte[]>();
+		int p = 0;
+		while (stream.length - p >= 2) {
+			int len = (stream[p] & 0xFF) + ((stream[p + 1] & 0x01) << 8);
+			if (len >= FrameDecoder.MIN_FRAME_LENGTH && len <= FrameDecoder.MAX_FRAME_LENGTH) {
+				if (p + len > stream.length)
+					break; // frame incompleto
+				if (crc(stream, p, len) == 0) {
+					frames.add(Arrays.copyOfRange(stream, p, p + len));
+					p += len;
+					continue;
+				}
+			}
+			p++;
+		}
+		return frames;
+	}
+
+	/**
+	 * A valid frame of the given length with random content.
+	 */
+	private static byte[] frame(int len) {
+		byte[] f = new byte[len];
+		random.nextBytes(f);
+		f[0] = (byte) len;
+		f[1] = (byte) ((len >> 8) & 0x01);
+		int c = crc(f, 0, len - 2);
+		f[len - 2] = (byte) c;
+		f[len - 1] = (byte) (c >> 8);
+		return f;
+	}
+
+	/**
+	 * CRC16 of the reader, bit by bit (polynomial 0x8408, preset 0xFFFF).
+	 */
+	static int crc(byte[] data, int offset, int len) {
+		int crc = 0xFFFF;
+		for (int i = offset; i < offset + len; i++) {
+			crc ^= data[i] & 0xFF;
+			for (int j = 0; j < 8; j++) {
+				if ((crc & 0x01) == 1)
+					crc = (crc >> 1) ^ 0x8408;
+				else
+					crc = (crc >> 1);
+			}
+		}
+		return crc;
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		int len = 0;
+		for (byte[] p : parts)
+			len += p.length;
+		byte[] r = new byte[len];
+		int pos = 0;
+		for (byte[] p : parts) {
+			System.arraycopy(p, 0, r, pos, p.length);
+			pos += p.length;
+		}
+		return r;
+	}
+
+	private static void expect(String test, FrameDecoder d, byte[] frame) {
+		int len = d.poll(dest, 0);
+		if (len == 0)
+			fail(test + ": frame not returned");
+		same(test, frame, dest, len);
+	}
+
+	private static void same(String test, byte[] expected, byte[] actual, int len) {
+		if (len != expected.length || !Arrays.equals(expected, Arrays.copyOf(actual, len)))
+			fail(test + ": wrong frame (" + len + " bytes, expected " + expected.length + ")");
+	}
+
+	private static void check(String test, int expected, int actual) {
+		if (expected != actual)
+			fail(test + ": expected " + expected + ", got " + actual);
+	}
+
+	private static void fail(String message) {
+		System.out.println("FrameDecoderCheck: " + message);
+		System.exit(1);
+	}
+}
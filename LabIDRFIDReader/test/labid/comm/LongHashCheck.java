@@ -0,0 +1,158 @@
+package labid.comm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks {@link LongHashSet} and {@link LongIntHashMap} against the java.util
+ * collections: random adds, puts and removes on a small range of keys (so that
+ * probe chains collide and removals have to move the following keys), the key
+ * 0, growth and clear, and the set differences used to find tags which entered
+ * or left the field. Exits with status 1 on the first failure.
+ * <pre>
+ * java -cp bin labid.comm.LongHashCheck
+ * </pre>
+ */
+public class LongHashCheck {
+
+	private static final Random random = new Random(1);
+
+	public static void main(String[] args) {
+		set();
+		map();
+		differences();
+		System.out.println("LongHashCheck: OK");
+	}
+
+	/**
+	 * A key from a small range, with 0 and negative values.
+	 */
+	private static long key(int range) {
+		long k = random.nextInt(range) - range / 4;
+		// anche chiavi che differiscono solo nei bit alti, come gli UID impacchettati
+		return random.nextBoolean() ? k : k << 40;
+	}
+
+	private static void set() {
+		LongHashSet s = new LongHashSet(4);
+		Set<Long> ref = new HashSet<Long>();
+		for (int i = 0; i < 200000; i++) {
+			long k = key(300);
+			switch (random.nextInt(4)) {
+				case 0:
+				case 1:
+					check("set: add " + k, ref.add(k), s.add(k));
+					break;
+				case 2:
+					check("set: remove " + k, ref.remove(k), s.remove(k));
+					break;
+				default:
+					check("set: contains " + k, ref.contains(k), s.contains(k));
+					break;
+			}
+			check("set: size", ref.size(), s.size());
+			if (i % 1000 == 0)
+				same("set: values", ref, s.toArray(), s.size());
+			if (i % 50000 == 49999) {
+				s.clear();
+				ref.clear();
+				check("set: clear", true, s.isEmpty());
+			}
+		}
+		for (long k = -100; k < 200; k++)
+			check("set: final " + k, ref.contains(k), s.contains(k));
+	}
+
+	private static void map() {
+		LongIntHashMap m = new LongIntHashMap(4);
+		Map<Long, Integer> ref = new HashMap<Long, Integer>();
+		for (int i = 0; i < 200000; i++) {
+			long k = key(300);
+			switch (random.nextInt(4)) {
+				case 0:
+				case 1: {
+					int v = random.nextInt();
+					check("map: put " + k, ref.put(k, v) == null, m.put(k, v));
+					break;
+				}
+				case 2:
+					check("map: remove " + k, ref.remove(k) != null, m.remove(k));
+					break;
+				default:
+					check("map: contains " + k, ref.containsKey(k), m.containsKey(k));
+					break;
+			}
+			Integer v = ref.get(k);
+			check("map: get " + k, (v != null) ? v.intValue() : -1, m.get(k, -1));
+			check("map: size", ref.size(), m.size());
+			if (i % 1000 == 0) {
+				long[] keys = new long[m.size()];
+				same("map: keys", ref.keySet(), keys, m.keys(keys));
+				for (long key : keys)
+					check("map: value " + key, ref.get(key).intValue(), m.get(key, -1));
+			}
+			if (i % 50000 == 49999) {
+				m.clear();
+				ref.clear();
+				check("map: clear", true, m.isEmpty());
+			}
+		}
+	}
+
+	/**
+	 * The tags which left and arrived between two inventories.
+	 */
+	private static void differences() {
+		for (int i = 0; i < 2000; i++) {
+			LongHashSet a = new LongHashSet();
+			LongHashSet b = new LongHashSet();
+			Set<Long> ra = new HashSet<Long>();
+			Set<Long> rb = new HashSet<Long>();
+			int n = random.nextInt(60);
+			for (int j = 0; j < n; j++) {
+				long k = key(100);
+				if (random.nextInt(3) != 0) {
+					a.add(k);
+					ra.add(k);
+				}
+				if (random.nextInt(3) != 0) {
+					b.add(k);
+					rb.add(k);
+				}
+			}
+			Set<Long> left = new HashSet<Long>(ra);
+			left.removeAll(rb);
+			long[] dest = new long[a.size()];
+			same("difference " + i, left, dest, a.difference(b, dest));
+			check("difference " + i + ": count", left.size(), a.difference(b, null));
+			check("containsAll " + i, ra.containsAll(rb), a.containsAll(b));
+			check("sameElements " + i, ra.equals(rb), a.sameElements(b));
+		}
+	}
+
+	private static void same(String test, Set<Long> expected, long[] actual, int n) {
+		long[] e = new long[expected.size()];
+		int i = 0;
+		for (Long k : expected)
+			e[i++] = k.longValue();
+		long[] a = Arrays.copyOf(actual, n);
+		Arrays.sort(e);
+		Arrays.sort(a);
+		if (!Arrays.equals(e, a))
+			fail(test + ": expected " + Arrays.toString(e) + ", got " + Arrays.toString(a));
+	}
+
+	private static void check(String test, Object expected, Object actual) {
+		if (!expected.equals(actual))
+			fail(test + ": expected " + expected + ", got " + actual);
+	}
+
+	private static void fail(String message) {
+		System.out.println("LongHashCheck: " + message);
+		System.exit(1);
+	}
+}
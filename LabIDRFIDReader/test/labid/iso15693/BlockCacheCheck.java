@@ -0,0 +1,83 @@
+package labid.iso15693;
+
+import java.util.Arrays;
+
+import labid.reader.RFReaderException;
+import labid.simulator.ReaderSimulator;
+import labid.simulator.SimulatedTag;
+
+/**
+ * Checks {@link BlockCache} on a {@link ReaderSimulator}: cached reads send no
+ * command, writes update the cached blocks and ranges beyond the 256
+ * addressable blocks are rejected, for reads and writes, before any command is
+ * sent. Exits with status 1 on the first failure.
+ * <pre>
+ * java -cp bin labid.iso15693.BlockCacheCheck
+ * </pre>
+ */
+public class BlockCacheCheck {
+
+	public static void main(String[] args) throws RFReaderException {
+		ReaderSimulator sim = new ReaderSimulator();
+		sim.setBaudRate(0);
+		SimulatedTag tag = SimulatedTag.iso15693(0xE004010000000100L, 256, 4);
+		for (int i = 0; i < tag.memory.length; i++)
+			tag.memory[i] = (byte) i;
+		sim.addTag(tag);
+		ISO15693Reader reader = new ISO15693Reader(sim);
+		BlockCache cache = new BlockCache(reader, 4);
+
+		byte[] first = cache.read(tag.uid, 250, 6);
+		long commands = sim.getCommandCount();
+		byte[] again = cache.read(tag.uid, 250, 6);
+		check("hit", commands, sim.getCommandCount());
+		if (!Arrays.equals(first, again) || !Arrays.equals(first, Arrays.copyOfRange(tag.memory, 250 * 4, 256 * 4)))
+			fail("cached blocks differ from the tag");
+
+		byte[] data = new byte[8];
+		Arrays.fill(data, (byte) 0x5A);
+		cache.write(tag.uid, data, 254, 2);
+		commands = sim.getCommandCount();
+		if (!Arrays.equals(data, cache.read(tag.uid, 254, 2)))
+			fail("write: cache not updated");
+		check("write: hit", commands, sim.getCommandCount());
+
+		outOfRange(cache, sim, tag.uid, 255, 2);
+		outOfRange(cache, sim, tag.uid, 256, 1);
+		outOfRange(cache, sim, tag.uid, -1, 2);
+		outOfRange(cache, sim, tag.uid, 0, 0);
+		// i blocchi in cache non sono alterati dai tentativi respinti
+		if (!cache.contains(0xE004010000000100L, 250) || !cache.contains(0xE004010000000100L, 255))
+			fail("out of range: cached blocks dropped");
+		if (!Arrays.equals(data, cache.read(tag.uid, 254, 2)))
+			fail("out of range: cached blocks changed");
+		System.out.println("BlockCacheCheck: OK");
+	}
+
+	private static void outOfRange(BlockCache cache, ReaderSimulator sim, byte[] uid, int start, int n) throws RFReaderException {
+		long commands = sim.getCommandCount();
+		try {
+			cache.write(uid, new byte[n > 0 ? n * 4 : 4], start, n);
+			fail("write " + start + "+" + n + ": no exception");
+		} catch (IllegalArgumentException e) {
+			// atteso
+		}
+		try {
+			cache.read(uid, start, n);
+			fail("read " + start + "+" + n + ": no exception");
+		} catch (IllegalArgumentException e) {
+			// atteso
+		}
+		check("write " + start + "+" + n + ": commands", commands, sim.getCommandCount());
+	}
+
+	private static void check(String test, long expected, long actual) {
+		if (expected != actual)
+			fail(test + ": expected " + expected + ", got " + actual);
+	}
+
+	private static void fail(String message) {
+		System.out.println("BlockCacheCheck: " + message);
+		System.exit(1);
+	}
+}
@@ -0,0 +1,243 @@
+package labid.reader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import labid.iso15693.ISO15693Reader;
+import labid.iso15693.TagMemoryReader;
+import labid.simulator.ReaderSimulator;
+import labid.simulator.SimulatedTag;
+
+/**
+ * Checks {@link CommandPipeline} on a {@link ReaderSimulator}: every handler
+ * receives the reply of its own command, once and in submission order, also
+ * when the reply of any command (the probe included) is lost or corrupted on
+ * the line. Runs of identical reads, whose replies can be told apart only by
+ * their order, are checked chunk by chunk. Exits with status 1 on the first
+ * failure.
+ * <pre>
+ * java -cp bin labid.reader.CommandPipelineCheck
+ * </pre>
+ */
+public class CommandPipelineCheck {
+
+	private static final Random random = new Random(1);
+	private static final int N_TAGS = 4;
+	private static final int N_BLOCKS = 28;
+	private static final int BLOCK_SIZE = 4;
+	private static final int CHUNK = 4;
+
+	/**
+	 * Handler which compares the reply with the data the command must return.
+	 */
+	private static class Expect implements CommandPipeline.ReplyHandler {
+		final String name;
+		final byte[] expected;
+		final List<Expect> log;
+
+		Expect(String name, byte[] expected, List<Expect> log) {
+			this.name = name;
+			this.expected = expected;
+			this.log = log;
+		}
+
+		public void replyReceived(CommandResult result) {
+			if (result.status != CommandResult.STATUS_OK)
+				fail(name + ": status " + result.status);
+			if (!Arrays.equals(expected, Arrays.copyOfRange(result.data, result.offset, result.offset + result.length)))
+				fail(name + ": wrong data");
+			log.add(this);
+		}
+	}
+
+	public static void main(String[] args) throws RFReaderException {
+		inOrder();
+		for (int k = 0; k < 24; k++) {
+			lostReply(k, false);
+			lostReply(k, true);
+		}
+		for (int k = 0; k < 12; k++) {
+			identicalReads(k, false);
+			identicalReads(k, true);
+		}
+		// la risposta 0 e' quella delle informazioni di sistema, fuori dalla pipeline
+		for (int k = 1; k < 18; k++)
+			wholeMemory(k);
+		System.out.println("CommandPipelineCheck: OK");
+	}
+
+	/**
+	 * Without faults the replies are passed to the handlers in submission order
+	 * and nothing is sent again.
+	 */
+	private static void inOrder() throws RFReaderException {
+		ReaderSimulator sim = simulator();
+		ISO15693Reader reader = new ISO15693Reader(sim);
+		CommandPipeline p = new CommandPipeline(reader, 4);
+		List<Expect> log = new ArrayList<Expect>();
+		List<Expect> submitted = submitAll(sim, reader, p, log);
+		p.flush();
+		sameOrder("in order", submitted, log);
+		check("in order: overlap", 1, reader.arbiter().overlap);
+		check("in order: resent", 0, (int) p.getResentCount());
+		// due comandi di verifica dei frame sovrapposti
+		check("in order: commands", submitted.size() + 2, (int) sim.getCommandCount());
+		check("in order: pending", 0, p.getPendingCount());
+	}
+
+	/**
+	 * The reply of the k-th command sent (the probe counts) is lost or
+	 * corrupted: every handler is still called once, with its own data and in
+	 * submission order. A lost probe reply makes the pipeline fall back to
+	 * depth 1.
+	 */
+	private static void lostReply(int k, boolean corrupt) throws RFReaderException {
+		String test = (corrupt ? "corrupted reply " : "lost reply ") + k;
+		ReaderSimulator sim = simulator();
+		ISO15693Reader reader = new ISO15693Reader(sim);
+		reader.setTimeout(50);
+		fault(sim, k, corrupt);
+		CommandPipeline p = new CommandPipeline(reader, 4);
+		List<Expect> log = new ArrayList<Expect>();
+		List<Expect> submitted = submitAll(sim, reader, p, log);
+		p.flush();
+		sameOrder(test, submitted, log);
+		if (p.getResentCount() == 0 && !p.isOverlapRejected())
+			fail(test + ": nothing sent again");
+	}
+
+	/**
+	 * A 3-deep pipeline of identical reads of one tag, whose k-th reply is lost
+	 * or corrupted: the replies after the lost one must not be passed to the
+	 * handlers of the previous reads.
+	 */
+	private static void identicalReads(int k, boolean corrupt) throws RFReaderException {
+		String test = (corrupt ? "identical reads, corrupted reply " : "identical reads, lost reply ") + k;
+		ReaderSimulator sim = simulator();
+		SimulatedTag tag = sim.getTags().get(0);
+		ISO15693Reader reader = new ISO15693Reader(sim);
+		reader.setTimeout(50);
+		CommandPipeline p = new CommandPipeline(reader, 3);
+		List<Expect> log = new ArrayList<Expect>();
+		List<Expect> submitted = new ArrayList<Expect>();
+		// la verifica dei frame sovrapposti avviene prima del guasto
+		read(reader, p, tag, 0, log, submitted);
+		read(reader, p, tag, CHUNK, log, submitted);
+		fault(sim, k, corrupt);
+		for (int first = 2 * CHUNK; first < N_BLOCKS; first += CHUNK)
+			read(reader, p, tag, first, log, submitted);
+		for (int first = 0; first < N_BLOCKS; first += CHUNK)
+			read(reader, p, tag, first, log, submitted);
+		p.flush();
+		sameOrder(test, submitted, log);
+		check(test + ": overlap", 1, reader.arbiter().overlap);
+	}
+
+	/**
+	 * The whole memory read by {@link TagMemoryReader} with 3 identical reads
+	 * on the line, one of whose replies is lost.
+	 */
+	private static void wholeMemory(int k) throws RFReaderException {
+		ReaderSimulator sim = simulator();
+		SimulatedTag tag = sim.getTags().get(0);
+		ISO15693Reader reader = new ISO15693Reader(sim);
+		reader.setTimeout(50);
+		TagMemoryReader mr = new TagMemoryReader(reader);
+		mr.setPipelineDepth(3);
+		mr.setMaxChunkBlocks(2);
+		sim.loseReplies(k, 1);
+		if (!Arrays.equals(tag.memory, mr.readAll(tag.uid)))
+			fail("whole memory, lost reply " + k + ": wrong image");
+	}
+
+	private static void read(ISO15693Reader reader, CommandPipeline p, SimulatedTag tag, int first,
+			List<Expect> log, List<Expect> submitted) throws RFReaderException {
+		Expect e = new Expect("read " + first,
+				Arrays.copyOfRange(tag.memory, first * BLOCK_SIZE, (first + CHUNK) * BLOCK_SIZE), log);
+		submitted.add(e);
+		reader.read(tag.uid, first, CHUNK, p, e);
+	}
+
+	private static void fault(ReaderSimulator sim, int k, boolean corrupt) {
+		if (corrupt)
+			sim.corruptReplies(k, 1);
+		else
+			sim.loseReplies(k, 1);
+	}
+
+	private static void sameOrder(String test, List<Expect> submitted, List<Expect> log) {
+		check(test + ": replies", submitted.size(), log.size());
+		for (int i = 0; i < log.size(); i++) {
+			if (log.get(i) != submitted.get(i))
+				fail(test + ": reply " + i + " is " + log.get(i).name + ", expected " + submitted.get(i).name);
+		}
+	}
+
+	/**
+	 * Reads the memory of each tag in chunks; each read is followed by the
+	 * system information of a tag, so that consecutive commands differ.
+	 */
+	private static List<Expect> submitAll(ReaderSimulator sim, ISO15693Reader reader, CommandPipeline p,
+			List<Expect> log) throws RFReaderException {
+		List<Expect> submitted = new ArrayList<Expect>();
+		List<SimulatedTag> tags = sim.getTags();
+		for (int first = 0; first < N_BLOCKS; first += CHUNK) {
+			for (int t = 0; t < tags.size(); t++) {
+				SimulatedTag tag = tags.get(t);
+				Expect read = new Expect("read " + t + "/" + first,
+						Arrays.copyOfRange(tag.memory, first * BLOCK_SIZE, (first + CHUNK) * BLOCK_SIZE), log);
+				submitted.add(read);
+				reader.read(tag.uid, first, CHUNK, p, read);
+
+				SimulatedTag other = tags.get((t + 1) % tags.size());
+				byte[] info = new byte[14];
+				info[0] = 0x0F;
+				System.arraycopy(other.uid, 0, info, 1, 8);
+				info[11] = (byte) (N_BLOCKS - 1);
+				info[12] = (byte) (BLOCK_SIZE - 1);
+				info[13] = other.icReference;
+				Expect e = new Expect("info " + t + "/" + first, info, log);
+				submitted.add(e);
+				p.submit(systemInformation(other.uid), e);
+			}
+		}
+		return submitted;
+	}
+
+	private static byte[] systemInformation(byte[] uid) {
+		byte[] cmd = new byte[11];
+		cmd[0] = (byte) 0xB0;
+		cmd[1] = 0x2B;
+		cmd[2] = 0x20; // addressed
+		System.arraycopy(uid, 0, cmd, 3, 8);
+		return cmd;
+	}
+
+	/**
+	 * A simulator with tags of random content which takes 1 ms for each command,
+	 * so that several frames are on the line at the same time.
+	 */
+	private static ReaderSimulator simulator() {
+		ReaderSimulator sim = new ReaderSimulator();
+		sim.setBaudRate(0);
+		sim.setDefaultLatency(1000);
+		for (int i = 0; i < N_TAGS; i++) {
+			SimulatedTag tag = SimulatedTag.iso15693(0xE004010000000100L + i, N_BLOCKS, BLOCK_SIZE);
+			random.nextBytes(tag.memory);
+			sim.addTag(tag);
+		}
+		return sim;
+	}
+
+	private static void check(String test, int expected, int actual) {
+		if (expected != actual)
+			fail(test + ": expected " + expected + ", got " + actual);
+	}
+
+	static void fail(String message) {
+		System.out.println("CommandPipelineCheck: " + message);
+		System.exit(1);
+	}
+}
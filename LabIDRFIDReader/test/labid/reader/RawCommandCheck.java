@@ -0,0 +1,68 @@
+package labid.reader;
+
+import java.util.Arrays;
+
+import labid.comm.Crc16;
+import labid.comm.FrameDecoder;
+import labid.simulator.ReaderSimulator;
+
+/**
+ * Checks {@link LocalRFReader#writeToSerialPort(byte[])} on a
+ * {@link ReaderSimulator} which sends the replies byte by byte at 115200
+ * baud: the whole reply frame is returned, a corrupted or lost reply is
+ * reported as missing and does not delay the following command. Exits with
+ * status 1 on the first failure.
+ * <pre>
+ * java -cp bin labid.reader.RawCommandCheck
+ * </pre>
+ */
+public class RawCommandCheck {
+
+	public static void main(String[] args) throws RFReaderException {
+		ReaderSimulator sim = new ReaderSimulator();
+		sim.setCommandLatency(0x00, 0x01, 2000);
+		LabIdReader reader = new LabIdReader(sim);
+		reader.setTimeout(200);
+		byte[] frame = new byte[6];
+		FrameDecoder.encode(new byte[] { 0x00, 0x01 }, 0, 2, frame, 0);
+		byte[] uid = reader.getReaderUID();
+
+		for (int i = 0; i < 20; i++)
+			reply("reply " + i, reader.writeToSerialPort(frame), uid);
+
+		sim.corruptReplies(0, 1);
+		missing("corrupted reply", reader, frame);
+		reply("after corrupted reply", reader.writeToSerialPort(frame), uid);
+
+		sim.loseReplies(0, 1);
+		missing("lost reply", reader, frame);
+		reply("after lost reply", reader.writeToSerialPort(frame), uid);
+		System.out.println("RawCommandCheck: OK");
+	}
+
+	private static void reply(String test, byte[] reply, byte[] uid) {
+		int len = (reply[0] & 0xFF) | ((reply[1] & 0x01) << 8);
+		if (len != reply.length)
+			fail(test + ": length " + len + ", got " + reply.length + " bytes");
+		if (Crc16.compute(reply, 0, reply.length) != 0)
+			fail(test + ": bad CRC");
+		if (reply[3] != 0x01 || reply[4] != 0x00)
+			fail(test + ": unexpected reply");
+		if (!Arrays.equals(uid, Arrays.copyOfRange(reply, 5, 5 + uid.length)))
+			fail(test + ": wrong UID");
+	}
+
+	private static void missing(String test, LabIdReader reader, byte[] frame) {
+		try {
+			reader.writeToSerialPort(frame);
+			fail(test + ": no exception");
+		} catch (RFReaderException e) {
+			// atteso
+		}
+	}
+
+	private static void fail(String message) {
+		System.out.println("RawCommandCheck: " + message);
+		System.exit(1);
+	}
+}
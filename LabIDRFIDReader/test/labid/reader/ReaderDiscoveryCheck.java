@@ -0,0 +1,81 @@
+package labid.reader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import labid.comm.CableStream;
+import labid.simulator.ReaderSimulator;
+
+/**
+ * Checks {@link ReaderDiscovery} on ports emulated by {@link ReaderSimulator}
+ * objects, some of which never answer: the first discovery waits for every
+ * port, a warm start returns as soon as the recorded reader answers, and a
+ * reader moved to another port is found all the same. Exits with status 1 on
+ * the first failure.
+ * <pre>
+ * java -cp bin labid.reader.ReaderDiscoveryCheck
+ * </pre>
+ */
+public class ReaderDiscoveryCheck {
+
+	private static final long MS = 1000000L;
+	private static final String[] PORTS = { "A", "B", "C", "D" };
+
+	/** porta del lettore: le altre non rispondono, D non esiste */
+	private static volatile String readerPort = "A";
+
+	public static void main(String[] args) throws IOException {
+		File file = File.createTempFile("labid-readers", ".properties");
+		file.delete();
+		try {
+			long cold = discover(file, "A", "cold start");
+			if (cold < 250 * MS)
+				fail("cold start: silent ports not probed (" + cold / MS + " ms)");
+			long warm = discover(file, "A", "warm start");
+			if (warm > cold / 2)
+				fail("warm start: " + warm / MS + " ms, cold start " + cold / MS + " ms");
+			readerPort = "C";
+			discover(file, "C", "moved reader");
+			discover(file, "C", "warm start after move");
+		} finally {
+			file.delete();
+		}
+		System.out.println("ReaderDiscoveryCheck: OK");
+	}
+
+	/**
+	 * Runs a discovery which must find one reader on the port.
+	 *
+	 * @return The duration of the discovery in ns.
+	 */
+	private static long discover(File file, String port, String test) throws IOException {
+		ReaderDiscovery discovery = new ReaderDiscovery(file) {
+			protected CableStream openPort(String name, int baudrate) throws IOException {
+				if (name.equals("D"))
+					throw new IOException("No such port");
+				ReaderSimulator sim = new ReaderSimulator();
+				sim.setBaudRate(0);
+				if (!name.equals(readerPort))
+					sim.loseReplies(0, Integer.MAX_VALUE);
+				return sim;
+			}
+		};
+		discovery.setProbeTimeout(50);
+		long start = System.nanoTime();
+		List<DiscoveredReader> readers = discovery.discover(PORTS);
+		long elapsed = System.nanoTime() - start;
+		if (readers.size() != 1)
+			fail(test + ": " + readers.size() + " readers found");
+		DiscoveredReader r = readers.get(0);
+		if (!r.port.equals(port))
+			fail(test + ": reader found on " + r.port);
+		new LabIdReader(r.stream).close();
+		return elapsed;
+	}
+
+	private static void fail(String message) {
+		System.out.println("ReaderDiscoveryCheck: " + message);
+		System.exit(1);
+	}
+}
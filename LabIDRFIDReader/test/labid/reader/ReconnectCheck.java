@@ -0,0 +1,109 @@
+package labid.reader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import labid.comm.CableStream;
+import labid.comm.ReconnectingStream;
+import labid.simulator.ReaderSimulator;
+
+/**
+ * Checks a {@link ReconnectingStream} whose connections are
+ * {@link ReaderSimulator} objects, each one a reader which has been plugged in
+ * again with its default configuration: the commands which only read data are
+ * sent again on the new connection, the others fail, and the
+ * {@link CommandArbiter} writes again the configuration registers written to
+ * RAM, but not those written to EEPROM. Exits with status 1 on the first
+ * failure.
+ * <pre>
+ * java -cp bin labid.reader.ReconnectCheck
+ * </pre>
+ */
+public class ReconnectCheck {
+
+	private static final List<ReaderSimulator> connections = new ArrayList<ReaderSimulator>();
+
+	public static void main(String[] args) throws IOException {
+		ReconnectingStream stream = new ReconnectingStream(new ReconnectingStream.Connector() {
+			public CableStream connect() {
+				ReaderSimulator sim = new ReaderSimulator();
+				sim.setBaudRate(0);
+				synchronized (connections) {
+					connections.add(sim);
+				}
+				return sim;
+			}
+		});
+		stream.setBackoff(10, 100);
+		LabIdReader reader = new LabIdReader(stream);
+		ReaderConfiguration defaults = reader.getReaderConfiguration();
+
+		ReaderConfiguration ram = reader.getReaderConfiguration();
+		ram.BeepOnSuccess = !ram.BeepOnSuccess;
+		ram.Scan_FirstBlock = 5;
+		ram.Scan_NBlocks = 7;
+		reader.setReaderConfiguration(ram, false);
+
+		// un comando di sola lettura viene ripetuto sulla nuova connessione
+		connection(0).Close();
+		reader.getReaderUID();
+		check("generation", 1, (int) stream.getGeneration());
+		check("connections", 2, connectionCount());
+		same("RAM registers restored", ram, reader.getReaderConfiguration());
+
+		// gli altri comandi falliscono
+		connection(1).Close();
+		try {
+			reader.beep();
+			fail("beep: no exception");
+		} catch (RFReaderException e) {
+			// atteso
+		}
+		if (!stream.awaitConnected(System.nanoTime() + 5000000000L))
+			fail("not reconnected");
+		check("generation", 2, (int) stream.getGeneration());
+		same("RAM registers restored again", ram, reader.getReaderConfiguration());
+
+		// la scrittura in EEPROM sostituisce quella in RAM
+		ReaderConfiguration eeprom = reader.getReaderConfiguration();
+		eeprom.Scan_NBlocks = 9;
+		reader.setReaderConfiguration(eeprom, true);
+		connection(2).Close();
+		reader.getReaderUID();
+		check("connections", 4, connectionCount());
+		same("EEPROM registers not restored", defaults, reader.getReaderConfiguration());
+
+		stream.Close();
+		System.out.println("ReconnectCheck: OK");
+	}
+
+	private static ReaderSimulator connection(int i) {
+		synchronized (connections) {
+			return connections.get(i);
+		}
+	}
+
+	private static int connectionCount() {
+		synchronized (connections) {
+			return connections.size();
+		}
+	}
+
+	private static void same(String test, ReaderConfiguration expected, ReaderConfiguration actual) {
+		check(test + ": BeepOnSuccess", expected.BeepOnSuccess ? 1 : 0, actual.BeepOnSuccess ? 1 : 0);
+		check(test + ": Scan_FirstBlock", expected.Scan_FirstBlock, actual.Scan_FirstBlock);
+		check(test + ": Scan_NBlocks", expected.Scan_NBlocks, actual.Scan_NBlocks);
+		check(test + ": DefaultProtocol", expected.DefaultProtocol, actual.DefaultProtocol);
+	}
+
+	private static void check(String test, int expected, int actual) {
+		if (expected != actual)
+			fail(test + ": expected " + expected + ", got " + actual);
+	}
+
+	private static void fail(String message) {
+		System.out.println("ReconnectCheck: " + message);
+		System.exit(1);
+	}
+}
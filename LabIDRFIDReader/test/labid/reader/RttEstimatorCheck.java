@@ -0,0 +1,198 @@
+package labid.reader;
+
+import java.util.Arrays;
+
+import labid.iso15693.ISO15693Reader;
+import labid.simulator.ReaderSimulator;
+import labid.simulator.SimulatedTag;
+
+/**
+ * Checks {@link RttEstimator}: the deadlines follow the measured reply times
+ * of each command type, timeouts double them until a reply is received, the
+ * transmission time at the baud rate is kept apart and ISO15693 reads and
+ * writes are measured separately for each number of blocks; on a
+ * {@link ReaderSimulator}, a lost reply is detected long before the
+ * communication timeout and a long write is not cut short by the deadline of
+ * short ones. Exits with status 1 on the first failure.
+ * <pre>
+ * java -cp bin labid.reader.RttEstimatorCheck
+ * </pre>
+ */
+public class RttEstimatorCheck {
+
+	private static final long MS = 1000000L;
+	private static final byte[] UID = { 0x00, 0x01 };
+	private static final byte[] VERSION = { 0x00, 0x65 };
+
+	public static void main(String[] args) throws RFReaderException {
+		estimates();
+		backoff();
+		baudRate();
+		commandTypes();
+		blockCounts();
+		lostReply();
+		longWrite();
+		System.out.println("RttEstimatorCheck: OK");
+	}
+
+	/**
+	 * Without samples the deadline is the upper limit; fast commands get the
+	 * minimum timeout, slow ones their reply time plus a margin.
+	 */
+	private static void estimates() {
+		RttEstimator rtt = new RttEstimator();
+		check("no samples", 1000 * MS, rtt.getTimeout(UID, 6, 1000 * MS));
+		check("no samples: rtt", -1, rtt.getRtt(UID));
+		for (int i = 0; i < 20; i++)
+			rtt.sample(UID, 5 * MS, 6, 11);
+		check("fast command", 20 * MS, rtt.getTimeout(UID, 6, 1000 * MS));
+		check("fast command: rtt", 5000, rtt.getRtt(UID));
+		for (int i = 0; i < 50; i++)
+			rtt.sample(VERSION, 50 * MS, 6, 12);
+		range("slow command", 50 * MS, 55 * MS, rtt.getTimeout(VERSION, 6, 1000 * MS));
+		// un campione lento allarga il margine
+		rtt.sample(VERSION, 150 * MS, 6, 12);
+		range("slow sample", 150 * MS, 200 * MS, rtt.getTimeout(VERSION, 6, 1000 * MS));
+		check("upper limit", 100 * MS, rtt.getTimeout(VERSION, 6, 100 * MS));
+		rtt.reset();
+		check("reset", 1000 * MS, rtt.getTimeout(UID, 6, 1000 * MS));
+	}
+
+	/**
+	 * Each timeout doubles the deadline of its command type, a reply restores it.
+	 */
+	private static void backoff() {
+		RttEstimator rtt = new RttEstimator();
+		for (int i = 0; i < 20; i++)
+			rtt.sample(UID, 5 * MS, 6, 11);
+		rtt.timedOut(UID);
+		check("backoff 1", 40 * MS, rtt.getTimeout(UID, 6, 1000 * MS));
+		rtt.timedOut(UID);
+		check("backoff 2", 80 * MS, rtt.getTimeout(UID, 6, 1000 * MS));
+		for (int i = 0; i < 10; i++)
+			rtt.timedOut(UID);
+		check("backoff limit", 1000 * MS, rtt.getTimeout(UID, 6, 1000 * MS));
+		check("backoff: other command", 1000 * MS, rtt.getTimeout(VERSION, 6, 1000 * MS));
+		rtt.sample(UID, 5 * MS, 6, 11);
+		check("backoff reset", 20 * MS, rtt.getTimeout(UID, 6, 1000 * MS));
+	}
+
+	/**
+	 * The transmission of the frames is not part of the processing time, and
+	 * is added to the deadline of each frame.
+	 */
+	private static void baudRate() {
+		RttEstimator rtt = new RttEstimator();
+		rtt.setBaudRate(9600);
+		long byteNanos = rtt.getByteTime();
+		check("byte time", 1041666, byteNanos);
+		for (int i = 0; i < 20; i++)
+			rtt.sample(UID, 30 * MS + 17 * byteNanos, 6, 11);
+		check("processing time", 30000, rtt.getRtt(UID));
+		range("deadline", 30 * MS + 6 * byteNanos, 31 * MS + 6 * byteNanos, rtt.getTimeout(UID, 6, 1000 * MS));
+		check("no samples", 6 * byteNanos + 1000 * MS, rtt.getTimeout(VERSION, 6, 1000 * MS));
+		check("transfer time", 100 * byteNanos + 20 * MS, rtt.getTransferTime(100));
+	}
+
+	/**
+	 * Custom ISO15693 commands are told apart by the code after the
+	 * manufacturer code.
+	 */
+	private static void commandTypes() {
+		RttEstimator rtt = new RttEstimator();
+		byte[] easAlarm = { (byte) 0xB1, 0x04, (byte) 0xA5 };
+		byte[] setEas = { (byte) 0xB1, 0x04, (byte) 0xA2 };
+		for (int i = 0; i < 20; i++)
+			rtt.sample(easAlarm, 40 * MS, 6, 11);
+		range("custom command", 40 * MS, 41 * MS, rtt.getTimeout(easAlarm, 6, 1000 * MS));
+		check("other custom command", 1000 * MS, rtt.getTimeout(setEas, 6, 1000 * MS));
+	}
+
+	/**
+	 * Reads of multiple blocks are told apart by the number of blocks, which
+	 * follows the UID in addressed commands.
+	 */
+	private static void blockCounts() {
+		RttEstimator rtt = new RttEstimator();
+		byte[] read2 = { (byte) 0xB0, 0x23, 0x20, 1, 2, 3, 4, 5, 6, 7, 8, 0, 2 };
+		byte[] read32 = { (byte) 0xB0, 0x23, 0x20, 1, 2, 3, 4, 5, 6, 7, 8, 0, 32 };
+		byte[] notAddressed = { (byte) 0xB0, 0x23, 0x00, 4, 2 };
+		for (int i = 0; i < 20; i++)
+			rtt.sample(read2, 10 * MS, 19, 17);
+		check("2 blocks", 20 * MS, rtt.getTimeout(read2, 19, 1000 * MS));
+		check("32 blocks", 1000 * MS, rtt.getTimeout(read32, 19, 1000 * MS));
+		check("not addressed", 20 * MS, rtt.getTimeout(notAddressed, 11, 1000 * MS));
+		rtt.timedOut(read32);
+		check("32 blocks: backoff", 20 * MS, rtt.getTimeout(read2, 19, 1000 * MS));
+	}
+
+	/**
+	 * A reader whose reply is lost fails at the adapted deadline, not at the
+	 * communication timeout; commands whose reply time depends on the tags
+	 * get the whole timeout.
+	 */
+	private static void lostReply() throws RFReaderException {
+		ReaderSimulator sim = new ReaderSimulator();
+		sim.setBaudRate(0);
+		sim.setCommandLatency(0x00, 0x01, 5000);
+		LabIdReader reader = new LabIdReader(sim);
+		reader.setTimeout(2000);
+		RttEstimator rtt = reader.arbiter().getRttEstimator();
+		for (int i = 0; i < 20; i++)
+			reader.getReaderUID();
+		range("measured", 5000, 15000, rtt.getRtt(UID));
+
+		sim.loseReplies(0, 1);
+		long start = System.nanoTime();
+		try {
+			reader.getReaderUID();
+			fail("lost reply: no exception");
+		} catch (RFReaderException e) {
+			// atteso
+		}
+		range("lost reply: detected", 15 * MS, 300 * MS, System.nanoTime() - start);
+		reader.getReaderUID();
+
+		byte[] inventory = { (byte) 0xB0, 0x01, 0x00 };
+		check("inventory", 2000 * MS, reader.replyTimeout(inventory, 7));
+	}
+
+	/**
+	 * A reader which takes 2 ms for each block written: a write of 32 blocks
+	 * after many writes of one block gets enough time and its success is
+	 * reported.
+	 */
+	private static void longWrite() throws RFReaderException {
+		ReaderSimulator sim = new ReaderSimulator();
+		sim.setBaudRate(0);
+		sim.setCommandLatency(0xB0, 0x24, 5000);
+		sim.setBlockTime(2000);
+		SimulatedTag tag = SimulatedTag.iso15693(0xE004010000000100L, 64, 4);
+		sim.addTag(tag);
+		ISO15693Reader reader = new ISO15693Reader(sim);
+		reader.setTimeout(1000);
+		byte[] data = new byte[32 * 4];
+		for (int i = 0; i < 20; i++)
+			reader.write(tag.uid, data, i, 1);
+		Arrays.fill(data, (byte) 0x5A);
+		for (int i = 0; i < 3; i++)
+			reader.write(tag.uid, data, 32, 32);
+		if (!Arrays.equals(data, Arrays.copyOfRange(tag.memory, 32 * 4, 64 * 4)))
+			fail("long write: blocks not written");
+	}
+
+	private static void check(String test, long expected, long actual) {
+		if (expected != actual)
+			fail(test + ": expected " + expected + ", got " + actual);
+	}
+
+	private static void range(String test, long min, long max, long actual) {
+		if (actual < min || actual > max)
+			fail(test + ": expected " + min + ".." + max + ", got " + actual);
+	}
+
+	private static void fail(String message) {
+		System.out.println("RttEstimatorCheck: " + message);
+		System.exit(1);
+	}
+}
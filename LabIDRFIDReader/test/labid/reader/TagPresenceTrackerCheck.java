@@ -0,0 +1,60 @@
+package labid.reader;
+
+/**
+ * Checks {@link TagPresenceTracker}: arrivals, departures after the configured
+ * number of missed rounds, and a tag reported more than once in a round
+ * counted once, with a single notification. Exits with status 1 on the first
+ * failure.
+ * <pre>
+ * java -cp bin labid.reader.TagPresenceTrackerCheck
+ * </pre>
+ */
+public class TagPresenceTrackerCheck {
+
+	private static final long A = 0xE004010000000001L;
+	private static final long B = 0xE004010000000002L;
+
+	private static final int[] events = new int[3];
+
+	public static void main(String[] args) {
+		TagPresenceTracker tracker = new TagPresenceTracker(2);
+		tracker.setReportStillPresent(true);
+		tracker.addListener(new TagPresenceListener() {
+			public void presenceChanged(TagPresenceEvent event) {
+				events[event.type]++;
+			}
+		});
+
+		// A letto due volte nello stesso round
+		tracker.round(new long[] { A, B, A }, 3, 1000);
+		check("arrived", 2, events[TagPresenceEvent.ARRIVED]);
+		check("still present in the first round", 0, events[TagPresenceEvent.STILL_PRESENT]);
+		check("first round: read count", 1, tracker.getReadCount(A));
+
+		tracker.round(new long[] { A, A, A, B }, 4, 2000);
+		check("second round: read count", 2, tracker.getReadCount(A));
+		check("second round: still present", 2, events[TagPresenceEvent.STILL_PRESENT]);
+		check("second round: last seen", 2000, tracker.getLastSeen(A));
+
+		tracker.beginRound(3000);
+		tracker.seen(A);
+		tracker.seen(A);
+		tracker.endRound();
+		check("third round: read count", 3, tracker.getReadCount(A));
+		check("third round: B read count", 2, tracker.getReadCount(B));
+		check("third round: departed", 0, events[TagPresenceEvent.DEPARTED]);
+
+		tracker.round(new long[] { A }, 1, 4000);
+		check("B departed", 1, events[TagPresenceEvent.DEPARTED]);
+		check("size", 1, tracker.size());
+		check("B read count", 0, tracker.getReadCount(B));
+		System.out.println("TagPresenceTrackerCheck: OK");
+	}
+
+	private static void check(String test, long expected, long actual) {
+		if (expected != actual) {
+			System.out.println("TagPresenceTrackerCheck: " + test + ": expected " + expected + ", got " + actual);
+			System.exit(1);
+		}
+	}
+}